@@ -0,0 +1,158 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import io.github.cadiboo.nocubes.util.Face;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the meshers on synthetic terrain, without Minecraft.
+ * Run with "gradlew jmh" (optionally "-PjmhInclude=regex").
+ * Reports ops/s, faces/s and cells/s, plus ns/cell (from {@link NanosPerCellProfiler}) and
+ * bytes allocated per op (gc.alloc.rate.norm from the GC profiler).
+ * <p>
+ * Mesh sizes are 1 (collisions/highlight), 16 (a chunk section) and 64 (a large region),
+ * all with the same negative and positive extensions the world based meshing uses.
+ *
+ * @author Cadiboo
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshBenchmark {
+
+	@Param({"1", "16", "64"})
+	public int meshSize;
+	@Param
+	public TerrainField terrain;
+
+	int fieldSize;
+	long cellsPerMesh;
+	float[] field;
+	BinaryDensityField binaryField;
+	FaceCounter faceCounter;
+	MeshBuffer meshBuffer;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		fieldSize = MeshGenerator.MESH_SIZE_NEGATIVE_EXTENSION + meshSize + MeshGenerator.MESH_SIZE_POSITIVE_EXTENSION;
+		// Every cell needs the data at n+1
+		// Counted the same for every mesher (even though marching cubes skips the padding) so that ns/cell compares the same area
+		cellsPerMesh = (long) (fieldSize - 1) * (fieldSize - 1) * (fieldSize - 1);
+		field = terrain.generate(fieldSize, fieldSize, fieldSize);
+		binaryField = new BinaryDensityField();
+		binaryField.reset(fieldSize, fieldSize, fieldSize);
+		for (int i = 0; i < field.length; ++i)
+			binaryField.set(i, field[i]);
+		faceCounter = new FaceCounter(blackhole);
+		meshBuffer = new MeshBuffer();
+	}
+
+	@Benchmark
+	public void surfaceNets(Counters counters) {
+		faceCounter.faces = 0;
+		SurfaceNets.generateOrThrow(field, fieldSize, fieldSize, fieldSize, faceCounter);
+		counters.faces += faceCounter.faces;
+		counters.cells += cellsPerMesh;
+	}
+
+	@Benchmark
+	public MeshBuffer surfaceNetsMeshBuffer(Counters counters) {
+		meshBuffer.clear();
+		SurfaceNets.generateOrThrow(field, fieldSize, fieldSize, fieldSize, meshBuffer);
+		counters.faces += meshBuffer.quadCount;
+		counters.cells += cellsPerMesh;
+		return meshBuffer;
+	}
+
+	@Benchmark
+	public MeshBuffer surfaceNetsBinaryField(Counters counters) {
+		meshBuffer.clear();
+		SurfaceNets.generateOrThrow(binaryField, meshBuffer);
+		counters.faces += meshBuffer.quadCount;
+		counters.cells += cellsPerMesh;
+		return meshBuffer;
+	}
+
+	@Benchmark
+	public void marchingCubes(Counters counters) {
+		faceCounter.faces = 0;
+		MarchingCubes.generateOrThrow(field, fieldSize, fieldSize, fieldSize, faceCounter);
+		counters.faces += faceCounter.faces;
+		counters.cells += cellsPerMesh;
+	}
+
+	@Benchmark
+	public MeshBuffer marchingCubesMeshBuffer(Counters counters) {
+		meshBuffer.clear();
+		MarchingCubes.generateOrThrow(field, fieldSize, fieldSize, fieldSize, meshBuffer);
+		counters.faces += meshBuffer.quadCount;
+		counters.cells += cellsPerMesh;
+		return meshBuffer;
+	}
+
+	@Benchmark
+	public MeshBuffer marchingCubesBinaryField(Counters counters) {
+		meshBuffer.clear();
+		MarchingCubes.generateOrThrow(binaryField, meshBuffer);
+		counters.faces += meshBuffer.quadCount;
+		counters.cells += cellsPerMesh;
+		return meshBuffer;
+	}
+
+	/**
+	 * Normalised to time by JMH, so these show up as faces/s and cells/s.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Counters {
+
+		public long faces;
+		public long cells;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			faces = 0;
+			cells = 0;
+		}
+
+	}
+
+	/**
+	 * Reused between invocations so that it doesn't show up in the allocation numbers.
+	 */
+	static final class FaceCounter implements MeshGenerator.FaceAction {
+
+		final Blackhole blackhole;
+		long faces;
+
+		FaceCounter(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public boolean apply(int x, int y, int z, Face face) {
+			++faces;
+			blackhole.consume(face);
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,41 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Turns the "cells" throughput counter of {@link MeshBenchmark} into the time taken per cell.
+ * Use with "-prof io.github.cadiboo.nocubes.mesh.NanosPerCellProfiler".
+ *
+ * @author Cadiboo
+ */
+public class NanosPerCellProfiler implements InternalProfiler {
+
+	@Override
+	public String getDescription() {
+		return "Nanoseconds taken per cell marched";
+	}
+
+	@Override
+	public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+	}
+
+	@Override
+	public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams, IterationResult result) {
+		Result cells = result.getSecondaryResults().get("cells");
+		if (cells == null || benchmarkParams.getMode() != Mode.Throughput || cells.getScore() == 0)
+			return Collections.emptyList();
+		double nanosPerTimeUnit = benchmarkParams.getTimeUnit().toNanos(1);
+		return Collections.singletonList(new ScalarResult("cell.time", nanosPerTimeUnit / cells.getScore(), "ns/cell", AggregationPolicy.AVG));
+	}
+
+}
@@ -0,0 +1,118 @@
+package io.github.cadiboo.nocubes.mesh;
+
+/**
+ * Deterministic synthetic density fields for benchmarking the meshers without a world.
+ * Positive density is smoothable (e.g. stone/dirt), negative density is air.
+ * All fields are sampled in 'world' coordinates around {@link #SURFACE_Y} so that small
+ * regions (e.g. the 1x1x1 collision size) still contain the interesting part of the terrain.
+ *
+ * @author Cadiboo
+ */
+public enum TerrainField {
+
+	FLAT_PLAINS {
+		@Override
+		float density(int x, int y, int z) {
+			return y < SURFACE_Y ? 1 : -1;
+		}
+	},
+	NOISE_HILLS {
+		@Override
+		float density(int x, int y, int z) {
+			return y < hillHeight(x, z) ? 1 : -1;
+		}
+	},
+	CAVES {
+		@Override
+		float density(int x, int y, int z) {
+			if (y >= hillHeight(x, z))
+				return -1;
+			// Carve out blobs wherever the 3d noise is high enough
+			return noise(x * 0.125F, y * 0.125F, z * 0.125F, 0x9E3779B9) > 0.25F ? -1 : 1;
+		}
+	},
+	SNOW_LAYERS {
+		@Override
+		float density(int x, int y, int z) {
+			if (y < SURFACE_Y)
+				return 1;
+			if (y > SURFACE_Y)
+				return -1;
+			// Same mapping as ModUtil.mapSnowHeight
+			int layers = 1 + (hash(x, 0, z, 0x7F4A7C15) & 7);
+			return (layers - 1) * 0.125F;
+		}
+	},
+	/** Worst case, every single cell is on the surface. */
+	CHECKERBOARD {
+		@Override
+		float density(int x, int y, int z) {
+			return ((x + y + z) & 1) == 0 ? 1 : -1;
+		}
+	};
+
+	static final int SURFACE_Y = 64;
+
+	abstract float density(int x, int y, int z);
+
+	/**
+	 * @return A new density field (indexed [z][y][x]) centred vertically around the surface
+	 */
+	public float[] generate(int fieldSizeX, int fieldSizeY, int fieldSizeZ) {
+		float[] field = new float[fieldSizeX * fieldSizeY * fieldSizeZ];
+		int startY = SURFACE_Y - fieldSizeY / 2;
+		int index = 0;
+		for (int z = 0; z < fieldSizeZ; ++z)
+			for (int y = 0; y < fieldSizeY; ++y)
+				for (int x = 0; x < fieldSizeX; ++x, ++index)
+					field[index] = density(x, startY + y, z);
+		return field;
+	}
+
+	static int hillHeight(int x, int z) {
+		float height = noise(x * 0.0625F, 0, z * 0.0625F, 0x2545F491) * 8 + noise(x * 0.25F, 0, z * 0.25F, 0x6C8E9CF5) * 2;
+		return SURFACE_Y + (int) height;
+	}
+
+	/**
+	 * Value noise with smoothstep interpolation.
+	 *
+	 * @return A value between -1 and 1
+	 */
+	static float noise(float x, float y, float z, int seed) {
+		int x0 = (int) Math.floor(x);
+		int y0 = (int) Math.floor(y);
+		int z0 = (int) Math.floor(z);
+		float tx = smooth(x - x0);
+		float ty = smooth(y - y0);
+		float tz = smooth(z - z0);
+		float c00 = lerp(tx, value(x0, y0, z0, seed), value(x0 + 1, y0, z0, seed));
+		float c10 = lerp(tx, value(x0, y0 + 1, z0, seed), value(x0 + 1, y0 + 1, z0, seed));
+		float c01 = lerp(tx, value(x0, y0, z0 + 1, seed), value(x0 + 1, y0, z0 + 1, seed));
+		float c11 = lerp(tx, value(x0, y0 + 1, z0 + 1, seed), value(x0 + 1, y0 + 1, z0 + 1, seed));
+		return lerp(tz, lerp(ty, c00, c10), lerp(ty, c01, c11));
+	}
+
+	static float value(int x, int y, int z, int seed) {
+		return (hash(x, y, z, seed) & 0xFFFF) / (float) 0x7FFF - 1;
+	}
+
+	static int hash(int x, int y, int z, int seed) {
+		int h = seed ^ (x * 0x1F1F1F1F) ^ (y * 0x5BD1E995) ^ (z * 0x27D4EB2D);
+		h ^= h >>> 15;
+		h *= 0x2C1B3C6D;
+		h ^= h >>> 12;
+		h *= 0x297A2D39;
+		h ^= h >>> 15;
+		return h;
+	}
+
+	static float smooth(float t) {
+		return t * t * (3 - 2 * t);
+	}
+
+	static float lerp(float t, float a, float b) {
+		return a + t * (b - a);
+	}
+
+}
@@ -1,7 +1,11 @@
 package io.github.cadiboo.nocubes.client;
 
 import io.github.cadiboo.nocubes.NoCubes;
+import io.github.cadiboo.nocubes.client.render.SectionMeshes;
 import io.github.cadiboo.nocubes.config.NoCubesConfig;
+import io.github.cadiboo.nocubes.mesh.MeshGenerator;
+import io.github.cadiboo.nocubes.mesh.MeshGenerators;
+import io.github.cadiboo.nocubes.network.C2SRequestSetTerrainMeshGenerator;
 import io.github.cadiboo.nocubes.network.C2SRequestUpdateSmoothable;
 import io.github.cadiboo.nocubes.network.NoCubesNetwork;
 import io.github.cadiboo.nocubes.smoothable.ServerSmoothableChangeHandler;
@@ -14,6 +18,7 @@ import net.minecraft.client.world.ClientWorld;
 import net.minecraft.util.math.BlockRayTraceResult;
 import net.minecraft.util.math.RayTraceResult;
 import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.client.event.ClientPlayerNetworkEvent;
 import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.client.registry.ClientRegistry;
@@ -35,6 +40,7 @@ public class KeybindHandler {
 	static {
 		KEYBINDS.add(makeKeybind("toggleSmoothable", GLFW.GLFW_KEY_N, KeybindHandler::toggleLookedAtSmoothable));
 		KEYBINDS.add(makeKeybind("toggleVisuals", GLFW.GLFW_KEY_O, KeybindHandler::toggleVisuals));
+		KEYBINDS.add(makeKeybind("cycleMeshGenerator", GLFW.GLFW_KEY_K, KeybindHandler::cycleMeshGenerator));
 	}
 
 	private static Pair<KeyBinding, Runnable> makeKeybind(String name, int key, Runnable action) {
@@ -52,7 +58,14 @@ public class KeybindHandler {
 				keybind.getValue().run();
 	}
 
-	private static void reloadAllChunks(Minecraft minecraft) {
+	@SubscribeEvent
+	public static void onLoggedOut(ClientPlayerNetworkEvent.LoggedOutEvent event) {
+		// The generator might have been changed (by the keybind or the last server), the next server might not have NoCubes to set it again
+		NoCubesConfig.Server.meshGenerator = MeshGenerators.DEFAULT;
+	}
+
+	public static void reloadAllChunks(Minecraft minecraft) {
+		SectionMeshes.invalidateAll();
 		WorldRenderer worldRenderer = minecraft.worldRenderer;
 		if (worldRenderer != null)
 			worldRenderer.loadRenderers();
@@ -90,4 +103,23 @@ public class KeybindHandler {
 		}
 	}
 
+	private static void cycleMeshGenerator() {
+		Minecraft minecraft = Minecraft.getInstance();
+		if (minecraft.player == null)
+			return;
+		MeshGenerator newGenerator = MeshGenerators.next(NoCubesConfig.Server.meshGenerator);
+		boolean singleplayer = minecraft.isSingleplayer() && !minecraft.getIntegratedServer().getPublic();
+		if (!singleplayer && !NoCubesNetwork.currentServerHasNoCubes) {
+			// The server doesn't have NoCubes, there are no collisions to agree with so just change the visuals
+			NoCubesConfig.Server.meshGenerator = newGenerator;
+			reloadAllChunks(minecraft);
+			return;
+		}
+		if (!minecraft.player.hasPermissionLevel(ServerSmoothableChangeHandler.REQUIRED_PERMISSION_LEVEL))
+			// Not enough permission, don't send packet that will be denied
+			return;
+		// The server sends the change back to every client (including us) if it accepts it
+		NoCubesNetwork.CHANNEL.sendToServer(new C2SRequestSetTerrainMeshGenerator(newGenerator));
+	}
+
 }
@@ -0,0 +1,109 @@
+package io.github.cadiboo.nocubes.client.render;
+
+import io.github.cadiboo.nocubes.NoCubes;
+import io.github.cadiboo.nocubes.config.NoCubesConfig;
+import io.github.cadiboo.nocubes.mesh.LevelOfDetail;
+import io.github.cadiboo.nocubes.mesh.MeshGenerators;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.vector.Vector3d;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+/**
+ * Works out which {@link LevelOfDetail} stride each chunk gets rendered with from how far it is from the camera.
+ * The rings are square (like the render distance) and centred on the chunk the camera is in.
+ * When the camera moves into another chunk the chunks whose stride changed (and their neighbours, whose seams changed) get re-rendered.
+ *
+ * @author Cadiboo
+ */
+@Mod.EventBusSubscriber(modid = NoCubes.MOD_ID, value = Dist.CLIENT)
+public final class LodRings {
+
+	/** The chunk the camera was in at the last tick, read by the chunk render threads. */
+	private static volatile long cameraChunk = ChunkPos.SENTINEL;
+
+	/**
+	 * @return The stride to mesh the chunk with, 1 for full detail
+	 */
+	public static int getStride(int chunkX, int chunkZ) {
+		final long camera = cameraChunk;
+		if (camera == ChunkPos.SENTINEL || NoCubesConfig.Server.meshGenerator != MeshGenerators.SURFACE_NETS)
+			return 1;
+		return getStride(chunkX, chunkZ, ChunkPos.getX(camera), ChunkPos.getZ(camera));
+	}
+
+	/**
+	 * @return The faces (bits like {@link LevelOfDetail#WEST}) of the chunk's sections that border sections with a smaller stride
+	 */
+	public static int getFinerFaces(int chunkX, int chunkZ, int stride) {
+		// Sections above and below are in the same chunk and always have the same stride
+		int faces = 0;
+		if (getStride(chunkX - 1, chunkZ) < stride)
+			faces |= LevelOfDetail.WEST;
+		if (getStride(chunkX + 1, chunkZ) < stride)
+			faces |= LevelOfDetail.EAST;
+		if (getStride(chunkX, chunkZ - 1) < stride)
+			faces |= LevelOfDetail.NORTH;
+		if (getStride(chunkX, chunkZ + 1) < stride)
+			faces |= LevelOfDetail.SOUTH;
+		return faces;
+	}
+
+	private static int getStride(int chunkX, int chunkZ, int cameraX, int cameraZ) {
+		final int distance = Math.max(Math.abs(chunkX - cameraX), Math.abs(chunkZ - cameraZ));
+		if (isInRing(distance, NoCubesConfig.Client.lodDistance8))
+			return 8;
+		if (isInRing(distance, NoCubesConfig.Client.lodDistance4))
+			return 4;
+		if (isInRing(distance, NoCubesConfig.Client.lodDistance2))
+			return 2;
+		return 1;
+	}
+
+	private static boolean isInRing(int distance, int ringDistance) {
+		// 0 disables the ring
+		return ringDistance > 0 && distance >= ringDistance;
+	}
+
+	@SubscribeEvent
+	public static void onClientTickEvent(TickEvent.ClientTickEvent event) {
+		if (event.phase != TickEvent.Phase.END)
+			return;
+		final Minecraft minecraft = Minecraft.getInstance();
+		final ClientWorld world = minecraft.world;
+		if (world == null) {
+			cameraChunk = ChunkPos.SENTINEL;
+			return;
+		}
+		final Vector3d view = minecraft.gameRenderer.getActiveRenderInfo().getProjectedView();
+		final int cameraX = ((int) Math.floor(view.x)) >> 4;
+		final int cameraZ = ((int) Math.floor(view.z)) >> 4;
+		final long oldCamera = cameraChunk;
+		final long newCamera = ChunkPos.asLong(cameraX, cameraZ);
+		if (oldCamera == newCamera)
+			return;
+		cameraChunk = newCamera;
+		if (oldCamera == ChunkPos.SENTINEL || !NoCubesConfig.Client.render || NoCubesConfig.Server.meshGenerator != MeshGenerators.SURFACE_NETS)
+			return;
+		if (NoCubesConfig.Client.lodDistance2 <= 0 && NoCubesConfig.Client.lodDistance4 <= 0 && NoCubesConfig.Client.lodDistance8 <= 0)
+			return;
+
+		final int oldCameraX = ChunkPos.getX(oldCamera);
+		final int oldCameraZ = ChunkPos.getZ(oldCamera);
+		final int renderDistance = minecraft.gameSettings.renderDistanceChunks;
+		for (int chunkX = cameraX - renderDistance; chunkX <= cameraX + renderDistance; ++chunkX) {
+			for (int chunkZ = cameraZ - renderDistance; chunkZ <= cameraZ + renderDistance; ++chunkZ) {
+				if (getStride(chunkX, chunkZ, oldCameraX, oldCameraZ) == getStride(chunkX, chunkZ, cameraX, cameraZ))
+					continue;
+				// Marks the neighbouring sections too
+				for (int sectionY = 0; sectionY < 16; ++sectionY)
+					world.markSurroundingsForRerender(chunkX, sectionY, chunkZ);
+			}
+		}
+	}
+
+}
@@ -2,13 +2,17 @@ package io.github.cadiboo.nocubes.client.render;
 
 import com.mojang.blaze3d.matrix.MatrixStack;
 import com.mojang.blaze3d.vertex.IVertexBuilder;
-import io.github.cadiboo.nocubes.NoCubes;
-import io.github.cadiboo.nocubes.util.Face;
+import io.github.cadiboo.nocubes.util.FloatFace;
 import io.github.cadiboo.nocubes.util.ReusableCache;
-import io.github.cadiboo.nocubes.util.Vec;
 import io.github.cadiboo.nocubes.config.NoCubesConfig;
-import io.github.cadiboo.nocubes.mesh.SurfaceNets;
-import io.github.cadiboo.nocubes.smoothable.SmoothableHandler;
+import io.github.cadiboo.nocubes.mesh.BinaryDensityField;
+import io.github.cadiboo.nocubes.mesh.LevelOfDetail;
+import io.github.cadiboo.nocubes.mesh.MeshBuffer;
+import io.github.cadiboo.nocubes.mesh.MeshGenerators;
+import io.github.cadiboo.nocubes.smoothable.AreaSnapshot;
+import io.github.cadiboo.nocubes.smoothable.SectionDensities;
+import io.github.cadiboo.nocubes.smoothable.SmoothableCounts;
+import io.github.cadiboo.nocubes.smoothable.StateProperties;
 import net.minecraft.block.BlockRenderType;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
@@ -24,117 +28,213 @@ import net.minecraft.client.renderer.color.BlockColors;
 import net.minecraft.client.renderer.model.BakedQuad;
 import net.minecraft.client.renderer.model.IBakedModel;
 import net.minecraft.client.renderer.vertex.DefaultVertexFormats;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.entity.Entity;
 import net.minecraft.state.properties.BlockStateProperties;
 import net.minecraft.util.Direction;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.SectionPos;
 import net.minecraft.util.math.vector.Matrix4f;
 import net.minecraft.world.IBlockDisplayReader;
 import net.minecraftforge.client.ForgeHooksClient;
 import net.minecraftforge.client.model.data.IModelData;
 
+import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.github.cadiboo.nocubes.mesh.MeshGenerator.MESH_SIZE_NEGATIVE_EXTENSION;
+import static io.github.cadiboo.nocubes.mesh.MeshGenerator.MESH_SIZE_POSITIVE_EXTENSION;
 
 /**
  * @author Cadiboo
  */
 public class MeshRenderer {
 
-	private static final ReusableCache<float[]> CHUNKS = new ReusableCache.Local<>();
+	private static final ReusableCache<BinaryDensityField> CHUNKS = new ReusableCache.Local<>();
+	private static final ReusableCache<MeshBuffer> CHUNK_MESHES = new ReusableCache.Local<>();
 	private static final ReusableCache<float[]> CRACKING = new ReusableCache.Global<>();
+	private static final ReusableCache<RenderData> DATA = new ReusableCache.Local<>();
+	private static final AtomicBoolean RECOUNT_QUEUED = new AtomicBoolean();
+	private static final int FIELD_SIZE = MESH_SIZE_NEGATIVE_EXTENSION + 16 + MESH_SIZE_POSITIVE_EXTENSION;
+	/**
+	 * The snapshots of the rebuilds that have been scheduled but haven't been compiled yet.
+	 * Weak because vanilla throws away the tasks of chunks that get rebuilt again or unloaded before they're compiled.
+	 */
+	private static final Map<ChunkRenderDispatcher.ChunkRender.RebuildTask, ScheduledRebuild> SCHEDULED = Collections.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * Called on the main thread when vanilla makes the task for rebuilding a chunk (the same time it copies the blocks into its render cache).
+	 * Snapshots the blocks the mesh needs so that {@link #renderChunk} never has to read the world from the chunk render thread.
+	 */
+	public static void onRebuildScheduled(ChunkRenderDispatcher.ChunkRender.RebuildTask rebuildTask, ChunkRenderDispatcher.ChunkRender chunkRender) {
+		if (!NoCubesConfig.Client.render)
+			return;
+		final Minecraft minecraft = Minecraft.getInstance();
+		final ClientWorld world = minecraft.world;
+		if (world == null || !minecraft.isOnExecutionThread())
+			return;
+		final BlockPos blockpos = chunkRender.getPosition();
+		final int stride = LodRings.getStride(blockpos.getX() >> 4, blockpos.getZ() >> 4);
+		// The mesh also uses the blocks 1 outside the chunk (more for lower detail meshes)
+		final int extension = stride == 1 ? 1 : LevelOfDetail.getFieldPadding(stride);
+		final AreaSnapshot snapshot = AreaSnapshot.take(
+			world,
+			(blockpos.getX() - extension) >> 4, (blockpos.getY() - extension) >> 4, (blockpos.getZ() - extension) >> 4,
+			(blockpos.getX() + 15 + extension) >> 4, (blockpos.getY() + 15 + extension) >> 4, (blockpos.getZ() + 15 + extension) >> 4
+		);
+		final long key = SectionPos.asLong(blockpos.getX() >> 4, blockpos.getY() >> 4, blockpos.getZ() >> 4);
+		SCHEDULED.put(rebuildTask, new ScheduledRebuild(snapshot, stride, SectionMeshes.getChanges(key), SectionMeshes.getResets()));
+	}
 
 	public static void renderChunk(final ChunkRenderDispatcher.ChunkRender.RebuildTask rebuildTask, ChunkRenderDispatcher.ChunkRender chunkRender, final ChunkRenderDispatcher.CompiledChunk compiledChunkIn, final RegionRenderCacheBuilder builderIn, final BlockPos blockpos, final IBlockDisplayReader chunkrendercache, final MatrixStack matrixstack, final Random random, final BlockRendererDispatcher blockrendererdispatcher) {
+		// Removed even if it doesn't get used, the task only compiles once
+		@Nullable
+		final ScheduledRebuild scheduled = SCHEDULED.remove(rebuildTask);
 		if (!NoCubesConfig.Client.render)
 			return;
+		if (scheduled != null && !scheduled.snapshot.anySmoothables())
+			return;
 
-		final Face normal = new Face(new Vec(), new Vec(), new Vec(), new Vec());
-		final Vec averageOfNormal = new Vec();
-		final TextureInfo uvs = new TextureInfo();
-		SurfaceNets.generate(
-			blockpos.getX(), blockpos.getY(), blockpos.getZ(),
-			16, 16, 16, chunkrendercache, NoCubes.smoothableHandler::isSmoothable, CHUNKS,
-			(pos, face) -> {
-				SmoothableHandler handler = NoCubes.smoothableHandler;
-
+		final RenderData data = DATA.getOrCreate(RenderData::new);
+		final FloatFace face = data.face;
+		final FloatFace normal = data.normal;
+		final TextureInfo uvs = data.uvs;
+		final BlockPos.Mutable pos = data.pos;
+		final MeshBuffer mesh = CHUNK_MESHES.getOrCreate(() -> new MeshBuffer(true, true));
+		final int stride = scheduled == null ? 1 : scheduled.stride;
+		if (scheduled == null)
+			// Not scheduled from the main thread so there's no snapshot, vanilla's render cache is a copy of the blocks though
+			NoCubesConfig.Server.meshGenerator.generate(
+				blockpos.getX(), blockpos.getY(), blockpos.getZ(),
+				16, 16, 16, chunkrendercache, SectionDensities.IS_SMOOTHABLE, CHUNKS.getOrCreate(BinaryDensityField::new),
+				mesh
+			);
+		else if (stride != 1) {
+			// Far away, mesh it at a lower detail
+			final int padding = LevelOfDetail.getFieldPadding(stride);
+			final int size = LevelOfDetail.getFieldSize(16, stride);
+			final BinaryDensityField densityField = CHUNKS.getOrCreate(BinaryDensityField::new);
+			densityField.reset(size, size, size);
+			scheduled.snapshot.fillDensityField(blockpos.getX() - padding, blockpos.getY() - padding, blockpos.getZ() - padding, densityField);
+			mesh.clear();
+			LevelOfDetail.generate(densityField, stride, LodRings.getFinerFaces(blockpos.getX() >> 4, blockpos.getZ() >> 4, stride), mesh);
+		} else if (NoCubesConfig.Server.meshGenerator == MeshGenerators.SURFACE_NETS)
+			// Only meshes the section if its mesh isn't already kept (and patched when blocks change)
+			SectionMeshes.getMesh(scheduled.snapshot, blockpos.getX() >> 4, blockpos.getY() >> 4, blockpos.getZ() >> 4, scheduled.changes, scheduled.resets, mesh);
+		else {
+			// The snapshot has the sections' cached densities, the render cache would need every block checked
+			final BinaryDensityField densityField = CHUNKS.getOrCreate(BinaryDensityField::new);
+			densityField.reset(FIELD_SIZE, FIELD_SIZE, FIELD_SIZE);
+			scheduled.snapshot.fillDensityField(blockpos.getX() - MESH_SIZE_NEGATIVE_EXTENSION, blockpos.getY() - MESH_SIZE_NEGATIVE_EXTENSION, blockpos.getZ() - MESH_SIZE_NEGATIVE_EXTENSION, densityField);
+			mesh.clear();
+			NoCubesConfig.Server.meshGenerator.generateOrThrow(densityField, mesh);
+		}
+		final StateProperties properties = StateProperties.get();
+		final int[] quadPositions = mesh.quadPositions;
+		for (int quad = 0; quad < mesh.quadCount; ++quad) {
+			mesh.assignQuadTo(quad, face);
+			pos.setPos(
+				blockpos.getX() + quadPositions[quad * 3],
+				blockpos.getY() + quadPositions[quad * 3 + 1],
+				blockpos.getZ() + quadPositions[quad * 3 + 2]
+			);
+			// The mesher works out the normals of the vertices once, instead of for every quad that uses them
+			if (!mesh.assignNormalsTo(quad, normal)) {
 				face.assignNormalTo(normal);
 				normal.multiply(-1);
-				normal.assignAverageTo(averageOfNormal);
-				Direction direction = averageOfNormal.getDirectionFromNormal();
-
-				BlockState blockstate = chunkrendercache.getBlockState(pos);
-				// Vertices can generate at positions different to the position of the block they are for
-				// This occurs mostly for positions below, west of and north of the position they are for
-				// Search the opposite of those directions for the actual block
-				// We could also attempt to get the state from the vertex positions
-				if (!handler.isSmoothable(blockstate)) {
-					int x = pos.getX();
-					int y = pos.getY();
-					int z = pos.getZ();
+			}
+			Direction direction = normal.getDirectionFromAverageNormal();
+
+			BlockState blockstate = chunkrendercache.getBlockState(pos);
+			int flags = properties.getFlags(blockstate);
+			// Vertices can generate at positions different to the position of the block they are for
+			// This occurs mostly for positions below, west of and north of the position they are for
+			// Search the opposite of those directions for the actual block
+			// We could also attempt to get the state from the vertex positions
+			if ((flags & StateProperties.SMOOTHABLE) == 0) {
+				int x = pos.getX();
+				int y = pos.getY();
+				int z = pos.getZ();
+				// Lower detail quads can be up to their stride away from their blocks
+				for (int i = 0; i < stride && (flags & StateProperties.SMOOTHABLE) == 0; ++i) {
 					blockstate = chunkrendercache.getBlockState(pos.move(direction.getOpposite()));
-					if (!handler.isSmoothable(blockstate)) {
-						// Give up
-						blockstate = Blocks.SCAFFOLDING.getDefaultState();
-						pos.setPos(x, y, z);
-					}
+					flags = properties.getFlags(blockstate);
 				}
+				if ((flags & StateProperties.SMOOTHABLE) == 0) {
+					// Give up
+					blockstate = Blocks.SCAFFOLDING.getDefaultState();
+					flags = properties.getFlags(blockstate);
+					pos.setPos(x, y, z);
+				}
+			}
 
-				long rand = blockstate.getPositionRandom(pos);
-				BlockColors blockColors = Minecraft.getInstance().getBlockColors();
-				int formatSize = DefaultVertexFormats.BLOCK.getIntegerSize();
-
-				IModelData modelData = rebuildTask.getModelData(pos);
-				for (RenderType rendertype : RenderType.getBlockRenderTypes()) {
-					if (blockstate.getRenderType() == BlockRenderType.INVISIBLE || !RenderTypeLookup.canRenderInLayer(blockstate, rendertype))
-						continue;
-					ForgeHooksClient.setRenderLayer(rendertype);
-					BufferBuilder bufferbuilder = builderIn.getBuilder(rendertype);
-					if (compiledChunkIn.layersStarted.add(rendertype)) {
-						chunkRender.beginLayer(bufferbuilder);
-					}
-					matrixstack.push();
-					matrixstack.translate(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
-
-					IBakedModel modelIn = blockrendererdispatcher.getModelForState(blockstate);
-					int light = WorldRenderer.getPackedLightmapCoords(chunkrendercache, blockstate, pos.offset(direction));
-					random.setSeed(rand);
-					List<BakedQuad> dirQuads;
-					if (blockstate.hasProperty(BlockStateProperties.SNOWY))
-						// Make grass/snow/mycilium side faces be rendered with their top texture
-						// Equivalent to OptiFine's Better Grass feature
-						if (!blockstate.get(BlockStateProperties.SNOWY))
-							dirQuads = modelIn.getQuads(blockstate, Direction.UP, random, modelData);
-						else {
-							// The texture of grass underneath the snow (that normally never gets seen) is grey, we don't want that
-							BlockState snow = Blocks.SNOW.getDefaultState();
-							dirQuads = blockrendererdispatcher.getModelForState(snow).getQuads(snow, null, random, modelData);
-						}
-					else
-						dirQuads = modelIn.getQuads(blockstate, direction, random, modelData);
-					random.setSeed(rand);
-					List<BakedQuad> nullQuads = modelIn.getQuads(blockstate, null, random, modelData);
-					if (dirQuads.isEmpty() && nullQuads.isEmpty()) // dirQuads is empty for the Barrier block
-						dirQuads = blockrendererdispatcher.getBlockModelShapes().getModelManager().getMissingModel().getQuads(blockstate, direction, random, modelData);
-					renderQuads(chunkrendercache, uvs, pos, face, normal, direction, blockstate, blockColors, formatSize, bufferbuilder, light, dirQuads, nullQuads);
-
-					if (true) {
-						compiledChunkIn.empty = false;
-						compiledChunkIn.layersUsed.add(rendertype);
+			long rand = blockstate.getPositionRandom(pos);
+			BlockColors blockColors = Minecraft.getInstance().getBlockColors();
+			int formatSize = DefaultVertexFormats.BLOCK.getIntegerSize();
+
+			IModelData modelData = rebuildTask.getModelData(pos);
+			final List<RenderType> renderTypes = RenderType.getBlockRenderTypes();
+			for (int layer = 0; layer < renderTypes.size(); ++layer) {
+				final RenderType rendertype = renderTypes.get(layer);
+				// Checked every time instead of kept in the table, the layers change at runtime (e.g. leaves when fancy graphics is toggled)
+				if ((flags & StateProperties.INVISIBLE) != 0 || !RenderTypeLookup.canRenderInLayer(blockstate, rendertype))
+					continue;
+				ForgeHooksClient.setRenderLayer(rendertype);
+				BufferBuilder bufferbuilder = builderIn.getBuilder(rendertype);
+				if (compiledChunkIn.layersStarted.add(rendertype)) {
+					chunkRender.beginLayer(bufferbuilder);
+				}
+				matrixstack.push();
+				matrixstack.translate(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+
+				IBakedModel modelIn = blockrendererdispatcher.getModelForState(blockstate);
+				int light = WorldRenderer.getPackedLightmapCoords(chunkrendercache, blockstate, pos.offset(direction));
+				random.setSeed(rand);
+				List<BakedQuad> dirQuads;
+				if (blockstate.hasProperty(BlockStateProperties.SNOWY))
+					// Make grass/snow/mycilium side faces be rendered with their top texture
+					// Equivalent to OptiFine's Better Grass feature
+					if (!blockstate.get(BlockStateProperties.SNOWY))
+						dirQuads = modelIn.getQuads(blockstate, Direction.UP, random, modelData);
+					else {
+						// The texture of grass underneath the snow (that normally never gets seen) is grey, we don't want that
+						BlockState snow = Blocks.SNOW.getDefaultState();
+						dirQuads = blockrendererdispatcher.getModelForState(snow).getQuads(snow, null, random, modelData);
 					}
-					matrixstack.pop();
+				else
+					dirQuads = modelIn.getQuads(blockstate, direction, random, modelData);
+				random.setSeed(rand);
+				List<BakedQuad> nullQuads = modelIn.getQuads(blockstate, null, random, modelData);
+				if (dirQuads.isEmpty() && nullQuads.isEmpty()) // dirQuads is empty for the Barrier block
+					dirQuads = blockrendererdispatcher.getBlockModelShapes().getModelManager().getMissingModel().getQuads(blockstate, direction, random, modelData);
+				renderQuads(chunkrendercache, uvs, pos, face, normal, direction, blockstate, blockColors, formatSize, bufferbuilder, light, dirQuads, nullQuads);
+
+				if (true) {
+					compiledChunkIn.empty = false;
+					compiledChunkIn.layersUsed.add(rendertype);
 				}
-				ForgeHooksClient.setRenderLayer(null);
-				return true;
+				matrixstack.pop();
 			}
-		);
+			ForgeHooksClient.setRenderLayer(null);
+		}
 	}
 
 	public static void renderBlockDamage(BlockRendererDispatcher blockRendererDispatcher, BlockState blockStateIn, BlockPos posIn, IBlockDisplayReader lightReaderIn, MatrixStack matrixStackIn, IVertexBuilder vertexBuilderIn, IModelData modelData) {
 		if (!NoCubesConfig.Client.render)
 			return;
 
-		final Face normal = new Face(new Vec(), new Vec(), new Vec(), new Vec());
-		final Vec averageOfNormal = new Vec();
-		final TextureInfo uvs = new TextureInfo();
+		final RenderData data = DATA.getOrCreate(RenderData::new);
+		final FloatFace face = data.face;
+		final FloatFace normal = data.normal;
+		final TextureInfo uvs = data.uvs;
+		final BlockPos.Mutable pos = data.pos;
+		final MeshBuffer mesh = data.crackingMesh;
 
 		long rand = blockStateIn.getPositionRandom(posIn);
 		Random random = blockRendererDispatcher.random;
@@ -143,45 +243,43 @@ public class MeshRenderer {
 
 		// TODO: This seems suspicious, keep synced with {@link net.minecraft.client.renderer.BlockModelRenderer.renderModel(net.minecraft.world.IBlockDisplayReader, net.minecraft.client.renderer.model.IBakedModel, net.minecraft.block.BlockState, net.minecraft.util.math.BlockPos, com.mojang.blaze3d.matrix.MatrixStack, com.mojang.blaze3d.vertex.IVertexBuilder, boolean, java.util.Random, long, int, net.minecraftforge.client.model.data.IModelData)}
 		modelData = model.getModelData(lightReaderIn, posIn, blockStateIn, modelData);
-		final IModelData modelDataFinal = modelData;
 
 		Matrix4f matrix4f = matrixStackIn.getLast().getMatrix();
-		SurfaceNets.generate(
+		NoCubesConfig.Server.meshGenerator.generate(
 			posIn.getX(), posIn.getY(), posIn.getZ(),
-			1, 1, 1, lightReaderIn, NoCubes.smoothableHandler::isSmoothable, CRACKING,
-			(pos, face) -> {
-				face.transform(matrix4f);
-
-				face.assignNormalTo(normal);
-				normal.multiply(-1);
-				normal.assignAverageTo(averageOfNormal);
-				Direction direction = averageOfNormal.getDirectionFromNormal();
-
-				int light = WorldRenderer.getPackedLightmapCoords(lightReaderIn, blockStateIn, pos.offset(direction));
-				random.setSeed(rand);
-				List<BakedQuad> dirQuads = model.getQuads(blockStateIn, direction, random, modelDataFinal);
-				random.setSeed(rand);
-				List<BakedQuad> nullQuads = model.getQuads(blockStateIn, null, random, modelDataFinal);
-				if (dirQuads.isEmpty() && nullQuads.isEmpty()) // dirQuads is empty for the Barrier block
-					dirQuads = blockRendererDispatcher.getBlockModelShapes().getModelManager().getMissingModel().getQuads(blockStateIn, direction, random, modelDataFinal);
-
-				int formatSize = DefaultVertexFormats.BLOCK.getIntegerSize();
-				renderQuads(lightReaderIn, uvs, pos, face, normal, direction, blockStateIn, blockColors, formatSize, vertexBuilderIn, light, dirQuads, nullQuads);
-				return true;
-			}
+			1, 1, 1, lightReaderIn, SectionDensities.IS_SMOOTHABLE, CRACKING,
+			mesh
 		);
+		final int[] quadPositions = mesh.quadPositions;
+		for (int quad = 0; quad < mesh.quadCount; ++quad) {
+			mesh.assignQuadTo(quad, face);
+			pos.setPos(
+				posIn.getX() + quadPositions[quad * 3],
+				posIn.getY() + quadPositions[quad * 3 + 1],
+				posIn.getZ() + quadPositions[quad * 3 + 2]
+			);
+			face.transform(matrix4f);
+
+			face.assignNormalTo(normal);
+			normal.multiply(-1);
+			Direction direction = normal.getDirectionFromAverageNormal();
+
+			int light = WorldRenderer.getPackedLightmapCoords(lightReaderIn, blockStateIn, pos.offset(direction));
+			random.setSeed(rand);
+			List<BakedQuad> dirQuads = model.getQuads(blockStateIn, direction, random, modelData);
+			random.setSeed(rand);
+			List<BakedQuad> nullQuads = model.getQuads(blockStateIn, null, random, modelData);
+			if (dirQuads.isEmpty() && nullQuads.isEmpty()) // dirQuads is empty for the Barrier block
+				dirQuads = blockRendererDispatcher.getBlockModelShapes().getModelManager().getMissingModel().getQuads(blockStateIn, direction, random, modelData);
+
+			int formatSize = DefaultVertexFormats.BLOCK.getIntegerSize();
+			renderQuads(lightReaderIn, uvs, pos, face, normal, direction, blockStateIn, blockColors, formatSize, vertexBuilderIn, light, dirQuads, nullQuads);
+		}
 	}
 
-	private static void renderQuads(IBlockDisplayReader chunkrendercache, TextureInfo uvs, BlockPos.Mutable pos, Face face, Face reversedNormal, Direction direction, BlockState blockstate, BlockColors blockColors, int formatSize, IVertexBuilder bufferbuilder, int light, List<BakedQuad> dirQuads, List<BakedQuad> nullQuads) {
-		final Vec v0 = face.v0;
-		final Vec v1 = face.v1;
-		final Vec v2 = face.v2;
-		final Vec v3 = face.v3;
-
-		final Vec n0 = reversedNormal.v0;
-		final Vec n1 = reversedNormal.v1;
-		final Vec n2 = reversedNormal.v2;
-		final Vec n3 = reversedNormal.v3;
+	private static void renderQuads(IBlockDisplayReader chunkrendercache, TextureInfo uvs, BlockPos.Mutable pos, FloatFace face, FloatFace reversedNormal, Direction direction, BlockState blockstate, BlockColors blockColors, int formatSize, IVertexBuilder bufferbuilder, int light, List<BakedQuad> dirQuads, List<BakedQuad> nullQuads) {
+		final float[] v = face.vertices;
+		final float[] n = reversedNormal.vertices;
 
 		int dirQuadsSize = dirQuads.size();
 		for (int i1 = 0; i1 < dirQuadsSize + nullQuads.size(); i1++) {
@@ -208,10 +306,10 @@ public class MeshRenderer {
 			green *= shading;
 			blue *= shading;
 			final float alpha = 1.0F;
-			bufferbuilder.pos(v0.x, v0.y, v0.z).color(red, green, blue, alpha).tex(uvs.u0, uvs.v0).lightmap(light).normal((float) n0.x, (float) n0.y, (float) n0.z).endVertex();
-			bufferbuilder.pos(v1.x, v1.y, v1.z).color(red, green, blue, alpha).tex(uvs.u1, uvs.v1).lightmap(light).normal((float) n1.x, (float) n1.y, (float) n1.z).endVertex();
-			bufferbuilder.pos(v2.x, v2.y, v2.z).color(red, green, blue, alpha).tex(uvs.u2, uvs.v2).lightmap(light).normal((float) n2.x, (float) n2.y, (float) n2.z).endVertex();
-			bufferbuilder.pos(v3.x, v3.y, v3.z).color(red, green, blue, alpha).tex(uvs.u3, uvs.v3).lightmap(light).normal((float) n3.x, (float) n3.y, (float) n3.z).endVertex();
+			bufferbuilder.pos(v[0], v[1], v[2]).color(red, green, blue, alpha).tex(uvs.u0, uvs.v0).lightmap(light).normal(n[0], n[1], n[2]).endVertex();
+			bufferbuilder.pos(v[3], v[4], v[5]).color(red, green, blue, alpha).tex(uvs.u1, uvs.v1).lightmap(light).normal(n[3], n[4], n[5]).endVertex();
+			bufferbuilder.pos(v[6], v[7], v[8]).color(red, green, blue, alpha).tex(uvs.u2, uvs.v2).lightmap(light).normal(n[6], n[7], n[8]).endVertex();
+			bufferbuilder.pos(v[9], v[10], v[11]).color(red, green, blue, alpha).tex(uvs.u3, uvs.v3).lightmap(light).normal(n[9], n[10], n[11]).endVertex();
 		}
 	}
 
@@ -292,4 +390,64 @@ public class MeshRenderer {
 
 	}
 
+	/**
+	 * @return The render bits of {@link StateProperties} for the state
+	 */
+	public static int getRenderFlags(BlockState state) {
+		return state.getRenderType() == BlockRenderType.INVISIBLE ? StateProperties.INVISIBLE : 0;
+	}
+
+	/**
+	 * Called when what is smoothable changes, recounts the smoothables in the sections the client has loaded on the client thread
+	 * (the chunk render threads can't count them, see {@link SmoothableCounts}).
+	 */
+	public static void recountSmoothables() {
+		final Minecraft minecraft = Minecraft.getInstance();
+		if (minecraft == null)
+			// Smoothables set up while the mod is loading
+			return;
+		// Changing lots of smoothables at once (e.g. loading the config) only needs one recount after they've all changed
+		if (!RECOUNT_QUEUED.compareAndSet(false, true))
+			return;
+		minecraft.deferTask(() -> {
+			RECOUNT_QUEUED.set(false);
+			final ClientWorld world = minecraft.world;
+			final Entity viewer = minecraft.getRenderViewEntity();
+			if (world == null || viewer == null)
+				return;
+			// The same radius as the client's chunk array
+			final int radius = Math.max(2, minecraft.gameSettings.renderDistanceChunks) + 3;
+			SmoothableCounts.recountAround(world, MathHelper.floor(viewer.getPosX()) >> 4, MathHelper.floor(viewer.getPosZ()) >> 4, radius);
+		});
+	}
+
+	/**
+	 * What the main thread worked out when the rebuild was scheduled.
+	 */
+	static final class ScheduledRebuild {
+		final AreaSnapshot snapshot;
+		final int stride;
+		// The SectionMeshes stamps from when the snapshot was taken
+		final int changes;
+		final int resets;
+
+		ScheduledRebuild(AreaSnapshot snapshot, int stride, int changes, int resets) {
+			this.snapshot = snapshot;
+			this.stride = stride;
+			this.changes = changes;
+			this.resets = resets;
+		}
+	}
+
+	/**
+	 * Reused for every chunk rendered on a thread instead of being made for every chunk.
+	 */
+	static class RenderData {
+		final FloatFace face = new FloatFace();
+		final FloatFace normal = new FloatFace();
+		final TextureInfo uvs = new TextureInfo();
+		final BlockPos.Mutable pos = new BlockPos.Mutable();
+		final MeshBuffer crackingMesh = new MeshBuffer();
+	}
+
 }
@@ -0,0 +1,207 @@
+package io.github.cadiboo.nocubes.client.render;
+
+import io.github.cadiboo.nocubes.config.NoCubesConfig;
+import io.github.cadiboo.nocubes.mesh.MeshGenerators;
+import io.github.cadiboo.nocubes.smoothable.AreaSnapshot;
+import io.github.cadiboo.nocubes.smoothable.SmoothableCounts;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.SectionPos;
+import net.minecraft.util.math.vector.Vector3d;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Meshes sections on our own threads before vanilla gets around to rebuilding them (see {@link SectionMeshes#prepare}),
+ * so that when vanilla does rebuild them it only has to copy the kept mesh.
+ * Chunks arriving (e.g. from teleporting or flying fast) queue their sections, the ones closest to the camera get meshed first.
+ * When the camera jumps (e.g. a teleport) the queued jobs get sorted again and the ones that are now out of render distance get cancelled.
+ * The jobs mesh from a snapshot of the blocks taken when they were queued, so they never read the world.
+ * <p>
+ * Each section only has one job at a time. Queuing the section again or vanilla rebuilding it before the job runs
+ * supersedes the job, which then stops at its next check instead of doing the work for nothing.
+ *
+ * @author Cadiboo
+ */
+@OnlyIn(Dist.CLIENT)
+public final class MeshingExecutor {
+
+	// Vanilla's chunk builders are using the rest of the cores
+	private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+	private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+		THREADS, THREADS,
+		0, TimeUnit.MILLISECONDS,
+		// Jobs are Comparable, they need to be passed to execute (not submit) so that they don't get wrapped
+		new PriorityBlockingQueue<>(),
+		runnable -> {
+			final Thread thread = new Thread(runnable, "NoCubes Meshing #" + THREAD_COUNT.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			return thread;
+		}
+	);
+	/** The current job for each section, a job that isn't in here any more has been superseded. */
+	private static final Map<Long, Job> JOBS = new ConcurrentHashMap<>();
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+	/** How far the camera can move before the queued jobs get sorted again, less than this barely changes their order. */
+	private static final double RESORT_DISTANCE = 32;
+	// Where the camera was when the queued jobs' distances were worked out, only used on the main thread
+	private static double sortedX = Double.NaN;
+	private static double sortedY;
+	private static double sortedZ;
+
+	/**
+	 * Queues all the sections of a chunk that just arrived.
+	 * Called on the main thread.
+	 */
+	public static void prepareChunk(ChunkPos chunkPos) {
+		if (!NoCubesConfig.Client.render || NoCubesConfig.Server.meshGenerator != MeshGenerators.SURFACE_NETS)
+			return;
+		// Lower detail meshes don't get kept
+		if (LodRings.getStride(chunkPos.x, chunkPos.z) != 1)
+			return;
+		final Minecraft minecraft = Minecraft.getInstance();
+		final ClientWorld world = minecraft.world;
+		if (world == null)
+			return;
+		// Most sections (sky, deep underground) don't have anything to mesh
+		int minSectionY = Integer.MAX_VALUE;
+		int maxSectionY = Integer.MIN_VALUE;
+		final int x = chunkPos.x << 4;
+		final int z = chunkPos.z << 4;
+		for (int sectionY = 0; sectionY < 16; ++sectionY) {
+			final int y = sectionY << 4;
+			if (SmoothableCounts.anyInArea(world, x - 1, y - 1, z - 1, x + 16, y + 16, z + 16, true)) {
+				minSectionY = Math.min(minSectionY, sectionY);
+				maxSectionY = Math.max(maxSectionY, sectionY);
+			}
+		}
+		if (minSectionY > maxSectionY)
+			return;
+		// The jobs mesh from this instead of the world, so they never read blocks that the main thread is changing
+		// The fields of the sections go 1 block into the sections around them
+		final AreaSnapshot snapshot = AreaSnapshot.take(world, chunkPos.x - 1, minSectionY - 1, chunkPos.z - 1, chunkPos.x + 1, maxSectionY + 1, chunkPos.z + 1);
+		final int resets = SectionMeshes.getResets();
+		final Vector3d camera = minecraft.gameRenderer.getActiveRenderInfo().getProjectedView();
+		// The jobs queued before a teleport would otherwise still be first in line
+		if (!(Math.abs(camera.x - sortedX) < RESORT_DISTANCE && Math.abs(camera.y - sortedY) < RESORT_DISTANCE && Math.abs(camera.z - sortedZ) < RESORT_DISTANCE))
+			resort(camera, minecraft.gameSettings.renderDistanceChunks);
+		for (int sectionY = minSectionY; sectionY <= maxSectionY; ++sectionY) {
+			final Job job = new Job(snapshot, chunkPos.x, sectionY, chunkPos.z, resets);
+			job.distanceSq = job.getDistanceSq(camera);
+			JOBS.put(job.key, job);
+			EXECUTOR.execute(job);
+		}
+	}
+
+	/**
+	 * Works out the distances of the queued jobs from the camera again and cancels the ones that are now out of render distance.
+	 * Called on the main thread.
+	 */
+	private static void resort(Vector3d camera, int renderDistance) {
+		sortedX = camera.x;
+		sortedY = camera.y;
+		sortedZ = camera.z;
+		final List<Runnable> queued = new ArrayList<>();
+		EXECUTOR.getQueue().drainTo(queued);
+		final int cameraChunkX = MathHelper.floor(camera.x) >> 4;
+		final int cameraChunkZ = MathHelper.floor(camera.z) >> 4;
+		for (final Runnable runnable : queued) {
+			final Job job = (Job) runnable;
+			if (Math.abs(job.sectionX - cameraChunkX) > renderDistance + 1 || Math.abs(job.sectionZ - cameraChunkZ) > renderDistance + 1) {
+				JOBS.remove(job.key, job);
+				continue;
+			}
+			// Safe to change, it's out of the queue
+			job.distanceSq = job.getDistanceSq(camera);
+			EXECUTOR.execute(job);
+		}
+	}
+
+	/**
+	 * Supersedes the job for the section (if there is one).
+	 */
+	public static void cancel(long key) {
+		JOBS.remove(key);
+	}
+
+	/**
+	 * Supersedes every job.
+	 */
+	public static void cancelAll() {
+		JOBS.clear();
+	}
+
+	private static final class Job implements Runnable, Comparable<Job> {
+
+		final AreaSnapshot snapshot;
+		final long key;
+		final int sectionX;
+		final int sectionY;
+		final int sectionZ;
+		// From when the snapshot was taken
+		final int changes;
+		final int resets;
+		/** Only changed while the job isn't in the queue (the queue's order depends on it). */
+		double distanceSq;
+		// Jobs the same distance away run in the order they were queued
+		final long sequence = SEQUENCE.getAndIncrement();
+
+		Job(AreaSnapshot snapshot, int sectionX, int sectionY, int sectionZ, int resets) {
+			this.snapshot = snapshot;
+			this.key = SectionPos.asLong(sectionX, sectionY, sectionZ);
+			this.sectionX = sectionX;
+			this.sectionY = sectionY;
+			this.sectionZ = sectionZ;
+			this.changes = SectionMeshes.getChanges(key);
+			this.resets = resets;
+		}
+
+		double getDistanceSq(Vector3d camera) {
+			final double distanceX = (sectionX << 4) + 8 - camera.x;
+			final double distanceY = (sectionY << 4) + 8 - camera.y;
+			final double distanceZ = (sectionZ << 4) + 8 - camera.z;
+			return distanceX * distanceX + distanceY * distanceY + distanceZ * distanceZ;
+		}
+
+		boolean isSuperseded() {
+			return JOBS.get(key) != this;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (isSuperseded())
+					return;
+				SectionMeshes.prepare(snapshot, key, sectionX, sectionY, sectionZ, changes, resets, this::isSuperseded);
+			} catch (Throwable t) {
+				// Vanilla will mesh the section itself when it rebuilds it
+				LogManager.getLogger().error("Failed to prepare the mesh for section " + sectionX + ", " + sectionY + ", " + sectionZ, t);
+			} finally {
+				JOBS.remove(key, this);
+			}
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			final int distance = Double.compare(distanceSq, other.distanceSq);
+			return distance != 0 ? distance : Long.compare(sequence, other.sequence);
+		}
+
+	}
+
+}
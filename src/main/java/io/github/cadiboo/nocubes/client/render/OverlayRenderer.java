@@ -5,7 +5,9 @@ import com.mojang.blaze3d.vertex.IVertexBuilder;
 import io.github.cadiboo.nocubes.NoCubes;
 import io.github.cadiboo.nocubes.config.ColorParser;
 import io.github.cadiboo.nocubes.config.NoCubesConfig;
-import io.github.cadiboo.nocubes.mesh.SurfaceNets;
+import io.github.cadiboo.nocubes.mesh.MeshBuffer;
+import io.github.cadiboo.nocubes.smoothable.SectionDensities;
+import io.github.cadiboo.nocubes.smoothable.SmoothableCounts;
 import io.github.cadiboo.nocubes.util.Face;
 import io.github.cadiboo.nocubes.util.ReusableCache;
 import io.github.cadiboo.nocubes.util.Vec;
@@ -30,9 +32,6 @@ import net.minecraftforge.client.event.RenderWorldLastEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * @author Cadiboo
  */
@@ -41,7 +40,9 @@ public final class OverlayRenderer {
 
 	private static final ReusableCache<float[]> DEBUGGING = new ReusableCache.Global<>();
 	private static final ReusableCache<float[]> HIGHLIGHT = new ReusableCache.Global<>();
-	static List<Face> cache;
+	private static final ReusableCache<MeshBuffer> HIGHLIGHT_MESH = new ReusableCache.Global<>();
+	static final MeshBuffer cache = new MeshBuffer(false);
+	static BlockPos cacheStart;
 
 	@SubscribeEvent
 	public static void onHighlightBlock(final DrawHighlightEvent.HighlightBlock event) {
@@ -67,31 +68,34 @@ public final class OverlayRenderer {
 		final int x = lookingAtPos.getX();
 		final int y = lookingAtPos.getY();
 		final int z = lookingAtPos.getZ();
-		SurfaceNets.generate(
+		final MeshBuffer mesh = HIGHLIGHT_MESH.getOrCreate(() -> new MeshBuffer(false));
+		NoCubesConfig.Server.meshGenerator.generate(
 			x, y, z,
 			1, 1, 1,
-			world, NoCubes.smoothableHandler::isSmoothable, HIGHLIGHT,
-			(pos, face) -> {
-				Vec v0 = face.v0.add(x, y, z);
-				Vec v1 = face.v1.add(x, y, z);
-				Vec v2 = face.v2.add(x, y, z);
-				Vec v3 = face.v3.add(x, y, z);
-				final ColorParser.Color color = NoCubesConfig.Client.selectionBoxColor;
-				final int red = color.red;
-				final int blue = color.blue;
-				final int green = color.green;
-				final int alpha = color.alpha;
-				bufferBuilder.pos(matrix4f, (float) (v0.x + -d0), (float) (v0.y + -d1), (float) (v0.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v1.x + -d0), (float) (v1.y + -d1), (float) (v1.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v1.x + -d0), (float) (v1.y + -d1), (float) (v1.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v2.x + -d0), (float) (v2.y + -d1), (float) (v2.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v2.x + -d0), (float) (v2.y + -d1), (float) (v2.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v3.x + -d0), (float) (v3.y + -d1), (float) (v3.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v3.x + -d0), (float) (v3.y + -d1), (float) (v3.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v0.x + -d0), (float) (v0.y + -d1), (float) (v0.z + -d2)).color(red, green, blue, alpha).endVertex();
-				return true;
-			}
+			world, SectionDensities.IS_SMOOTHABLE, HIGHLIGHT,
+			mesh
 		);
+		final ColorParser.Color color = NoCubesConfig.Client.selectionBoxColor;
+		final int red = color.red;
+		final int blue = color.blue;
+		final int green = color.green;
+		final int alpha = color.alpha;
+		final float[] vertices = mesh.vertices;
+		final int[] quads = mesh.quads;
+		// Offset from the start of the mesh to the camera
+		final double offsetX = x - d0;
+		final double offsetY = y - d1;
+		final double offsetZ = z - d2;
+		for (int quad = 0; quad < mesh.quadCount; ++quad) {
+			final int quadIndex = quad * 4;
+			// Line from each vertex to the next one
+			for (int i = 0; i < 4; ++i) {
+				final int from = quads[quadIndex + i] * 3;
+				final int to = quads[quadIndex + ((i + 1) & 3)] * 3;
+				bufferBuilder.pos(matrix4f, (float) (vertices[from] + offsetX), (float) (vertices[from + 1] + offsetY), (float) (vertices[from + 2] + offsetZ)).color(red, green, blue, alpha).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (vertices[to] + offsetX), (float) (vertices[to + 1] + offsetY), (float) (vertices[to + 2] + offsetZ)).color(red, green, blue, alpha).endVertex();
+			}
+		}
 	}
 
 	@SubscribeEvent
@@ -108,8 +112,8 @@ public final class OverlayRenderer {
 		if (world == null)
 			return;
 
-		if (cache == null || world.getGameTime() % 5 == 0)
-			cache = makeMesh(world, viewer);
+		if (cacheStart == null || world.getGameTime() % 5 == 0)
+			cacheStart = makeMesh(world, viewer, cache);
 
 		final ActiveRenderInfo activeRenderInfo = minecraft.gameRenderer.getActiveRenderInfo();
 
@@ -139,10 +143,16 @@ public final class OverlayRenderer {
 
 		Matrix4f matrix4f = matrixStack.getLast().getMatrix();
 		{
+			final Face face = new Face(new Vec(), new Vec(), new Vec(), new Vec());
 			final Face normal = new Face(new Vec(), new Vec(), new Vec(), new Vec());
 			final Vec averageOfNormal = new Vec();
 			final Vec centre = new Vec();
-			for (Face face : cache) {
+			// The mesh is relative to its start, make the camera relative to it too
+			final double meshD0 = d0 - cacheStart.getX();
+			final double meshD1 = d1 - cacheStart.getY();
+			final double meshD2 = d2 - cacheStart.getZ();
+			for (int quad = 0; quad < cache.quadCount; ++quad) {
+				cache.assignQuadTo(quad, face);
 				Vec v0 = face.v0;
 				Vec v1 = face.v1;
 				Vec v2 = face.v2;
@@ -151,14 +161,14 @@ public final class OverlayRenderer {
 				final float blue = 1F;
 				final float green = 1F;
 				final float alpha = 1F;
-				bufferBuilder.pos(matrix4f, (float) (v0.x + -d0), (float) (v0.y + -d1), (float) (v0.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v1.x + -d0), (float) (v1.y + -d1), (float) (v1.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v1.x + -d0), (float) (v1.y + -d1), (float) (v1.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v2.x + -d0), (float) (v2.y + -d1), (float) (v2.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v2.x + -d0), (float) (v2.y + -d1), (float) (v2.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v3.x + -d0), (float) (v3.y + -d1), (float) (v3.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v3.x + -d0), (float) (v3.y + -d1), (float) (v3.z + -d2)).color(red, green, blue, alpha).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (v0.x + -d0), (float) (v0.y + -d1), (float) (v0.z + -d2)).color(red, green, blue, alpha).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (v0.x + -meshD0), (float) (v0.y + -meshD1), (float) (v0.z + -meshD2)).color(red, green, blue, alpha).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (v1.x + -meshD0), (float) (v1.y + -meshD1), (float) (v1.z + -meshD2)).color(red, green, blue, alpha).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (v1.x + -meshD0), (float) (v1.y + -meshD1), (float) (v1.z + -meshD2)).color(red, green, blue, alpha).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (v2.x + -meshD0), (float) (v2.y + -meshD1), (float) (v2.z + -meshD2)).color(red, green, blue, alpha).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (v2.x + -meshD0), (float) (v2.y + -meshD1), (float) (v2.z + -meshD2)).color(red, green, blue, alpha).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (v3.x + -meshD0), (float) (v3.y + -meshD1), (float) (v3.z + -meshD2)).color(red, green, blue, alpha).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (v3.x + -meshD0), (float) (v3.y + -meshD1), (float) (v3.z + -meshD2)).color(red, green, blue, alpha).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (v0.x + -meshD0), (float) (v0.y + -meshD1), (float) (v0.z + -meshD2)).color(red, green, blue, alpha).endVertex();
 
 				// Normals
 				face.assignNormalTo(normal);
@@ -172,10 +182,10 @@ public final class OverlayRenderer {
 				face.assignAverageTo(centre);
 
 				final float dirMul = 0.2F;
-				bufferBuilder.pos(matrix4f, (float) (centre.x + -d0), (float) (centre.y + -d1), (float) (centre.z + -d2)).color(1F, 0F, 0F, 1F).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (centre.x + averageOfNormal.x * dirMul + -d0), (float) (centre.y + averageOfNormal.y * dirMul + -d1), (float) (centre.z + averageOfNormal.z * dirMul + -d2)).color(0F, 1F, 0F, 1F).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (centre.x + -d0), (float) (centre.y + -d1), (float) (centre.z + -d2)).color(1F, 0F, 0F, 1F).endVertex();
-				bufferBuilder.pos(matrix4f, (float) (centre.x + direction.getXOffset() * dirMul + -d0), (float) (centre.y + direction.getYOffset() * dirMul + -d1), (float) (centre.z + direction.getZOffset() * dirMul + -d2)).color(1F, 0F, 0F, 1F).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (centre.x + -meshD0), (float) (centre.y + -meshD1), (float) (centre.z + -meshD2)).color(1F, 0F, 0F, 1F).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (centre.x + averageOfNormal.x * dirMul + -meshD0), (float) (centre.y + averageOfNormal.y * dirMul + -meshD1), (float) (centre.z + averageOfNormal.z * dirMul + -meshD2)).color(0F, 1F, 0F, 1F).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (centre.x + -meshD0), (float) (centre.y + -meshD1), (float) (centre.z + -meshD2)).color(1F, 0F, 0F, 1F).endVertex();
+				bufferBuilder.pos(matrix4f, (float) (centre.x + direction.getXOffset() * dirMul + -meshD0), (float) (centre.y + direction.getYOffset() * dirMul + -meshD1), (float) (centre.z + direction.getZOffset() * dirMul + -meshD2)).color(1F, 0F, 0F, 1F).endVertex();
 
 				final float normMul = 0.1F;
 				{
@@ -184,8 +194,8 @@ public final class OverlayRenderer {
 					float nx = (float) (n.x) * normMul;
 					float ny = (float) (n.y) * normMul;
 					float nz = (float) (n.z) * normMul;
-					bufferBuilder.pos(matrix4f, (float) (v.x + -d0), (float) (v.y + -d1), (float) (v.z + -d2)).color(0F, 0F, 1F, 1F).endVertex();
-					bufferBuilder.pos(matrix4f, (float) (v.x + nx + -d0), (float) (v.y + ny + -d1), (float) (v.z + nz + -d2)).color(0F, 0F, 1F, 1F).endVertex();
+					bufferBuilder.pos(matrix4f, (float) (v.x + -meshD0), (float) (v.y + -meshD1), (float) (v.z + -meshD2)).color(0F, 0F, 1F, 1F).endVertex();
+					bufferBuilder.pos(matrix4f, (float) (v.x + nx + -meshD0), (float) (v.y + ny + -meshD1), (float) (v.z + nz + -meshD2)).color(0F, 0F, 1F, 1F).endVertex();
 				}
 				{
 					Vec n = normal.v1;
@@ -193,8 +203,8 @@ public final class OverlayRenderer {
 					float nx = (float) (n.x) * normMul;
 					float ny = (float) (n.y) * normMul;
 					float nz = (float) (n.z) * normMul;
-					bufferBuilder.pos(matrix4f, (float) (v.x + -d0), (float) (v.y + -d1), (float) (v.z + -d2)).color(0F, 0F, 1F, 1F).endVertex();
-					bufferBuilder.pos(matrix4f, (float) (v.x + nx + -d0), (float) (v.y + ny + -d1), (float) (v.z + nz + -d2)).color(0F, 0F, 1F, 1F).endVertex();
+					bufferBuilder.pos(matrix4f, (float) (v.x + -meshD0), (float) (v.y + -meshD1), (float) (v.z + -meshD2)).color(0F, 0F, 1F, 1F).endVertex();
+					bufferBuilder.pos(matrix4f, (float) (v.x + nx + -meshD0), (float) (v.y + ny + -meshD1), (float) (v.z + nz + -meshD2)).color(0F, 0F, 1F, 1F).endVertex();
 				}
 				{
 					Vec n = normal.v2;
@@ -202,8 +212,8 @@ public final class OverlayRenderer {
 					float nx = (float) (n.x) * normMul;
 					float ny = (float) (n.y) * normMul;
 					float nz = (float) (n.z) * normMul;
-					bufferBuilder.pos(matrix4f, (float) (v.x + -d0), (float) (v.y + -d1), (float) (v.z + -d2)).color(0F, 0F, 1F, 1F).endVertex();
-					bufferBuilder.pos(matrix4f, (float) (v.x + nx + -d0), (float) (v.y + ny + -d1), (float) (v.z + nz + -d2)).color(0F, 0F, 1F, 1F).endVertex();
+					bufferBuilder.pos(matrix4f, (float) (v.x + -meshD0), (float) (v.y + -meshD1), (float) (v.z + -meshD2)).color(0F, 0F, 1F, 1F).endVertex();
+					bufferBuilder.pos(matrix4f, (float) (v.x + nx + -meshD0), (float) (v.y + ny + -meshD1), (float) (v.z + nz + -meshD2)).color(0F, 0F, 1F, 1F).endVertex();
 				}
 				{
 					Vec n = normal.v3;
@@ -211,8 +221,8 @@ public final class OverlayRenderer {
 					float nx = (float) (n.x) * normMul;
 					float ny = (float) (n.y) * normMul;
 					float nz = (float) (n.z) * normMul;
-					bufferBuilder.pos(matrix4f, (float) (v.x + -d0), (float) (v.y + -d1), (float) (v.z + -d2)).color(0F, 0F, 1F, 1F).endVertex();
-					bufferBuilder.pos(matrix4f, (float) (v.x + nx + -d0), (float) (v.y + ny + -d1), (float) (v.z + nz + -d2)).color(0F, 0F, 1F, 1F).endVertex();
+					bufferBuilder.pos(matrix4f, (float) (v.x + -meshD0), (float) (v.y + -meshD1), (float) (v.z + -meshD2)).color(0F, 0F, 1F, 1F).endVertex();
+					bufferBuilder.pos(matrix4f, (float) (v.x + nx + -meshD0), (float) (v.y + ny + -meshD1), (float) (v.z + nz + -meshD2)).color(0F, 0F, 1F, 1F).endVertex();
 				}
 			}
 		}
@@ -305,8 +315,10 @@ public final class OverlayRenderer {
 		});
 	}
 
-	private static List<Face> makeMesh(final World world, final Entity viewer) {
-		final List<Face> meshFaces = new LinkedList<>();
+	/**
+	 * @return The start of the mesh that was generated into the buffer
+	 */
+	private static BlockPos makeMesh(final World world, final Entity viewer, final MeshBuffer buffer) {
 //		BlockPos base = new BlockPos(viewer.chunkCoordX << 4, viewer.chunkCoordY << 4, viewer.chunkCoordZ << 4);
 		BlockPos base = viewer.getPosition().add(0, 2, 0);
 
@@ -319,16 +331,16 @@ public final class OverlayRenderer {
 		final int startY = base.getY() - meshSizeY / 2;
 		final int startZ = base.getZ() - meshSizeZ / 2;
 
-		SurfaceNets.generate(
+		// The mesh also uses the blocks 1 outside the area
+		if (!SmoothableCounts.anyInArea(viewer.world, startX - 1, startY - 1, startZ - 1, startX + meshSizeX, startY + meshSizeY, startZ + meshSizeZ, true)) {
+			buffer.clear();
+			return new BlockPos(startX, startY, startZ);
+		}
+		NoCubesConfig.Server.meshGenerator.generate(
 			startX, startY, startZ,
 			meshSizeX, meshSizeY, meshSizeZ,
-			viewer.world, NoCubes.smoothableHandler::isSmoothable, DEBUGGING,
-			(pos, face) -> meshFaces.add(new Face(
-				face.v0.add(startX, startY, startZ).copy(),
-				face.v1.add(startX, startY, startZ).copy(),
-				face.v2.add(startX, startY, startZ).copy(),
-				face.v3.add(startX, startY, startZ).copy()
-			))
+			viewer.world, SectionDensities.IS_SMOOTHABLE, DEBUGGING,
+			buffer
 		);
 
 //		BlockPos.getAllInBoxMutable(base.add(-8, -8, -8), base.add(7, 7, 7)).forEach(blockPos -> {
@@ -404,7 +416,7 @@ public final class OverlayRenderer {
 //
 //		meshFaces.add(Face.of(v0, v1, v2, v3));
 
-		return meshFaces;
+		return new BlockPos(startX, startY, startZ);
 	}
 
 //	private static Face toFace(final Vec v0, final Vec v1) {
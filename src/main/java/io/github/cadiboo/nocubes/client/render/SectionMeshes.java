@@ -0,0 +1,335 @@
+package io.github.cadiboo.nocubes.client.render;
+
+import io.github.cadiboo.nocubes.NoCubes;
+import io.github.cadiboo.nocubes.mesh.BinaryDensityField;
+import io.github.cadiboo.nocubes.mesh.IncrementalMesh;
+import io.github.cadiboo.nocubes.mesh.MeshBuffer;
+import io.github.cadiboo.nocubes.mesh.SeamVertices;
+import io.github.cadiboo.nocubes.smoothable.AreaSnapshot;
+import io.github.cadiboo.nocubes.smoothable.SmoothableCounts;
+import io.github.cadiboo.nocubes.smoothable.SmoothableHandler;
+import io.github.cadiboo.nocubes.util.ModUtil;
+import io.github.cadiboo.nocubes.util.ReusableCache;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.SectionPos;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BooleanSupplier;
+
+import static io.github.cadiboo.nocubes.mesh.MeshGenerator.MESH_SIZE_NEGATIVE_EXTENSION;
+import static io.github.cadiboo.nocubes.mesh.MeshGenerator.MESH_SIZE_POSITIVE_EXTENSION;
+
+/**
+ * Keeps the SurfaceNets meshes of recently rendered chunk sections around (as {@link IncrementalMesh}es).
+ * When a block changes only the cells around it get re-marched, so the rebuild that vanilla does afterwards
+ * can copy the patched mesh instead of filling the density field and marching the whole section again.
+ * Rebuilds that aren't because of block changes (e.g. lighting) just copy the kept mesh.
+ * Vanilla still re-renders all the quads of the section, this only saves the meshing.
+ * <p>
+ * The meshes are filled from {@link AreaSnapshot snapshots} of the world taken on the main thread when vanilla schedules the rebuild
+ * (see {@link MeshRenderer#onRebuildScheduled}) instead of from the render cache, so that they match the world that the block
+ * changes get applied to without the chunk render threads reading it. Chunks being (re)loaded and unloaded, {@link #invalidateAll}
+ * and smoothables changing can replace blocks or densities without a block change, so the meshes they affect stop being trusted.
+ * The next time an untrusted mesh is needed the section's field gets filled again, and if it has the same
+ * {@link BinaryDensityField#contentHash hash} and densities as the kept one the kept mesh is used without marching.
+ * <p>
+ * Sections in chunks that just arrived get meshed ahead of time by the {@link MeshingExecutor}, from snapshots too.
+ * Sections that get meshed after their neighbours reuse the vertices of the cells their fields share (see {@link SeamVertices}).
+ *
+ * @author Cadiboo
+ */
+@Mod.EventBusSubscriber(modid = NoCubes.MOD_ID, value = Dist.CLIENT)
+public final class SectionMeshes {
+
+	// Each section is around 15KB, so this is roughly the sections with terrain in them for a render distance of 12
+	private static final int MAX_BYTES = 32 * 1024 * 1024;
+	private static final int FIELD_SIZE = MESH_SIZE_NEGATIVE_EXTENSION + 16 + MESH_SIZE_POSITIVE_EXTENSION;
+	/** Access needs to be synchronized on the map, the render threads read it and the main thread updates it. */
+	private static final Long2ObjectLinkedOpenHashMap<Entry> MESHES = new Long2ObjectLinkedOpenHashMap<>();
+	/** The total {@link IncrementalMesh#getSizeInBytes} of the kept meshes, synchronized on the map too. */
+	private static int bytes;
+	/**
+	 * Incremented (while synchronized on the map) whenever blocks in the fields of the sections in the slot change,
+	 * a mesh made while its slot changed might have missed the change so it doesn't get kept.
+	 * Sections share slots, a collision only means a mesh doesn't get kept.
+	 */
+	private static final AtomicIntegerArray CHANGES = new AtomicIntegerArray(1 << 14);
+	/** Incremented (while synchronized on the map) by {@link #clear} and {@link #invalidateAll}, which change every section. */
+	private static final AtomicInteger RESETS = new AtomicInteger();
+	/**
+	 * Incremented by {@link #invalidateAll}, entries from an older epoch need to be checked before being used.
+	 * Starts at 1 so that entries with an epoch of 0 are never trusted.
+	 */
+	private static final AtomicInteger EPOCH = new AtomicInteger(1);
+
+	/** The seams of the sections before the one being meshed, only used while meshing. */
+	private static final ReusableCache<SeamVertices[]> NEIGHBOUR_SEAMS = new ReusableCache.Local<>();
+
+	private static final class Entry {
+		final IncrementalMesh mesh = new IncrementalMesh();
+		/** The vertices of the cells shared with the next sections along each axis, from when the mesh was generated. */
+		final SeamVertices[] seams = {new SeamVertices(0), new SeamVertices(1), new SeamVertices(2)};
+		int epoch;
+		int smoothableVersion;
+		long hash;
+		int bytes;
+
+		Entry(int epoch, int smoothableVersion) {
+			this.epoch = epoch;
+			this.smoothableVersion = smoothableVersion;
+		}
+
+		boolean isTrusted(int epoch, int smoothableVersion) {
+			return this.epoch == epoch && this.smoothableVersion == smoothableVersion;
+		}
+
+		int getSizeInBytes() {
+			int bytes = mesh.getSizeInBytes();
+			for (final SeamVertices seam : seams)
+				bytes += seam.getSizeInBytes();
+			return bytes;
+		}
+	}
+
+	/**
+	 * Copies the mesh of the section into the buffer, meshing the section (and keeping the mesh) if it isn't already kept.
+	 * Only reads the snapshot, never the world, so it can be called from any thread.
+	 *
+	 * @param changes The {@link #getChanges} of the section from when the snapshot was taken
+	 * @param resets  The {@link #getResets} from when the snapshot was taken
+	 */
+	static void getMesh(AreaSnapshot snapshot, int sectionX, int sectionY, int sectionZ, int changes, int resets, MeshBuffer buffer) {
+		final long key = SectionPos.asLong(sectionX, sectionY, sectionZ);
+		// We're doing it now, so the job to prepare it would be wasted work
+		MeshingExecutor.cancel(key);
+		mesh(snapshot, key, sectionX, sectionY, sectionZ, buffer, null, changes, resets);
+	}
+
+	/**
+	 * Meshes the section (and keeps the mesh) if it isn't already kept, so that the work is done before vanilla rebuilds it.
+	 * Only reads the snapshot, never the world, so it can be called from any thread.
+	 *
+	 * @param changes     The {@link #getChanges} of the section from when the snapshot was taken
+	 * @param resets      The {@link #getResets} from when the snapshot was taken
+	 * @param isCancelled Checked before each expensive part
+	 */
+	static void prepare(AreaSnapshot snapshot, long key, int sectionX, int sectionY, int sectionZ, int changes, int resets, BooleanSupplier isCancelled) {
+		// Smoothables changed after the snapshot was taken, its empty sections might not be empty any more
+		if (snapshot.smoothableVersion != SmoothableCounts.getVersion())
+			return;
+		mesh(snapshot, key, sectionX, sectionY, sectionZ, null, isCancelled, changes, resets);
+	}
+
+	/**
+	 * A mesh is only kept if this is the same after meshing as it was before the blocks for it were read.
+	 * Needs to be read on the main thread (at the same time as the blocks) to be useful for meshing off of it.
+	 */
+	static int getChanges(long key) {
+		return CHANGES.get(changeSlot(key));
+	}
+
+	/**
+	 * Same as {@link #getChanges} but for changes to every section.
+	 */
+	static int getResets() {
+		return RESETS.get();
+	}
+
+	/**
+	 * The changes and resets are from when the snapshot was taken.
+	 */
+	private static void mesh(
+		AreaSnapshot snapshot,
+		long key, int sectionX, int sectionY, int sectionZ,
+		@Nullable MeshBuffer buffer, @Nullable BooleanSupplier isCancelled,
+		int changes, int resets
+	) {
+		final int smoothableVersion = snapshot.smoothableVersion;
+		final int epoch = EPOCH.get();
+		final Entry kept;
+		synchronized (MESHES) {
+			kept = MESHES.getAndMoveToLast(key);
+			if (kept != null && kept.isTrusted(epoch, smoothableVersion)) {
+				if (buffer != null)
+					buffer.copyFrom(kept.mesh.mesh);
+				return;
+			}
+		}
+		if (isCancelled != null && isCancelled.getAsBoolean())
+			return;
+
+		final int slot = changeSlot(key);
+		final Entry entry = new Entry(epoch, smoothableVersion);
+		final BinaryDensityField densityField = entry.mesh.densityField;
+		densityField.reset(FIELD_SIZE, FIELD_SIZE, FIELD_SIZE);
+		final int startX = (sectionX << 4) - MESH_SIZE_NEGATIVE_EXTENSION;
+		final int startY = (sectionY << 4) - MESH_SIZE_NEGATIVE_EXTENSION;
+		final int startZ = (sectionZ << 4) - MESH_SIZE_NEGATIVE_EXTENSION;
+		snapshot.fillDensityField(startX, startY, startZ, densityField);
+		entry.hash = densityField.contentHash();
+		if (kept != null) {
+			synchronized (MESHES) {
+				// Nothing changed, the kept mesh is still right
+				if (CHANGES.get(slot) == changes && RESETS.get() == resets && MESHES.get(key) == kept && kept.hash == entry.hash && kept.mesh.densityField.contentEquals(densityField)) {
+					kept.epoch = epoch;
+					kept.smoothableVersion = smoothableVersion;
+					if (buffer != null)
+						buffer.copyFrom(kept.mesh.mesh);
+					return;
+				}
+			}
+		}
+		if (isCancelled != null && isCancelled.getAsBoolean())
+			return;
+
+		// The sections before this one share the cells on the seams, reuse the vertices they worked out for them
+		// Only read after they've been kept (and they don't change after that), so they can be used without the lock
+		final SeamVertices[] before = NEIGHBOUR_SEAMS.getOrCreate(() -> new SeamVertices[3]);
+		synchronized (MESHES) {
+			before[0] = getSeam(SectionPos.asLong(sectionX - 1, sectionY, sectionZ), 0);
+			before[1] = getSeam(SectionPos.asLong(sectionX, sectionY - 1, sectionZ), 1);
+			before[2] = getSeam(SectionPos.asLong(sectionX, sectionY, sectionZ - 1), 2);
+		}
+		try {
+			entry.mesh.generate(before, entry.seams);
+		} finally {
+			Arrays.fill(before, null);
+		}
+		if (buffer != null)
+			buffer.copyFrom(entry.mesh.mesh);
+		entry.bytes = entry.getSizeInBytes();
+		synchronized (MESHES) {
+			if (CHANGES.get(slot) != changes || RESETS.get() != resets)
+				return;
+			final Entry old = MESHES.putAndMoveToLast(key, entry);
+			if (old != null)
+				bytes -= old.bytes;
+			bytes += entry.bytes;
+			while (bytes > MAX_BYTES && !MESHES.isEmpty())
+				bytes -= MESHES.removeFirst().bytes;
+		}
+	}
+
+	/**
+	 * Patches the meshes of all the sections whose fields contain the position.
+	 */
+	public static void onBlockChange(BlockPos pos, BlockState oldState, BlockState newState) {
+		final SmoothableHandler handler = NoCubes.smoothableHandler;
+		final boolean wasSmoothable = handler.isSmoothable(oldState);
+		final boolean isSmoothable = handler.isSmoothable(newState);
+		if (!wasSmoothable && !isSmoothable)
+			// Both have a density of -1
+			return;
+		final float density = ModUtil.getBlockDensity(isSmoothable, newState);
+		final int x = pos.getX();
+		final int y = pos.getY();
+		final int z = pos.getZ();
+		synchronized (MESHES) {
+			// The field of a section goes from 1 block before it to 1 block after it
+			for (int sectionZ = (z - 1) >> 4; sectionZ <= (z + 1) >> 4; ++sectionZ) {
+				for (int sectionY = (y - 1) >> 4; sectionY <= (y + 1) >> 4; ++sectionY) {
+					for (int sectionX = (x - 1) >> 4; sectionX <= (x + 1) >> 4; ++sectionX) {
+						final long key = SectionPos.asLong(sectionX, sectionY, sectionZ);
+						CHANGES.incrementAndGet(changeSlot(key));
+						final Entry entry = MESHES.get(key);
+						if (entry == null)
+							continue;
+						entry.mesh.update(
+							x - (sectionX << 4) + MESH_SIZE_NEGATIVE_EXTENSION,
+							y - (sectionY << 4) + MESH_SIZE_NEGATIVE_EXTENSION,
+							z - (sectionZ << 4) + MESH_SIZE_NEGATIVE_EXTENSION,
+							density
+						);
+						entry.hash = entry.mesh.densityField.contentHash();
+						bytes -= entry.bytes;
+						entry.bytes = entry.getSizeInBytes();
+						bytes += entry.bytes;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes every kept mesh get checked against the world before it is used again.
+	 */
+	public static void invalidateAll() {
+		synchronized (MESHES) {
+			RESETS.incrementAndGet();
+			EPOCH.incrementAndGet();
+		}
+	}
+
+	public static void clear() {
+		MeshingExecutor.cancelAll();
+		synchronized (MESHES) {
+			RESETS.incrementAndGet();
+			MESHES.clear();
+			bytes = 0;
+		}
+	}
+
+	@SubscribeEvent
+	public static void onChunkLoad(ChunkEvent.Load event) {
+		if (event.getWorld() == null || !event.getWorld().isRemote())
+			return;
+		final ChunkPos chunkPos = event.getChunk().getPos();
+		invalidateAround(chunkPos);
+		MeshingExecutor.prepareChunk(chunkPos);
+	}
+
+	@SubscribeEvent
+	public static void onChunkUnload(ChunkEvent.Unload event) {
+		// Kept (and checked when the chunk comes back), the same chunk usually gets sent again
+		if (event.getWorld() != null && event.getWorld().isRemote())
+			invalidateAround(event.getChunk().getPos());
+	}
+
+	@SubscribeEvent
+	public static void onWorldUnload(WorldEvent.Unload event) {
+		if (event.getWorld().isRemote())
+			clear();
+	}
+
+	/**
+	 * Stops trusting the meshes of the sections in the chunk and the chunks next to it (their fields overlap the chunk).
+	 */
+	private static void invalidateAround(ChunkPos chunkPos) {
+		synchronized (MESHES) {
+			for (int chunkZ = chunkPos.z - 1; chunkZ <= chunkPos.z + 1; ++chunkZ) {
+				for (int chunkX = chunkPos.x - 1; chunkX <= chunkPos.x + 1; ++chunkX) {
+					for (int sectionY = 0; sectionY < 16; ++sectionY) {
+						final long key = SectionPos.asLong(chunkX, sectionY, chunkZ);
+						CHANGES.incrementAndGet(changeSlot(key));
+						final Entry entry = MESHES.get(key);
+						if (entry != null)
+							entry.epoch = 0;
+					}
+				}
+			}
+		}
+	}
+
+	@Nullable
+	private static SeamVertices getSeam(long key, int axis) {
+		final Entry entry = MESHES.get(key);
+		return entry == null ? null : entry.seams[axis];
+	}
+
+	private static int changeSlot(long key) {
+		return (int) HashCommon.mix(key) & (CHANGES.length() - 1);
+	}
+
+}
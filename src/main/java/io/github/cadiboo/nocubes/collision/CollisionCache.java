@@ -0,0 +1,180 @@
+package io.github.cadiboo.nocubes.collision;
+
+import io.github.cadiboo.nocubes.NoCubes;
+import io.github.cadiboo.nocubes.config.NoCubesConfig;
+import io.github.cadiboo.nocubes.mesh.MeshGenerator;
+import io.github.cadiboo.nocubes.smoothable.SmoothableCounts;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.SectionPos;
+import net.minecraft.util.math.shapes.VoxelShape;
+import net.minecraft.world.IBlockReader;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.event.world.ChunkEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Keeps the collision shapes of smoothable blocks so that they don't need to be meshed again every time an entity moves near them.
+ * The shape of a block depends on the blocks around it, so a shape is only used if none of the blocks next to it have changed,
+ * what is smoothable hasn't changed and the mesh generator is the same one it was made with.
+ * <p>
+ * Changes are tracked with counters for each section (shared between sections that hash to the same slot, a collision only causes a miss).
+ * A block changing increments the counters of all the sections whose blocks it is next to.
+ * The client and the (integrated) server each have their own shapes, since their worlds can be different.
+ * Each side's shapes are split into stripes so that threads looking up different positions don't block each other.
+ *
+ * @author Cadiboo
+ */
+@Mod.EventBusSubscriber(modid = NoCubes.MOD_ID)
+public final class CollisionCache {
+
+	private static final int STRIPES = 16;
+	private static final int MAX_SHAPES_PER_STRIPE = 512;
+	private static final AtomicIntegerArray CHANGES = new AtomicIntegerArray(1 << 12);
+	private static final Stripe[] CLIENT = makeStripes();
+	private static final Stripe[] SERVER = makeStripes();
+
+	private static final class Stripe {
+		/** Access needs to be synchronized on the stripe. */
+		final Long2ObjectLinkedOpenHashMap<Entry> shapes = new Long2ObjectLinkedOpenHashMap<>();
+	}
+
+	private static final class Entry {
+		final World world;
+		final int changes;
+		final int smoothableVersion;
+		final MeshGenerator generator;
+		final VoxelShape shape;
+
+		Entry(World world, int changes, int smoothableVersion, MeshGenerator generator, VoxelShape shape) {
+			this.world = world;
+			this.changes = changes;
+			this.smoothableVersion = smoothableVersion;
+			this.generator = generator;
+			this.shape = shape;
+		}
+	}
+
+	private static Stripe[] makeStripes() {
+		final Stripe[] stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; ++i)
+			stripes[i] = new Stripe();
+		return stripes;
+	}
+
+	/**
+	 * Collision is usually worked out with the world or one of its chunks, shapes from other readers (e.g. a Region) don't get kept.
+	 * Shapes that get kept need to be made from the world's blocks, not the chunk's (it wraps positions outside of it around to its other side).
+	 *
+	 * @return The world the reader is for
+	 */
+	@Nullable
+	public static World getWorld(IBlockReader reader) {
+		if (reader instanceof World)
+			return (World) reader;
+		if (reader instanceof Chunk)
+			return ((Chunk) reader).getWorld();
+		return null;
+	}
+
+	/**
+	 * Needs to be read before the blocks that the shape is made from are, and then passed to {@link #put}.
+	 */
+	public static int getChanges(BlockPos pos) {
+		return CHANGES.get(changeSlot(pos.getX() >> 4, pos.getY() >> 4, pos.getZ() >> 4));
+	}
+
+	@Nullable
+	public static VoxelShape get(World world, BlockPos pos) {
+		final long key = pos.toLong();
+		final Stripe stripe = getStripe(world, key);
+		final Entry entry;
+		synchronized (stripe) {
+			entry = stripe.shapes.getAndMoveToLast(key);
+		}
+		if (entry == null || entry.world != world)
+			return null;
+		if (entry.changes != getChanges(pos) || entry.smoothableVersion != SmoothableCounts.getVersion() || entry.generator != NoCubesConfig.Server.meshGenerator)
+			return null;
+		return entry.shape;
+	}
+
+	/**
+	 * @param changes           The {@link #getChanges} from before the shape was made
+	 * @param smoothableVersion The {@link SmoothableCounts#getVersion} from before the shape was made
+	 */
+	public static void put(World world, BlockPos pos, int changes, int smoothableVersion, MeshGenerator generator, VoxelShape shape) {
+		final long key = pos.toLong();
+		final Stripe stripe = getStripe(world, key);
+		final Entry entry = new Entry(world, changes, smoothableVersion, generator, shape);
+		synchronized (stripe) {
+			final Long2ObjectLinkedOpenHashMap<Entry> shapes = stripe.shapes;
+			shapes.putAndMoveToLast(key, entry);
+			if (shapes.size() > MAX_SHAPES_PER_STRIPE)
+				shapes.removeFirst();
+		}
+	}
+
+	/**
+	 * Called whenever a block is set in a world, on both sides.
+	 */
+	public static void onBlockChange(BlockPos pos) {
+		final int x = pos.getX();
+		final int y = pos.getY();
+		final int z = pos.getZ();
+		// The shapes of the blocks next to it depend on it too
+		for (int sectionZ = (z - 1) >> 4; sectionZ <= (z + 1) >> 4; ++sectionZ)
+			for (int sectionY = (y - 1) >> 4; sectionY <= (y + 1) >> 4; ++sectionY)
+				for (int sectionX = (x - 1) >> 4; sectionX <= (x + 1) >> 4; ++sectionX)
+					CHANGES.incrementAndGet(changeSlot(sectionX, sectionY, sectionZ));
+	}
+
+	@SubscribeEvent
+	public static void onChunkLoad(ChunkEvent.Load event) {
+		onChunkChange(event.getChunk().getPos());
+	}
+
+	@SubscribeEvent
+	public static void onChunkUnload(ChunkEvent.Unload event) {
+		onChunkChange(event.getChunk().getPos());
+	}
+
+	@SubscribeEvent
+	public static void onWorldUnload(WorldEvent.Unload event) {
+		// Don't keep the world around
+		final IWorld world = event.getWorld();
+		for (final Stripe stripe : world.isRemote() ? CLIENT : SERVER)
+			synchronized (stripe) {
+				stripe.shapes.values().removeIf(entry -> entry.world == world);
+			}
+	}
+
+	/**
+	 * All the blocks in the chunk got replaced (or read as air), which changes the shapes in it and the ones next to it.
+	 */
+	private static void onChunkChange(ChunkPos chunkPos) {
+		for (int sectionZ = chunkPos.z - 1; sectionZ <= chunkPos.z + 1; ++sectionZ)
+			for (int sectionY = -1; sectionY <= 16; ++sectionY)
+				for (int sectionX = chunkPos.x - 1; sectionX <= chunkPos.x + 1; ++sectionX)
+					CHANGES.incrementAndGet(changeSlot(sectionX, sectionY, sectionZ));
+	}
+
+	private static Stripe getStripe(World world, long key) {
+		final Stripe[] stripes = world.isRemote() ? CLIENT : SERVER;
+		return stripes[(int) HashCommon.mix(key) & (STRIPES - 1)];
+	}
+
+	private static int changeSlot(int sectionX, int sectionY, int sectionZ) {
+		return (int) HashCommon.mix(SectionPos.asLong(sectionX, sectionY, sectionZ)) & (CHANGES.length() - 1);
+	}
+
+}
@@ -2,27 +2,52 @@ package io.github.cadiboo.nocubes.collision;
 
 import io.github.cadiboo.nocubes.NoCubes;
 import io.github.cadiboo.nocubes.config.NoCubesConfig;
-import io.github.cadiboo.nocubes.mesh.SurfaceNets;
+import io.github.cadiboo.nocubes.mesh.BinaryDensityField;
+import io.github.cadiboo.nocubes.mesh.MeshBuffer;
+import io.github.cadiboo.nocubes.mesh.MeshGenerator;
+import io.github.cadiboo.nocubes.smoothable.SectionDensities;
+import io.github.cadiboo.nocubes.smoothable.SmoothableCounts;
 import io.github.cadiboo.nocubes.util.Face;
 import io.github.cadiboo.nocubes.util.ModUtil;
 import io.github.cadiboo.nocubes.util.ReusableCache;
 import io.github.cadiboo.nocubes.util.Vec;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import net.minecraft.block.BlockState;
+import net.minecraft.entity.Entity;
 import net.minecraft.entity.item.FallingBlockEntity;
+import net.minecraft.util.math.AxisAlignedBB;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.shapes.IBooleanFunction;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.shapes.BitSetVoxelShapePart;
 import net.minecraft.util.math.shapes.ISelectionContext;
 import net.minecraft.util.math.shapes.VoxelShape;
+import net.minecraft.util.math.shapes.VoxelShapeArray;
 import net.minecraft.util.math.shapes.VoxelShapes;
 import net.minecraft.world.IBlockReader;
+import net.minecraft.world.World;
 
-import java.util.ArrayList;
-import java.util.List;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.github.cadiboo.nocubes.mesh.MeshGenerator.MESH_SIZE_NEGATIVE_EXTENSION;
+import static io.github.cadiboo.nocubes.mesh.MeshGenerator.MESH_SIZE_POSITIVE_EXTENSION;
 
 public class CollisionHandler {
 
-	private static final ReusableCache<float[]> COLLISION = new ReusableCache.Local<>();
 	private static final ReusableCache<CollisionCreationData> DATA = new ReusableCache.Local<>();
+	private static final int FIELD_SIZE = MESH_SIZE_NEGATIVE_EXTENSION + 1 + MESH_SIZE_POSITIVE_EXTENSION;
+	/**
+	 * The shape of a block only depends on which points of the field around it are inside (as long as they're all +1 or -1),
+	 * which is a 27 bit pattern. Only a few thousand of them ever come up, so their shapes are kept (for each generator) and shared by everything.
+	 * Concurrent maps so that looking up shapes (on the server, client and integrated server threads at once) doesn't lock.
+	 */
+	private static final Map<MeshGenerator, Map<Integer, VoxelShape>> SHAPES_BY_PATTERN = new ConcurrentHashMap<>();
+	// Way more than ever come up, just in case
+	private static final int MAX_PATTERNS = 1 << 16;
+	/** Areas bigger than this on any axis get done a block at a time. */
+	private static final int MAX_AREA_SIZE = 8;
 
 	public static VoxelShape getCollisionShape(boolean canCollide, BlockState state, IBlockReader reader, BlockPos blockPos, ISelectionContext context) {
 		try {
@@ -48,37 +73,202 @@ public class CollisionHandler {
 		if (reader.getBlockState(blockPos) != state)
 			// Stop grass path turning to dirt causing a crash from trying to turn an empty VoxelShape into an AABB
 			return state.getShape(reader, blockPos);
-		List<VoxelShape> shapes = new ArrayList<>();
-		SurfaceNets.generate(
-			blockPos.getX(), blockPos.getY(), blockPos.getZ(),
-			1, 1, 1,
-			reader, NoCubes.smoothableHandler::isSmoothable, COLLISION,
-			(pos, face) -> {
-				CollisionCreationData data = DATA.getOrCreate(CollisionCreationData::new);
-				Face normal = data.normal;
-				Vec centre = data.centre;
-				Vec averageOfNormal = data.averageOfNormal;
-
-				face.assignNormalTo(normal);
-				face.assignAverageTo(centre);
-
-				normal.assignAverageTo(averageOfNormal);
-				averageOfNormal.normalise().multiply(0.125d);
-
-				shapes.add(makeShape(0, 0, 0, centre, averageOfNormal, face.v0));
-				shapes.add(makeShape(0, 0, 0, centre, averageOfNormal, face.v1));
-				shapes.add(makeShape(0, 0, 0, centre, averageOfNormal, face.v2));
-				shapes.add(makeShape(0, 0, 0, centre, averageOfNormal, face.v3));
-				return true;
+		@Nullable
+		final World world = CollisionCache.getWorld(reader);
+		if (world != null) {
+			final VoxelShape cached = CollisionCache.get(world, blockPos);
+			if (cached != null)
+				return cached;
+		}
+		final int smoothableVersion = SmoothableCounts.getVersion();
+		final MeshGenerator generator = NoCubesConfig.Server.meshGenerator;
+		@Nullable
+		final Entity entity = context.getEntity();
+		if (world != null && entity != null) {
+			// The entity is going to check the rest of the blocks it's moving through too
+			final VoxelShape shape = generateShapesAround(entity, world, blockPos, generator, smoothableVersion);
+			if (shape != null)
+				return shape;
+		}
+		// Read before the blocks so that a block changing while we're working stops the shape being used
+		final int changes = CollisionCache.getChanges(blockPos);
+		// A chunk wraps positions outside of it around to its other side, the blocks around ones on its edges need to come from its world
+		final VoxelShape shape = generateShape(world != null ? world : reader, blockPos, generator);
+		if (world != null)
+			CollisionCache.put(world, blockPos, changes, smoothableVersion, generator, shape);
+		return shape;
+	}
+
+	private static VoxelShape generateShape(IBlockReader reader, BlockPos blockPos, MeshGenerator generator) {
+		CollisionCreationData data = DATA.getOrCreate(CollisionCreationData::new);
+		BinaryDensityField densityField = data.densityField;
+		densityField.reset(FIELD_SIZE, FIELD_SIZE, FIELD_SIZE);
+		ModUtil.fillDensityField(
+			blockPos.getX() - MESH_SIZE_NEGATIVE_EXTENSION, blockPos.getY() - MESH_SIZE_NEGATIVE_EXTENSION, blockPos.getZ() - MESH_SIZE_NEGATIVE_EXTENSION,
+			data.pos, reader, SectionDensities.IS_SMOOTHABLE, densityField
+		);
+		return generateShape(generator, data);
+	}
+
+	/**
+	 * Makes the shape from the block's (already filled) density field.
+	 */
+	private static VoxelShape generateShape(MeshGenerator generator, CollisionCreationData data) {
+		BinaryDensityField densityField = data.densityField;
+		// Snow layers etc. aren't in the pattern, their shapes have to be made every time
+		final int pattern = densityField.hasOverrides() ? -1 : (int) densityField.insideBits(0, FIELD_SIZE * FIELD_SIZE * FIELD_SIZE);
+		if (pattern != -1) {
+			final VoxelShape known = getShape(generator, pattern);
+			if (known != null)
+				return known;
+		}
+		MeshBuffer mesh = data.mesh;
+		mesh.clear();
+		generator.generateOrThrow(densityField, mesh);
+		Face face = data.face;
+		Face normal = data.normal;
+		Vec centre = data.centre;
+		Vec averageOfNormal = data.averageOfNormal;
+		// All the boxes are collected and made into one shape at the end instead of combining them one at a time
+		ShapeBuilder builder = data.shapeBuilder;
+		builder.clear();
+		for (int quad = 0; quad < mesh.quadCount; ++quad) {
+			mesh.assignQuadTo(quad, face);
+			face.assignAverageTo(centre);
+
+			// The face's own normals, not the mesher's (smoother) ones, the shapes need to stay the same on clients and servers of every version
+			face.assignNormalTo(normal);
+			normal.assignAverageTo(averageOfNormal);
+			averageOfNormal.normalise().multiply(0.125d);
+
+			addShape(builder, centre, averageOfNormal, face.v0);
+			addShape(builder, centre, averageOfNormal, face.v1);
+			addShape(builder, centre, averageOfNormal, face.v2);
+			addShape(builder, centre, averageOfNormal, face.v3);
+		}
+		final VoxelShape shape = toShape(builder);
+		if (pattern != -1)
+			putShape(generator, pattern, shape);
+		return shape;
+	}
+
+	/**
+	 * Makes and keeps the shapes of all the blocks in the area that the entity is moving through,
+	 * reading the world for the whole area once instead of reading the 27 blocks around each block that the entity checks.
+	 * Each block's shape is still made from its own 3x3x3 field (mostly found with its pattern) so it's the same as if it was done on its own.
+	 *
+	 * @return The shape of the block, null if the block isn't in the area or the area is too big to do at once
+	 */
+	@Nullable
+	private static VoxelShape generateShapesAround(Entity entity, World world, BlockPos blockPos, MeshGenerator generator, int smoothableVersion) {
+		final AxisAlignedBB box = entity.getBoundingBox().expand(entity.getMotion());
+		// Vanilla checks an extra block around the box for shapes that are bigger than their block
+		final int minX = MathHelper.floor(box.minX) - 1;
+		final int minY = MathHelper.floor(box.minY) - 1;
+		final int minZ = MathHelper.floor(box.minZ) - 1;
+		final int sizeX = MathHelper.floor(box.maxX) + 2 - minX;
+		final int sizeY = MathHelper.floor(box.maxY) + 2 - minY;
+		final int sizeZ = MathHelper.floor(box.maxZ) + 2 - minZ;
+		final int x = blockPos.getX() - minX;
+		final int y = blockPos.getY() - minY;
+		final int z = blockPos.getZ() - minZ;
+		if (x < 0 || x >= sizeX || y < 0 || y >= sizeY || z < 0 || z >= sizeZ)
+			return null;
+		// Fast things (e.g. arrows) would read a huge area for a few blocks
+		if (sizeX > MAX_AREA_SIZE || sizeY > MAX_AREA_SIZE || sizeZ > MAX_AREA_SIZE)
+			return null;
+
+		final CollisionCreationData data = DATA.getOrCreate(CollisionCreationData::new);
+		final int volume = sizeX * sizeY * sizeZ;
+		if (data.areaChanges.length < volume)
+			data.areaChanges = new int[volume];
+		final int[] changes = data.areaChanges;
+		final BlockPos.Mutable pos = data.pos;
+		// Read before the blocks so that a block changing while we're working stops the shapes being used
+		for (int i = 0, posZ = 0; posZ < sizeZ; ++posZ)
+			for (int posY = 0; posY < sizeY; ++posY)
+				for (int posX = 0; posX < sizeX; ++posX, ++i)
+					changes[i] = CollisionCache.getChanges(pos.setPos(minX + posX, minY + posY, minZ + posZ));
+
+		final BinaryDensityField area = data.areaField;
+		final int areaSizeX = sizeX + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION;
+		final int areaSizeY = sizeY + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION;
+		area.reset(areaSizeX, areaSizeY, sizeZ + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION);
+		ModUtil.fillDensityField(
+			minX - MESH_SIZE_NEGATIVE_EXTENSION, minY - MESH_SIZE_NEGATIVE_EXTENSION, minZ - MESH_SIZE_NEGATIVE_EXTENSION,
+			pos, world, SectionDensities.IS_SMOOTHABLE, area
+		);
+
+		final boolean overrides = area.hasOverrides();
+		final BinaryDensityField densityField = data.densityField;
+		VoxelShape shape = null;
+		for (int i = 0, posZ = 0; posZ < sizeZ; ++posZ) {
+			for (int posY = 0; posY < sizeY; ++posY) {
+				for (int posX = 0; posX < sizeX; ++posX, ++i) {
+					// Smoothables are always inside (even snow layers), the shapes of other blocks are never asked for (see getCollisionShapeOrThrow)
+					if (!area.isInside(ModUtil.get3dIndexInto1dArray(posX + MESH_SIZE_NEGATIVE_EXTENSION, posY + MESH_SIZE_NEGATIVE_EXTENSION, posZ + MESH_SIZE_NEGATIVE_EXTENSION, areaSizeX, areaSizeY)))
+						continue;
+					// Copy the block's 3x3x3 out of the area's field a row at a time
+					densityField.reset(FIELD_SIZE, FIELD_SIZE, FIELD_SIZE);
+					for (int fieldZ = 0; fieldZ < FIELD_SIZE; ++fieldZ) {
+						for (int fieldY = 0; fieldY < FIELD_SIZE; ++fieldY) {
+							final int fieldIndex = ModUtil.get3dIndexInto1dArray(0, fieldY, fieldZ, FIELD_SIZE, FIELD_SIZE);
+							final int areaIndex = ModUtil.get3dIndexInto1dArray(posX, posY + fieldY, posZ + fieldZ, areaSizeX, areaSizeY);
+							densityField.setInsideBits(fieldIndex, area.insideBits(areaIndex, FIELD_SIZE), FIELD_SIZE);
+							if (overrides)
+								for (int fieldX = 0; fieldX < FIELD_SIZE; ++fieldX)
+									densityField.set(fieldIndex + fieldX, area.get(areaIndex + fieldX));
+						}
+					}
+					final VoxelShape blockShape = generateShape(generator, data);
+					CollisionCache.put(world, pos.setPos(minX + posX, minY + posY, minZ + posZ), changes[i], smoothableVersion, generator, blockShape);
+					if (posX == x && posY == y && posZ == z)
+						shape = blockShape;
+				}
 			}
+		}
+		return shape;
+	}
+
+	@Nullable
+	private static VoxelShape getShape(MeshGenerator generator, int pattern) {
+		final Map<Integer, VoxelShape> shapes = SHAPES_BY_PATTERN.get(generator);
+		return shapes == null ? null : shapes.get(pattern);
+	}
+
+	private static void putShape(MeshGenerator generator, int pattern, VoxelShape shape) {
+		final Map<Integer, VoxelShape> shapes = SHAPES_BY_PATTERN.computeIfAbsent(generator, g -> new ConcurrentHashMap<>());
+		// Can go a bit over if threads put at the same time, doesn't matter
+		if (shapes.size() >= MAX_PATTERNS)
+			shapes.clear();
+		shapes.put(pattern, shape);
+	}
+
+	/**
+	 * Makes the builder's grid into a shape, the same as (but much faster than) combining all its boxes with OR.
+	 */
+	private static VoxelShape toShape(ShapeBuilder builder) {
+		if (!builder.build())
+			return VoxelShapes.empty();
+		final int sizeX = builder.sizeX;
+		final int sizeY = builder.sizeY;
+		final int sizeZ = builder.sizeZ;
+		final BitSetVoxelShapePart part = new BitSetVoxelShapePart(sizeX, sizeY, sizeZ);
+		for (int index = builder.nextFilled(0); index != -1; index = builder.nextFilled(index + 1)) {
+			final int x = index % sizeX;
+			final int y = index / sizeX % sizeY;
+			final int z = index / (sizeX * sizeY);
+			part.setFilled(x, y, z, true, true);
+		}
+		return new VoxelShapeArray(
+			part,
+			DoubleArrayList.wrap(Arrays.copyOf(builder.xs, sizeX + 1)),
+			DoubleArrayList.wrap(Arrays.copyOf(builder.ys, sizeY + 1)),
+			DoubleArrayList.wrap(Arrays.copyOf(builder.zs, sizeZ + 1))
 		);
-		return shapes
-			.stream()
-			.reduce((a, b) -> VoxelShapes.combine(a, b, IBooleanFunction.OR))
-			.orElse(VoxelShapes.empty());
 	}
 
-	public static VoxelShape makeShape(int currX, int currY, int currZ, Vec centre, Vec averageOfNormal, Vec v) {
+	public static void addShape(ShapeBuilder builder, Vec centre, Vec averageOfNormal, Vec v) {
 		double w = centre.x - v.x;
 		if (-0.01 < w && w < 0.01)
 			w = 0.0625 * averageOfNormal.x;
@@ -88,14 +278,21 @@ public class CollisionHandler {
 		double l = centre.z - v.z;
 		if (-0.01 < l && l < 0.01)
 			l = 0.0625 * averageOfNormal.z;
-		v.add(currX, currY, currZ);
-		return VoxelShapes.create(
+		builder.add(
 			v.x, v.y, v.z,
 			v.x + w, v.y + h, v.z + l
 		);
 	}
 
 	static class CollisionCreationData {
+		// Quad positions and normals aren't needed, everything is relative to the block being collided with
+		final BinaryDensityField densityField = new BinaryDensityField();
+		final BlockPos.Mutable pos = new BlockPos.Mutable();
+		final MeshBuffer mesh = new MeshBuffer(false, false);
+		final ShapeBuilder shapeBuilder = new ShapeBuilder();
+		final BinaryDensityField areaField = new BinaryDensityField();
+		int[] areaChanges = new int[0];
+		final Face face = new Face(new Vec(), new Vec(), new Vec(), new Vec());
 		final Face normal = new Face(new Vec(), new Vec(), new Vec(), new Vec());
 		final Vec averageOfNormal = new Vec();
 		final Vec centre = new Vec();
@@ -0,0 +1,152 @@
+package io.github.cadiboo.nocubes.collision;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Collects boxes and turns them into a grid (the coordinates on each axis and which cells of it are filled) in one go,
+ * instead of combining shapes two at a time which makes a new shape (and merges the coordinate lists again) for every box.
+ * Coordinates closer together than {@link #EPSILON} are merged into one, so nearly identical boxes end up filling the same cells.
+ * <p>
+ * Doesn't use any Minecraft classes, {@link CollisionHandler} turns the grid into a shape.
+ * Reusable, call {@link #clear} before adding the boxes for the next shape.
+ *
+ * @author Cadiboo
+ */
+public final class ShapeBuilder {
+
+	/** Coordinates closer together than this are treated as the same. */
+	public static final double EPSILON = 1.0E-4;
+
+	/** minX, minY, minZ, maxX, maxY, maxZ of each box. */
+	private double[] boxes = new double[6 * 64];
+	private int boxCount;
+	private double[] scratch = new double[2 * 64];
+	/** The coordinates of the grid on each axis, sorted. There are one more of them than there are cells on the axis. */
+	public double[] xs = new double[2 * 64];
+	public double[] ys = new double[2 * 64];
+	public double[] zs = new double[2 * 64];
+	/** The number of cells on each axis after {@link #build}. */
+	public int sizeX;
+	public int sizeY;
+	public int sizeZ;
+	/** Indexed [z][y][x]. */
+	private final BitSet filled = new BitSet();
+
+	public void clear() {
+		boxCount = 0;
+	}
+
+	/**
+	 * The corners can be in any order. Boxes that are (nearly) flat on any axis are ignored.
+	 */
+	public void add(double x1, double y1, double z1, double x2, double y2, double z2) {
+		if (Math.abs(x2 - x1) < EPSILON || Math.abs(y2 - y1) < EPSILON || Math.abs(z2 - z1) < EPSILON)
+			return;
+		if ((boxCount + 1) * 6 > boxes.length)
+			boxes = Arrays.copyOf(boxes, boxes.length * 2);
+		final double[] boxes = this.boxes;
+		final int index = boxCount++ * 6;
+		boxes[index] = Math.min(x1, x2);
+		boxes[index + 1] = Math.min(y1, y2);
+		boxes[index + 2] = Math.min(z1, z2);
+		boxes[index + 3] = Math.max(x1, x2);
+		boxes[index + 4] = Math.max(y1, y2);
+		boxes[index + 5] = Math.max(z1, z2);
+	}
+
+	/**
+	 * Works out the grid from all the boxes added since the last {@link #clear}.
+	 * Sorting the coordinates is O(n log n) in the number of boxes, filling is done a row of cells at a time.
+	 *
+	 * @return If there is anything in the grid
+	 */
+	public boolean build() {
+		if (boxCount == 0) {
+			sizeX = sizeY = sizeZ = 0;
+			return false;
+		}
+		if (scratch.length < boxCount * 2) {
+			scratch = new double[boxCount * 2];
+			xs = new double[boxCount * 2];
+			ys = new double[boxCount * 2];
+			zs = new double[boxCount * 2];
+		}
+		sizeX = mergeCoordinates(0, xs) - 1;
+		sizeY = mergeCoordinates(1, ys) - 1;
+		sizeZ = mergeCoordinates(2, zs) - 1;
+
+		final BitSet filled = this.filled;
+		filled.clear();
+		final double[] boxes = this.boxes;
+		for (int box = 0; box < boxCount; ++box) {
+			final int index = box * 6;
+			final int minX = indexOf(xs, sizeX, boxes[index]);
+			final int minY = indexOf(ys, sizeY, boxes[index + 1]);
+			final int minZ = indexOf(zs, sizeZ, boxes[index + 2]);
+			final int maxX = indexOf(xs, sizeX, boxes[index + 3]);
+			final int maxY = indexOf(ys, sizeY, boxes[index + 4]);
+			final int maxZ = indexOf(zs, sizeZ, boxes[index + 5]);
+			for (int z = minZ; z < maxZ; ++z)
+				for (int y = minY; y < maxY; ++y) {
+					final int row = (sizeX * sizeY * z) + (sizeX * y);
+					filled.set(row + minX, row + maxX);
+				}
+		}
+		return true;
+	}
+
+	public boolean isFilled(int x, int y, int z) {
+		return filled.get((sizeX * sizeY * z) + (sizeX * y) + x);
+	}
+
+	/**
+	 * For going over only the filled cells (cells are indexed [z][y][x]).
+	 *
+	 * @return The index of the next filled cell from the index (inclusive), -1 if there isn't one
+	 */
+	public int nextFilled(int index) {
+		return filled.nextSetBit(index);
+	}
+
+	/**
+	 * Sorts the box's coordinates on the axis and merges the ones that are close together.
+	 * The first of each group of close coordinates is kept, so every coordinate is at most {@link #EPSILON} after the one it merged into.
+	 *
+	 * @return The number of coordinates left
+	 */
+	private int mergeCoordinates(int axis, double[] merged) {
+		final double[] scratch = this.scratch;
+		final double[] boxes = this.boxes;
+		final int count = boxCount * 2;
+		for (int box = 0; box < boxCount; ++box) {
+			scratch[box * 2] = boxes[box * 6 + axis];
+			scratch[box * 2 + 1] = boxes[box * 6 + 3 + axis];
+		}
+		Arrays.sort(scratch, 0, count);
+		int mergedCount = 1;
+		merged[0] = scratch[0];
+		for (int i = 1; i < count; ++i)
+			if (scratch[i] > merged[mergedCount - 1] + EPSILON)
+				merged[mergedCount++] = scratch[i];
+		return mergedCount;
+	}
+
+	/**
+	 * @return The index of the merged coordinate that the coordinate was merged into
+	 */
+	private static int indexOf(double[] merged, int cells, double coordinate) {
+		// The last coordinate that isn't after it
+		int low = 0;
+		int high = cells;
+		while (low < high) {
+			final int middle = (low + high + 1) >>> 1;
+			if (merged[middle] <= coordinate)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+}
@@ -3,11 +3,14 @@ package io.github.cadiboo.nocubes.config;
 import com.electronwill.nightconfig.core.file.CommentedFileConfig;
 import com.google.common.collect.Lists;
 import io.github.cadiboo.nocubes.NoCubes;
+import io.github.cadiboo.nocubes.mesh.MeshGenerator;
+import io.github.cadiboo.nocubes.mesh.MeshGenerators;
 import io.github.cadiboo.nocubes.util.BlockStateConverter;
 import net.minecraft.block.BlockState;
 import net.minecraftforge.common.ForgeConfigSpec;
 import net.minecraftforge.common.ForgeConfigSpec.BooleanValue;
 import net.minecraftforge.common.ForgeConfigSpec.ConfigValue;
+import net.minecraftforge.common.ForgeConfigSpec.IntValue;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.ModContainer;
 import net.minecraftforge.fml.ModList;
@@ -126,6 +129,9 @@ public final class NoCubesConfig {
 		public static final ForgeConfigSpec SPEC;
 		public static boolean render;
 		public static ColorParser.Color selectionBoxColor;
+		public static int lodDistance2;
+		public static int lodDistance4;
+		public static int lodDistance8;
 
 		static {
 			final Pair<Impl, ForgeConfigSpec> specPair = new ForgeConfigSpec.Builder().configure(Impl::new);
@@ -136,6 +142,9 @@ public final class NoCubesConfig {
 		public static void bake() {
 			render = INSTANCE.render.get();
 			selectionBoxColor = ColorParser.parse(INSTANCE.selectionBoxColor.get());
+			lodDistance2 = INSTANCE.lodDistance2.get();
+			lodDistance4 = INSTANCE.lodDistance4.get();
+			lodDistance8 = INSTANCE.lodDistance8.get();
 		}
 
 		public static void updateSmoothablePreference(final boolean newValue, final BlockState... states) {
@@ -155,6 +164,9 @@ public final class NoCubesConfig {
 
 			final BooleanValue render;
 			final ConfigValue<String> selectionBoxColor;
+			final IntValue lodDistance2;
+			final IntValue lodDistance4;
+			final IntValue lodDistance8;
 			final ConfigValue<List<? extends String>> smoothableWhitelistPreference;
 			final ConfigValue<List<? extends String>> smoothableBlacklistPreference;
 
@@ -184,6 +196,25 @@ public final class NoCubesConfig {
 					)
 					.define("selectionBoxColor", "#0006");
 
+				lodDistance2 = builder
+					.translation(NoCubes.MOD_ID + ".config.lodDistance2")
+					.comment(
+						"How far away (in chunks) the smooth terrain starts being rendered at half detail (1 point for every 2x2x2 blocks).",
+						"Lower detail makes far away chunks much faster to mesh and draw, 0 disables it.",
+						"Only works with the SurfaceNets mesh generator, reload the chunks (F3+A) after changing it."
+					)
+					.defineInRange("lodDistance2", 0, 0, 64);
+
+				lodDistance4 = builder
+					.translation(NoCubes.MOD_ID + ".config.lodDistance4")
+					.comment("How far away (in chunks) the smooth terrain starts being rendered at a quarter of the detail (1 point for every 4x4x4 blocks), 0 disables it.")
+					.defineInRange("lodDistance4", 0, 0, 64);
+
+				lodDistance8 = builder
+					.translation(NoCubes.MOD_ID + ".config.lodDistance8")
+					.comment("How far away (in chunks) the smooth terrain starts being rendered at an eighth of the detail (1 point for every 8x8x8 blocks), 0 disables it.")
+					.defineInRange("lodDistance8", 0, 0, 64);
+
 				smoothableWhitelistPreference = builder
 					.translation(NoCubes.MOD_ID + ".config.smoothableWhitelistPreference")
 					.defineList("smoothableWhitelistPreference", Lists::newArrayList, String.class::isInstance);
@@ -201,6 +232,12 @@ public final class NoCubesConfig {
 
 		public static final Impl INSTANCE;
 		public static final ForgeConfigSpec SPEC;
+		/**
+		 * Forge syncs the server config to clients when they log in and {@link io.github.cadiboo.nocubes.network.S2CSetTerrainMeshGenerator} keeps it in sync after that.
+		 * On servers without NoCubes it starts as the default and only changes when the player cycles it with the keybind.
+		 * Reset to the default when the client logs out (see {@link io.github.cadiboo.nocubes.client.KeybindHandler#onLoggedOut}).
+		 */
+		public static MeshGenerator meshGenerator = MeshGenerators.DEFAULT;
 
 		static {
 			final Pair<Impl, ForgeConfigSpec> specPair = new ForgeConfigSpec.Builder().configure(Impl::new);
@@ -209,6 +246,8 @@ public final class NoCubesConfig {
 		}
 
 		public static void bake() {
+			final MeshGenerator generator = MeshGenerators.get(INSTANCE.meshGenerator.get());
+			meshGenerator = generator != null ? generator : MeshGenerators.DEFAULT;
 		}
 
 		static class Impl {
@@ -220,6 +259,7 @@ public final class NoCubesConfig {
 			 */
 			final ConfigValue<List<? extends String>> smoothableWhitelist;
 			final ConfigValue<List<? extends String>> smoothableBlacklist;
+			final ConfigValue<String> meshGenerator;
 
 			private Impl(final ForgeConfigSpec.Builder builder) {
 				smoothableWhitelist = builder
@@ -229,6 +269,15 @@ public final class NoCubesConfig {
 				smoothableBlacklist = builder
 					.translation(NoCubes.MOD_ID + ".config.smoothableBlacklist")
 					.defineList("smoothableBlacklist", Lists::newArrayList, String.class::isInstance);
+
+				meshGenerator = builder
+					.translation(NoCubes.MOD_ID + ".config.meshGenerator")
+					.comment(
+						"The algorithm used to generate the smooth terrain (for both rendering and collisions).",
+						"Clients use the same one as the server.",
+						"Built in generators: " + String.join(", ", MeshGenerators.getNames())
+					)
+					.define("meshGenerator", MeshGenerators.getName(MeshGenerators.DEFAULT), name -> name instanceof String && MeshGenerators.get((String) name) != null);
 			}
 
 		}
@@ -240,6 +289,11 @@ public final class NoCubesConfig {
 			saveAndLoad(ModConfig.Type.SERVER);
 		}
 
+		public static void updateMeshGenerator(final MeshGenerator generator) {
+			Server.INSTANCE.meshGenerator.set(MeshGenerators.getName(generator));
+			saveAndLoad(ModConfig.Type.SERVER);
+		}
+
 	}
 
 	private static void updateSmoothable(final boolean newValue, final BlockState[] states, final List<String> whitelist, final List<String> blacklist) {
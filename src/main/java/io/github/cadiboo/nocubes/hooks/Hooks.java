@@ -4,8 +4,12 @@ import com.mojang.blaze3d.matrix.MatrixStack;
 import com.mojang.blaze3d.vertex.IVertexBuilder;
 import io.github.cadiboo.nocubes.NoCubes;
 import io.github.cadiboo.nocubes.client.render.MeshRenderer;
+import io.github.cadiboo.nocubes.client.render.SectionMeshes;
+import io.github.cadiboo.nocubes.collision.CollisionCache;
 import io.github.cadiboo.nocubes.collision.CollisionHandler;
 import io.github.cadiboo.nocubes.config.NoCubesConfig;
+import io.github.cadiboo.nocubes.smoothable.SectionDensities;
+import io.github.cadiboo.nocubes.smoothable.SmoothableCounts;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
 import net.minecraft.client.renderer.BlockRendererDispatcher;
@@ -17,6 +21,8 @@ import net.minecraft.util.math.shapes.ISelectionContext;
 import net.minecraft.util.math.shapes.VoxelShape;
 import net.minecraft.world.IBlockDisplayReader;
 import net.minecraft.world.IBlockReader;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.ChunkSection;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.api.distmarker.OnlyIn;
 import net.minecraftforge.client.model.data.IModelData;
@@ -31,6 +37,15 @@ import static net.minecraft.block.AbstractBlock.AbstractBlockState;
 @SuppressWarnings("unused") // Hooks are called with ASM
 public final class Hooks {
 
+	/**
+	 * Called from: {@link RebuildTask}'s constructors right before they return (on the main thread, when vanilla schedules a rebuild)
+	 * Calls: MeshRenderer.onRebuildScheduled to snapshot the blocks that the mesh will be made from
+	 */
+	@OnlyIn(Dist.CLIENT)
+	public static void onRebuildScheduled(RebuildTask rebuildTask, ChunkRenderDispatcher.ChunkRender chunkRender) {
+		MeshRenderer.onRebuildScheduled(rebuildTask, chunkRender);
+	}
+
 	/**
 	 * Called from: {@link RebuildTask#compile} right before the BlockPos.getAllInBoxMutable iteration
 //	 * Calls: RenderDispatcher.renderChunk to render all our fluids and smooth terrain
@@ -107,6 +122,55 @@ public final class Hooks {
 		return _this.cache != null && !NoCubes.smoothableHandler.isSmoothable((BlockState) _this) ? _this.cache.opaqueCollisionShape : Block.isOpaque(_this.getCollisionShape(reader, pos));
 	}
 
+	/**
+	 * Called from: {@link ChunkSection#setBlockState(int, int, int, BlockState, boolean)} right before it returns
+	 * Calls: SmoothableCounts.onSetBlockState and SectionDensities.onSetBlockState to keep the section's smoothable count and densities up to date
+	 */
+	public static void onSetBlockState(BlockState oldState, ChunkSection section, int x, int y, int z, BlockState newState) {
+		SmoothableCounts.onSetBlockState(section, oldState, newState);
+		SectionDensities.onSetBlockState(section, x, y, z, newState);
+	}
+
+	/**
+	 * Called from: {@link ChunkSection#recalculateRefCounts()} before any other logic
+	 * Calls: SmoothableCounts.recount and SectionDensities.invalidate because the section's blocks were loaded without calling setBlockState
+	 * Recounts immediately like vanilla's counts, nothing else can be using the section yet
+	 */
+	public static void invalidateSmoothableCount(ChunkSection section) {
+		SmoothableCounts.recount(section);
+		SectionDensities.invalidate(section);
+	}
+
+	/**
+	 * Called from: {@link ChunkSection#read} right before it returns
+	 * Calls: SmoothableCounts.recount and SectionDensities.invalidate because the section's blocks were replaced with the ones from the packet
+	 * Recounts immediately (on the main thread) instead of lazily from the chunk render threads
+	 */
+	@OnlyIn(Dist.CLIENT)
+	public static void recountSmoothables(ChunkSection section) {
+		SmoothableCounts.recount(section);
+		SectionDensities.invalidate(section);
+	}
+
+	/**
+	 * Called from: ClientWorld#markBlockRangeForRenderUpdate(BlockPos, BlockState, BlockState) before any other logic
+	 * Calls: SectionMeshes.onBlockChange to patch the kept meshes of the sections around the block
+	 * Called for every block change on the client, even the ones that don't notify neighbours
+	 */
+	@OnlyIn(Dist.CLIENT)
+	public static void onBlockRenderUpdate(BlockPos pos, BlockState oldState, BlockState newState) {
+		SectionMeshes.onBlockChange(pos, oldState, newState);
+	}
+
+	/**
+	 * Called from: World#markAndNotifyBlock(BlockPos, Chunk, BlockState, BlockState, int, int) before any other logic
+	 * Calls: CollisionCache.onBlockChange to stop using the kept collision shapes of the blocks around it
+	 * Called on both sides for every block that gets set through the world
+	 */
+	public static void onBlockChange(World world, BlockPos pos) {
+		CollisionCache.onBlockChange(pos);
+	}
+
 //	public static VoxelShape getCollisionShape(boolean canCollide, BlockState state, IBlockReader reader, BlockPos blockPos, ISelectionContext context) {
 //		return CollisionHandler.getCollisionShape(canCollide, state, reader, blockPos, context);
 //	}
@@ -117,6 +181,7 @@ public final class Hooks {
 	public static void loadClasses(final Dist dist) {
 		loadClass("net.minecraft.block.AbstractBlock$AbstractBlockState");
 		loadClass("net.minecraft.block.BlockState");
+		loadClass("net.minecraft.world.chunk.ChunkSection");
 		if (dist.isClient()) {
 			loadClass("net.minecraft.client.renderer.BlockRendererDispatcher");
 			loadClass("net.minecraft.client.renderer.chunk.ChunkRenderDispatcher$ChunkRender$RebuildTask");
@@ -0,0 +1,246 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import java.util.Arrays;
+
+/**
+ * A density field that stores 1 bit per point (if the point is inside the isosurface) instead of a float.
+ * Almost every density is +1 or -1, the few that aren't (e.g. snow layers) are stored in a small map.
+ * Indexed the same as the float[] fields, [z][y][x].
+ * <p>
+ * Reusable, call {@link #reset} before filling it again.
+ *
+ * @author Cadiboo
+ */
+public final class BinaryDensityField {
+
+	public int sizeX;
+	public int sizeY;
+	public int sizeZ;
+	/** A set bit means the density of the point is not negative (it's inside the isosurface). */
+	private long[] inside = new long[1];
+	// Open addressing map of point index -> density for the densities that aren't +1 or -1
+	// The keys are stored as index + 1 so that 0 can mean empty
+	private int[] overrideKeys = new int[16];
+	private float[] overrideValues = new float[16];
+	private int overrideCount;
+
+	/**
+	 * Resizes the field and makes every point outside the isosurface (density -1).
+	 */
+	public void reset(int sizeX, int sizeY, int sizeZ) {
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sizeZ;
+		// One extra so that reading the 2 bits at the last point never goes out of bounds
+		final int longs = ((sizeX * sizeY * sizeZ + 63) >>> 6) + 1;
+		if (inside.length < longs)
+			inside = new long[longs];
+		else
+			Arrays.fill(inside, 0, longs, 0);
+		if (overrideCount != 0) {
+			Arrays.fill(overrideKeys, 0);
+			overrideCount = 0;
+		}
+	}
+
+	public void set(int index, float density) {
+		if (density >= 0)
+			inside[index >>> 6] |= 1L << index;
+		else
+			inside[index >>> 6] &= ~(1L << index);
+		// Points can be set again (e.g. by IncrementalMesh) so an old override has to be replaced even if the new density is +1 or -1
+		if (density != 1 && density != -1 || overrideCount != 0 && hasOverride(index))
+			putOverride(index, density);
+	}
+
+	/**
+	 * Sets whether count (at most 64) consecutive points are inside from the bits (bit 0 is the point at the index).
+	 * Doesn't touch the densities of points that aren't +1 or -1, only for filling a field after it is {@link #reset}.
+	 */
+	public void setInsideBits(int index, long bits, int count) {
+		final long mask = count == 64 ? -1L : (1L << count) - 1;
+		bits &= mask;
+		final int word = index >>> 6;
+		final int shift = index & 63;
+		inside[word] = (inside[word] & ~(mask << shift)) | (bits << shift);
+		if (shift != 0 && shift + count > 64)
+			inside[word + 1] = (inside[word + 1] & ~(mask >>> (64 - shift))) | (bits >>> (64 - shift));
+	}
+
+	/**
+	 * Can also be true if all the points that had other densities have since been set back to +1 or -1.
+	 *
+	 * @return If any point might have a density that isn't +1 or -1 (then the inside bits aren't the whole story)
+	 */
+	public boolean hasOverrides() {
+		return overrideCount != 0;
+	}
+
+	public boolean isInside(int index) {
+		return (inside[index >>> 6] & (1L << index)) != 0;
+	}
+
+	public float get(int index) {
+		if (overrideCount != 0) {
+			final int mask = overrideKeys.length - 1;
+			for (int slot = hash(index) & mask; overrideKeys[slot] != 0; slot = (slot + 1) & mask)
+				if (overrideKeys[slot] == index + 1)
+					return overrideValues[slot];
+		}
+		return isInside(index) ? 1 : -1;
+	}
+
+	/**
+	 * @return The bits of count (at most 64) consecutive points starting at the index, bit 0 is the point at the index
+	 */
+	public long insideBits(int index, int count) {
+		final int word = index >>> 6;
+		final int shift = index & 63;
+		long bits = inside[word] >>> shift;
+		if (shift != 0 && shift + count > 64)
+			bits |= inside[word + 1] << (64 - shift);
+		return count == 64 ? bits : bits & ((1L << count) - 1);
+	}
+
+	/**
+	 * @return The 8 bit mask of which corners of the cell at the index are outside the isosurface.
+	 * Bit (cornerZ * 4 + cornerY * 2 + cornerX) is for the point at (x + cornerX, y + cornerY, z + cornerZ),
+	 * the same as the mask SurfaceNets makes from a float[] field.
+	 */
+	public int outsideMask(int index) {
+		final int dy = sizeX;
+		final int dz = sizeX * sizeY;
+		final int insideMask = twoBits(index) | twoBits(index + dy) << 2 | twoBits(index + dz) << 4 | twoBits(index + dy + dz) << 6;
+		return ~insideMask & 0xFF;
+	}
+
+	/**
+	 * Reads the densities of the corners of the cell at the index, in the same order as {@link #outsideMask}.
+	 */
+	public void getCorners(int index, float[] corners) {
+		final int dy = sizeX;
+		final int dz = sizeX * sizeY;
+		corners[0] = get(index);
+		corners[1] = get(index + 1);
+		corners[2] = get(index + dy);
+		corners[3] = get(index + dy + 1);
+		corners[4] = get(index + dz);
+		corners[5] = get(index + dz + 1);
+		corners[6] = get(index + dz + dy);
+		corners[7] = get(index + dz + dy + 1);
+	}
+
+	/**
+	 * A fast hash of the sizes and densities, fields that are {@link #contentEquals} have the same hash.
+	 */
+	public long contentHash() {
+		long hash = (((long) sizeX * 31 + sizeY) * 31 + sizeZ);
+		final int longs = (sizeX * sizeY * sizeZ + 63) >>> 6;
+		for (int i = 0; i < longs; ++i)
+			hash = (hash + inside[i]) * 0x9E3779B97F4A7C15L;
+		// Order independent because the order of the map depends on the order things were set in
+		// Overrides that were replaced with +1 or -1 (see set) are the same as not being there
+		long overrides = 0;
+		for (int slot = 0; slot < overrideKeys.length; ++slot) {
+			final float value = overrideValues[slot];
+			if (overrideKeys[slot] != 0 && value != 1 && value != -1)
+				overrides += (overrideKeys[slot] * 0x9E3779B97F4A7C15L) ^ Float.floatToIntBits(value);
+		}
+		return hash ^ overrides;
+	}
+
+	/**
+	 * @return If the other field is the same size and has the same densities
+	 */
+	public boolean contentEquals(BinaryDensityField other) {
+		if (sizeX != other.sizeX || sizeY != other.sizeY || sizeZ != other.sizeZ)
+			return false;
+		final int longs = (sizeX * sizeY * sizeZ + 63) >>> 6;
+		for (int i = 0; i < longs; ++i)
+			if (inside[i] != other.inside[i])
+				return false;
+		return overridesMatch(other) && other.overridesMatch(this);
+	}
+
+	/**
+	 * @return Roughly how much memory the field is using
+	 */
+	public int getSizeInBytes() {
+		return inside.length * 8 + overrideKeys.length * 8;
+	}
+
+	/**
+	 * For generators that only work with float[] fields.
+	 */
+	public float[] toFloats() {
+		final float[] densities = new float[sizeX * sizeY * sizeZ];
+		for (int i = 0; i < densities.length; ++i)
+			densities[i] = get(i);
+		return densities;
+	}
+
+	/**
+	 * @return The bits for the points at the index (bit 0) and the index + 1 (bit 1)
+	 */
+	private int twoBits(int index) {
+		final int word = index >>> 6;
+		final int shift = index & 63;
+		long bits = inside[word] >>> shift;
+		if (shift == 63)
+			bits |= inside[word + 1] << 1;
+		return (int) bits & 3;
+	}
+
+	private boolean overridesMatch(BinaryDensityField other) {
+		for (int slot = 0; slot < overrideKeys.length; ++slot) {
+			final int index = overrideKeys[slot] - 1;
+			if (index != -1 && overrideValues[slot] != other.get(index))
+				return false;
+		}
+		return true;
+	}
+
+		private boolean hasOverride(int index) {
+		final int mask = overrideKeys.length - 1;
+		for (int slot = hash(index) & mask; overrideKeys[slot] != 0; slot = (slot + 1) & mask)
+			if (overrideKeys[slot] == index + 1)
+				return true;
+		return false;
+	}
+
+	private void putOverride(int index, float density) {
+		if ((overrideCount + 1) * 2 > overrideKeys.length)
+			growOverrides();
+		final int mask = overrideKeys.length - 1;
+		int slot = hash(index) & mask;
+		while (overrideKeys[slot] != 0 && overrideKeys[slot] != index + 1)
+			slot = (slot + 1) & mask;
+		if (overrideKeys[slot] == 0)
+			++overrideCount;
+		overrideKeys[slot] = index + 1;
+		overrideValues[slot] = density;
+	}
+
+	private void growOverrides() {
+		final int[] oldKeys = overrideKeys;
+		final float[] oldValues = overrideValues;
+		overrideKeys = new int[oldKeys.length * 2];
+		overrideValues = new float[oldValues.length * 2];
+		final int mask = overrideKeys.length - 1;
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldKeys[i] == 0)
+				continue;
+			int slot = hash(oldKeys[i] - 1) & mask;
+			while (overrideKeys[slot] != 0)
+				slot = (slot + 1) & mask;
+			overrideKeys[slot] = oldKeys[i];
+			overrideValues[slot] = oldValues[i];
+		}
+	}
+
+	private static int hash(int index) {
+		// Fibonacci hashing, spreads out the (usually consecutive) indices
+		return (index * 0x9E3779B9) >>> 16;
+	}
+
+}
@@ -0,0 +1,168 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import io.github.cadiboo.nocubes.util.ReusableCache;
+
+import java.util.Arrays;
+
+import static io.github.cadiboo.nocubes.mesh.MeshGenerator.MESH_SIZE_NEGATIVE_EXTENSION;
+
+/**
+ * A SurfaceNets mesh that is kept together with its density field so that changing one point of the field
+ * only re-marches the cells around it instead of the whole field.
+ * <p>
+ * The quads are indexed by the cell they were made for ({@link MeshBuffer#quadPositions}).
+ * Changing a point moves the vertices of the 2x2x2 cells that have it as a corner,
+ * and the only quads that use those vertices are the ones of the 3x3x3 cells around the point.
+ * Those quads are removed and re-marched from the 5x5x5 points around the point.
+ * The re-marched vertices get appended, the old ones are left unused
+ * until there are enough of them that it's worth re-generating the whole mesh.
+ * <p>
+ * Not thread safe, but different instances can be used from different threads.
+ *
+ * @author Cadiboo
+ */
+public final class IncrementalMesh {
+
+	// Lots of these get kept around, so the scratch space for updating them is shared
+	private static final ReusableCache<float[]> SUB_FIELDS = new ReusableCache.Local<>();
+	private static final ReusableCache<MeshBuffer> SUB_MESHES = new ReusableCache.Local<>();
+	// At most 1 vertex for each of the 4x4x4 cells of the sub field
+	private static final ReusableCache<int[]> SUB_VERTEX_REMAPS = new ReusableCache.Local<>();
+
+	/** The field the mesh is made from, fill it and then call {@link #generate}. */
+	public final BinaryDensityField densityField = new BinaryDensityField();
+	public final MeshBuffer mesh = new MeshBuffer(true, true);
+	private int generatedVertexCount;
+
+	/**
+	 * Marches the whole field.
+	 */
+	public void generate() {
+		mesh.clear();
+		SurfaceNets.generateOrThrow(densityField, mesh);
+		generatedVertexCount = mesh.vertexCount;
+	}
+
+	/**
+	 * Marches the whole field, sharing the vertices on the seams with the neighbouring fields.
+	 * See {@link SurfaceNets#generateOrThrow(BinaryDensityField, MeshBuffer, SeamVertices[], SeamVertices[])}.
+	 */
+	public void generate(SeamVertices[] before, SeamVertices[] after) {
+		mesh.clear();
+		SurfaceNets.generateOrThrow(densityField, mesh, before, after);
+		generatedVertexCount = mesh.vertexCount;
+	}
+
+	/**
+	 * @return Roughly how much memory the mesh and its field are using
+	 */
+	public int getSizeInBytes() {
+		final MeshBuffer mesh = this.mesh;
+		return densityField.getSizeInBytes() + mesh.vertices.length * 4 + mesh.normals.length * 4 + mesh.quads.length * 4 + mesh.quadPositions.length * 4;
+	}
+
+	/**
+	 * Changes the density of a point in the field and patches the mesh to match.
+	 * The coordinates are of the point in the field (not the mesh).
+	 */
+	public void update(int x, int y, int z, float density) {
+		final BinaryDensityField field = densityField;
+		final int fieldSizeX = field.sizeX;
+		final int fieldSizeY = field.sizeY;
+		final int index = (fieldSizeX * fieldSizeY * z) + (fieldSizeX * y) + x;
+		if (field.get(index) == density)
+			return;
+		field.set(index, density);
+
+		// Lots of unused vertices, start again
+		if (mesh.vertexCount > generatedVertexCount * 2 + 256) {
+			generate();
+			return;
+		}
+
+		// The points needed to re-march cells x - 2 to x + 1 (x - 2 only for its vertex)
+		final int startX = Math.max(0, x - 2);
+		final int startY = Math.max(0, y - 2);
+		final int startZ = Math.max(0, z - 2);
+		final int subSizeX = Math.min(fieldSizeX - 1, x + 2) - startX + 1;
+		final int subSizeY = Math.min(fieldSizeY - 1, y + 2) - startY + 1;
+		final int subSizeZ = Math.min(field.sizeZ - 1, z + 2) - startZ + 1;
+		final float[] subField = SUB_FIELDS.getOrCreate(() -> new float[5 * 5 * 5]);
+		int subIndex = 0;
+		for (int subZ = 0; subZ < subSizeZ; ++subZ)
+			for (int subY = 0; subY < subSizeY; ++subY)
+				for (int subX = 0; subX < subSizeX; ++subX, ++subIndex)
+					subField[subIndex] = field.get((fieldSizeX * fieldSizeY * (startZ + subZ)) + (fieldSizeX * (startY + subY)) + (startX + subX));
+		final MeshBuffer subMesh = SUB_MESHES.getOrCreate(() -> new MeshBuffer(true, true));
+		subMesh.clear();
+		// Marched in the field's coordinates (not offset afterwards) so the vertices are exactly the same as a full march's
+		SurfaceNets.generateOrThrow(subField, subSizeX, subSizeY, subSizeZ, startX, startY, startZ, subMesh);
+
+		// The cells that might have different quads now, in mesh coordinates (the same as the quad positions)
+		final int minX = x - 1 - MESH_SIZE_NEGATIVE_EXTENSION;
+		final int minY = y - 1 - MESH_SIZE_NEGATIVE_EXTENSION;
+		final int minZ = z - 1 - MESH_SIZE_NEGATIVE_EXTENSION;
+		final int maxX = x + 1 - MESH_SIZE_NEGATIVE_EXTENSION;
+		final int maxY = y + 1 - MESH_SIZE_NEGATIVE_EXTENSION;
+		final int maxZ = z + 1 - MESH_SIZE_NEGATIVE_EXTENSION;
+		removeQuads(minX, minY, minZ, maxX, maxY, maxZ);
+
+		// The sub mesh's vertices get appended to the mesh, so their indices change
+		final int[] remap = SUB_VERTEX_REMAPS.getOrCreate(() -> new int[4 * 4 * 4]);
+		Arrays.fill(remap, 0, subMesh.vertexCount, -1);
+		final int[] subQuads = subMesh.quads;
+		final int[] subQuadPositions = subMesh.quadPositions;
+		for (int quad = 0; quad < subMesh.quadCount; ++quad) {
+			final int quadX = subQuadPositions[quad * 3];
+			final int quadY = subQuadPositions[quad * 3 + 1];
+			final int quadZ = subQuadPositions[quad * 3 + 2];
+			// Cells on the edges of the sub field are only there to provide vertices, their own quads are incomplete
+			if (quadX < minX || quadX > maxX || quadY < minY || quadY > maxY || quadZ < minZ || quadZ > maxZ)
+				continue;
+			mesh.addQuad(
+				addVertex(subMesh, remap, subQuads[quad * 4]),
+				addVertex(subMesh, remap, subQuads[quad * 4 + 1]),
+				addVertex(subMesh, remap, subQuads[quad * 4 + 2]),
+				addVertex(subMesh, remap, subQuads[quad * 4 + 3]),
+				quadX, quadY, quadZ
+			);
+		}
+	}
+
+	private int addVertex(MeshBuffer subMesh, int[] remap, int subVertex) {
+		if (remap[subVertex] == -1) {
+			final float[] subVertices = subMesh.vertices;
+			final float[] subNormals = subMesh.normals;
+			remap[subVertex] = mesh.addVertex(
+				subVertices[subVertex * 3],
+				subVertices[subVertex * 3 + 1],
+				subVertices[subVertex * 3 + 2],
+				subNormals[subVertex * 3],
+				subNormals[subVertex * 3 + 1],
+				subNormals[subVertex * 3 + 2]
+			);
+		}
+		return remap[subVertex];
+	}
+
+	private void removeQuads(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		final MeshBuffer mesh = this.mesh;
+		final int[] quads = mesh.quads;
+		final int[] quadPositions = mesh.quadPositions;
+		int kept = 0;
+		for (int quad = 0; quad < mesh.quadCount; ++quad) {
+			final int quadX = quadPositions[quad * 3];
+			final int quadY = quadPositions[quad * 3 + 1];
+			final int quadZ = quadPositions[quad * 3 + 2];
+			if (quadX >= minX && quadX <= maxX && quadY >= minY && quadY <= maxY && quadZ >= minZ && quadZ <= maxZ)
+				continue;
+			if (kept != quad) {
+				System.arraycopy(quads, quad * 4, quads, kept * 4, 4);
+				System.arraycopy(quadPositions, quad * 3, quadPositions, kept * 3, 3);
+			}
+			++kept;
+		}
+		mesh.quadCount = kept;
+	}
+
+}
@@ -0,0 +1,168 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import io.github.cadiboo.nocubes.util.ReusableCache;
+
+import java.util.Arrays;
+
+/**
+ * Makes coarser SurfaceNets meshes for sections that are far away.
+ * The density field gets downsampled to 1 point for every stride x stride x stride blocks
+ * (the density of the point is the average of the blocks, so it's inside if most of them are)
+ * and then marched like normal, so a stride of 2 makes about 4x fewer quads, 4 about 16x and 8 about 64x.
+ * <p>
+ * The meshes of neighbouring sections with the same stride line up exactly.
+ * Where a section borders one with a smaller stride the two surfaces don't line up and there would be a gap,
+ * so the coarse mesh gets 1 more cell on that side which overlaps the finer mesh and covers the gap.
+ *
+ * @author Cadiboo
+ */
+public final class LevelOfDetail {
+
+	// Bits for the faces of the mesh that border finer meshes, the same as Direction#getIndex
+	public static final int DOWN = 1;
+	public static final int UP = 1 << 1;
+	public static final int NORTH = 1 << 2;
+	public static final int SOUTH = 1 << 3;
+	public static final int WEST = 1 << 4;
+	public static final int EAST = 1 << 5;
+
+	/** The number of coarse points the field needs on each side of the mesh, 1 for the mesh and 1 more for the overlap. */
+	private static final int COARSE_PADDING = 2;
+	private static final ReusableCache<float[]> COARSE_FIELDS = new ReusableCache.Local<>();
+	private static final ReusableCache<MeshBuffer> COARSE_MESHES = new ReusableCache.Local<>();
+	private static final ReusableCache<int[]> VERTEX_REMAPS = new ReusableCache.Local<>();
+
+	/**
+	 * @return How many blocks the field needs to start before the start of the mesh
+	 */
+	public static int getFieldPadding(int stride) {
+		return COARSE_PADDING * stride;
+	}
+
+	/**
+	 * @return How big (on each axis) the field for a mesh of the size needs to be
+	 */
+	public static int getFieldSize(int meshSize, int stride) {
+		return meshSize + 2 * getFieldPadding(stride);
+	}
+
+	/**
+	 * Adds the coarse mesh of the field to the buffer.
+	 * The field needs to be a cube of {@link #getFieldSize} that starts {@link #getFieldPadding} blocks before the mesh.
+	 * The vertices are relative to the start of the mesh, the same as a normal mesh.
+	 * The quad positions are of a block in the mesh near the middle of the quad, the stride is too big for them to be cells.
+	 *
+	 * @param stride      How many blocks each point of the coarse field is for, the size of the mesh must be a multiple of it
+	 * @param finerFaces  The faces (bits like {@link #WEST}) of the mesh that border meshes with a smaller stride
+	 */
+	public static void generate(BinaryDensityField field, int stride, int finerFaces, MeshBuffer buffer) {
+		final int coarseSize = field.sizeX / stride;
+		final int meshSize = (coarseSize - 2 * COARSE_PADDING) * stride;
+		final float[] coarseField = downsample(field, stride, coarseSize);
+		final MeshBuffer coarseMesh = COARSE_MESHES.getOrCreate(() -> new MeshBuffer(true, true));
+		coarseMesh.clear();
+		SurfaceNets.generateOrThrow(coarseField, coarseSize, coarseSize, coarseSize, coarseMesh);
+
+		// The cells that are in the mesh, the quad position of a cell is its coarse point - 1
+		// Cell 0 is also in the mesh of the section before, it gets left to that section unless this mesh needs to overlap it
+		final int cells = coarseSize - 2 * COARSE_PADDING;
+		final int minX = (finerFaces & WEST) != 0 ? 0 : 1;
+		final int minY = (finerFaces & DOWN) != 0 ? 0 : 1;
+		final int minZ = (finerFaces & NORTH) != 0 ? 0 : 1;
+		final int maxX = (finerFaces & EAST) != 0 ? cells + 1 : cells;
+		final int maxY = (finerFaces & UP) != 0 ? cells + 1 : cells;
+		final int maxZ = (finerFaces & SOUTH) != 0 ? cells + 1 : cells;
+
+		// Different strides need different sizes
+		int[] remap = VERTEX_REMAPS.get();
+		if (remap == null || remap.length < coarseMesh.vertexCount)
+			VERTEX_REMAPS.set(remap = new int[coarseMesh.vertexCount]);
+		Arrays.fill(remap, 0, coarseMesh.vertexCount, -1);
+		final int[] quads = coarseMesh.quads;
+		final int[] quadPositions = coarseMesh.quadPositions;
+		final float[] vertices = coarseMesh.vertices;
+		for (int quad = 0; quad < coarseMesh.quadCount; ++quad) {
+			final int cellX = quadPositions[quad * 3];
+			final int cellY = quadPositions[quad * 3 + 1];
+			final int cellZ = quadPositions[quad * 3 + 2];
+			if (cellX < minX || cellX > maxX || cellY < minY || cellY > maxY || cellZ < minZ || cellZ > maxZ)
+				continue;
+			float centreX = 0;
+			float centreY = 0;
+			float centreZ = 0;
+			for (int i = 0; i < 4; ++i) {
+				final int vertex = quads[quad * 4 + i];
+				centreX += vertices[vertex * 3];
+				centreY += vertices[vertex * 3 + 1];
+				centreZ += vertices[vertex * 3 + 2];
+			}
+			buffer.addQuad(
+				addVertex(coarseMesh, remap, quads[quad * 4], stride, buffer),
+				addVertex(coarseMesh, remap, quads[quad * 4 + 1], stride, buffer),
+				addVertex(coarseMesh, remap, quads[quad * 4 + 2], stride, buffer),
+				addVertex(coarseMesh, remap, quads[quad * 4 + 3], stride, buffer),
+				toBlock(centreX * 0.25F, stride, meshSize),
+				toBlock(centreY * 0.25F, stride, meshSize),
+				toBlock(centreZ * 0.25F, stride, meshSize)
+			);
+		}
+	}
+
+	/**
+	 * @return The coarse field, each point is the average density of the stride x stride x stride blocks it's for
+	 */
+	private static float[] downsample(BinaryDensityField field, int stride, int coarseSize) {
+		final int coarsePoints = coarseSize * coarseSize * coarseSize;
+		float[] coarseField = COARSE_FIELDS.get();
+		if (coarseField == null || coarseField.length < coarsePoints)
+			COARSE_FIELDS.set(coarseField = new float[coarsePoints]);
+		Arrays.fill(coarseField, 0, coarsePoints, 0);
+		final int fieldSizeX = field.sizeX;
+		final int fieldSizeY = field.sizeY;
+		// Count the inside blocks a row of the field at a time, each row adds to a row of the coarse field
+		for (int z = 0; z < field.sizeZ; ++z) {
+			for (int y = 0; y < fieldSizeY; ++y) {
+				final int rowIndex = (fieldSizeX * fieldSizeY * z) + (fieldSizeX * y);
+				final int coarseRowIndex = (coarseSize * coarseSize * (z / stride)) + (coarseSize * (y / stride));
+				for (int coarseX = 0; coarseX < coarseSize; ++coarseX)
+					coarseField[coarseRowIndex + coarseX] += Long.bitCount(field.insideBits(rowIndex + coarseX * stride, stride));
+			}
+		}
+		// Inside counts from 0 to stride^3 -> densities from -1 to 1
+		final float blocks = stride * stride * stride;
+		for (int i = 0; i < coarsePoints; ++i)
+			coarseField[i] = (2 * coarseField[i] - blocks) / blocks;
+		return coarseField;
+	}
+
+	private static int addVertex(MeshBuffer coarseMesh, int[] remap, int coarseVertex, int stride, MeshBuffer buffer) {
+		if (remap[coarseVertex] == -1) {
+			final float[] vertices = coarseMesh.vertices;
+			// Scaling the mesh doesn't change which way the normals face
+			final float[] normals = coarseMesh.normals;
+			remap[coarseVertex] = buffer.addVertex(
+				toMesh(vertices[coarseVertex * 3], stride),
+				toMesh(vertices[coarseVertex * 3 + 1], stride),
+				toMesh(vertices[coarseVertex * 3 + 2], stride),
+				normals[coarseVertex * 3],
+				normals[coarseVertex * 3 + 1],
+				normals[coarseVertex * 3 + 2]
+			);
+		}
+		return remap[coarseVertex];
+	}
+
+	/**
+	 * SurfaceNets puts coarse point p at p - 0.5. Coarse point p is for the blocks starting at (p - {@link #COARSE_PADDING}) * stride
+	 * in the mesh, so in the mesh it needs to be at (p - 1.5) * stride (the middle of its blocks).
+	 */
+	private static float toMesh(float coarse, int stride) {
+		return (coarse - 1) * stride;
+	}
+
+	private static int toBlock(float coarse, int stride, int meshSize) {
+		final int block = (int) Math.floor(toMesh(coarse, stride));
+		return Math.max(0, Math.min(meshSize - 1, block));
+	}
+
+}
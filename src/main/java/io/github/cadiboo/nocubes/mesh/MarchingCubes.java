@@ -1,10 +1,199 @@
 package io.github.cadiboo.nocubes.mesh;
 
+import io.github.cadiboo.nocubes.mesh.MeshGenerator.FaceAction;
+import io.github.cadiboo.nocubes.util.Face;
+import io.github.cadiboo.nocubes.util.ReusableCache;
+import io.github.cadiboo.nocubes.util.Vec;
+
+import java.util.Arrays;
+
+import static io.github.cadiboo.nocubes.mesh.MeshGenerator.MESH_SIZE_NEGATIVE_EXTENSION;
+import static io.github.cadiboo.nocubes.mesh.MeshGenerator.MESH_SIZE_POSITIVE_EXTENSION;
+
 /**
+ * Marching cubes over the same density field as {@link SurfaceNets}.
+ * The cells that start in the negative padding are skipped, they belong to the neighbouring mesh.
+ * Vertices are placed on the edges of the cells (instead of one vertex in the middle of each cell) and shared
+ * between neighbouring cells. The triangles from the tables are paired up into quads where they share an edge.
+ *
  * @author Cadiboo
  */
 public class MarchingCubes {
 
+	private static final ReusableCache<Scratch> SCRATCH = new ReusableCache.Local<>();
+
+	/**
+	 * The arrays and objects a march needs, kept for each thread so that marching doesn't allocate anything once they're big enough.
+	 */
+	private static final class Scratch {
+		boolean inUse;
+		final float[] grid = new float[8];
+		final int[] cellEdgeVertices = new int[12];
+		final Face face = new Face(new Vec(), new Vec(), new Vec(), new Vec());
+		int[] edgeVertices = new int[0];
+		// Quad positions aren't needed, the action gets given them
+		final MeshBuffer buffer = new MeshBuffer(false);
+	}
+
+	/**
+	 * See {@link MeshGenerator#generateOrThrow(float[], int, int, int, FaceAction)}.
+	 * Triangles that couldn't be paired up into a quad are passed to the action as a quad with v3 the same as v2.
+	 */
+	public static void generateOrThrow(float[] densityField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, FaceAction action) {
+		march(densityField, null, fieldSizeX, fieldSizeY, fieldSizeZ, action, null);
+	}
+
+	/**
+	 * See {@link MeshGenerator#generateOrThrow(float[], int, int, int, MeshBuffer)}.
+	 * Triangles that couldn't be paired up into a quad are stored as a quad with the last 2 indices the same.
+	 */
+	public static void generateOrThrow(float[] densityField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, MeshBuffer buffer) {
+		march(densityField, null, fieldSizeX, fieldSizeY, fieldSizeZ, null, buffer);
+	}
+
+	/**
+	 * See {@link MeshGenerator#generateOrThrow(BinaryDensityField, FaceAction)}.
+	 */
+	public static void generateOrThrow(BinaryDensityField densityField, FaceAction action) {
+		march(null, densityField, densityField.sizeX, densityField.sizeY, densityField.sizeZ, action, null);
+	}
+
+	/**
+	 * See {@link MeshGenerator#generateOrThrow(BinaryDensityField, MeshBuffer)}.
+	 */
+	public static void generateOrThrow(BinaryDensityField densityField, MeshBuffer buffer) {
+		march(null, densityField, densityField.sizeX, densityField.sizeY, densityField.sizeZ, null, buffer);
+	}
+
+	/**
+	 * Exactly one of densityField or binaryField is non-null.
+	 * If the action is non-null the buffer is null and every quad is passed to the action as soon as it is made.
+	 */
+	private static void march(float[] densityField, BinaryDensityField binaryField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, FaceAction action, MeshBuffer buffer) {
+		Scratch scratch = SCRATCH.getOrCreate(Scratch::new);
+		// Marching again from inside a FaceAction, can't share
+		if (scratch.inUse)
+			scratch = new Scratch();
+		scratch.inUse = true;
+		try {
+			if (action != null) {
+				// Just scratch space for the vertices, the quads get passed to the action
+				buffer = scratch.buffer;
+				buffer.clear();
+			}
+			march(densityField, binaryField, fieldSizeX, fieldSizeY, fieldSizeZ, action, buffer, scratch);
+		} finally {
+			scratch.inUse = false;
+		}
+	}
+
+	private static void march(float[] densityField, BinaryDensityField binaryField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, FaceAction action, MeshBuffer buffer, Scratch scratch) {
+		final Face face = scratch.face;
+		final float[] grid = scratch.grid;
+		final int[] cellEdgeVertices = scratch.cellEdgeVertices;
+
+		// Same layout as the field, (x, y, z) -> [z * fieldSizeX * fieldSizeY + y * fieldSizeX + x]
+		final int dy = fieldSizeX;
+		final int dz = fieldSizeX * fieldSizeY;
+		// The vertex on the edges going along the x, y and z axes from each point of 2 z slices of the field
+		// The slice a point is in is (z & 1) so the edges of the current slice are kept around for the next slice
+		// (and the vertices on them are shared instead of being recalculated)
+		if (scratch.edgeVertices.length < dz * 2 * 3)
+			scratch.edgeVertices = new int[dz * 2 * 3];
+		final int[] edgeVertices = scratch.edgeVertices;
+		Arrays.fill(edgeVertices, 0, dz * 2 * 3, -1);
+
+		// Start at 1, the cells in the negative padding belong to the neighbouring mesh
+		for (int z = 1; z < fieldSizeZ - MESH_SIZE_POSITIVE_EXTENSION; ++z) {
+			// The slice at z + 1 is new, forget the vertices from the slice at z - 1 which used to be there
+			if (z > 1) {
+				final int slice = ((z + 1) & 1) * dz * 3;
+				Arrays.fill(edgeVertices, slice, slice + dz * 3, -1);
+			}
+			for (int y = 1; y < fieldSizeY - MESH_SIZE_POSITIVE_EXTENSION; ++y) {
+				for (int x = 1; x < fieldSizeX - MESH_SIZE_POSITIVE_EXTENSION; ++x) {
+					// Same as ModUtil.get3dIndexInto1dArray, inlined so that this doesn't load any Minecraft classes
+					final int index = z * dz + y * dy + x;
+					int mask = 0;
+					if (binaryField != null) {
+						// The binary mask has the corners in zyx order, CUBE_VERTS swaps the last 2 corners of each z slice
+						final int zyxMask = binaryField.outsideMask(index);
+						mask = (zyxMask & 0x33) | ((zyxMask & 0x44) << 1) | ((zyxMask & 0x88) >> 1);
+						// This cell is either entirely inside or entirely outside the isosurface
+						if (mask == 0 || mask == 0xff)
+							continue;
+						grid[0] = binaryField.get(index);
+						grid[1] = binaryField.get(index + 1);
+						grid[2] = binaryField.get(index + 1 + dy);
+						grid[3] = binaryField.get(index + dy);
+						grid[4] = binaryField.get(index + dz);
+						grid[5] = binaryField.get(index + 1 + dz);
+						grid[6] = binaryField.get(index + 1 + dy + dz);
+						grid[7] = binaryField.get(index + dy + dz);
+					} else {
+						// Read in the 8 corners (in CUBE_VERTS order) and calculate the mask of which ones are outside the isosurface
+						grid[0] = densityField[index];
+						grid[1] = densityField[index + 1];
+						grid[2] = densityField[index + 1 + dy];
+						grid[3] = densityField[index + dy];
+						grid[4] = densityField[index + dz];
+						grid[5] = densityField[index + 1 + dz];
+						grid[6] = densityField[index + 1 + dy + dz];
+						grid[7] = densityField[index + dy + dz];
+						for (int corner = 0; corner < 8; ++corner)
+							mask |= grid[corner] < 0 ? 1 << corner : 0;
+					}
+
+					final int edgeMask = EDGE_TABLE[mask];
+					// This cell is either entirely inside or entirely outside the isosurface
+					if (edgeMask == 0)
+						continue;
+
+					for (int edge = 0; edge < 12; ++edge) {
+						if ((edgeMask & (1 << edge)) == 0)
+							continue;
+						final int pointX = x + Lookup.EDGE_START_X[edge];
+						final int pointY = y + Lookup.EDGE_START_Y[edge];
+						final int pointZ = z + Lookup.EDGE_START_Z[edge];
+						final int key = ((pointZ & 1) * dz + pointY * dy + pointX) * 3 + Lookup.EDGE_AXIS[edge];
+						int vertex = edgeVertices[key];
+						if (vertex == -1) {
+							final int start = EDGE_INDEX[edge][0];
+							final int end = EDGE_INDEX[edge][1];
+							// Find where the isosurface crosses the edge
+							final float startValue = grid[start];
+							float t = startValue - grid[end];
+							t = Math.abs(t) > 1e-6 ? startValue / t : 0.5F;
+							final byte[] p0 = CUBE_VERTS[start];
+							final byte[] p1 = CUBE_VERTS[end];
+							// The density of a block is at its centre, so the field point x is at x - 0.5 relative to the start of the mesh
+							vertex = buffer.addVertex(
+								-0.5F + x + p0[0] + t * (p1[0] - p0[0]),
+								-0.5F + y + p0[1] + t * (p1[1] - p0[1]),
+								-0.5F + z + p0[2] + t * (p1[2] - p0[2])
+							);
+							edgeVertices[key] = vertex;
+						}
+						cellEdgeVertices[edge] = vertex;
+					}
+
+					final byte[] quads = Lookup.QUAD_TABLE[mask];
+					for (int i = 0; i < quads.length; i += 4) {
+						buffer.addQuad(
+							cellEdgeVertices[quads[i]], cellEdgeVertices[quads[i + 1]], cellEdgeVertices[quads[i + 2]], cellEdgeVertices[quads[i + 3]],
+							x - MESH_SIZE_NEGATIVE_EXTENSION, y - MESH_SIZE_NEGATIVE_EXTENSION, z - MESH_SIZE_NEGATIVE_EXTENSION
+						);
+						if (action == null)
+							continue;
+						buffer.assignQuadTo(buffer.quadCount - 1, face);
+						if (!action.apply(x, y, z, face))
+							return;
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * Maps the vertices under the isosurface to the intersecting edges.
 	 * An 8 bit index is formed where each bit corresponds to a vertex.
@@ -330,4 +519,86 @@ public class MarchingCubes {
 		{}
 	};
 
+	/**
+	 * Tables derived from the ones above when the class is loaded.
+	 */
+	static class Lookup {
+
+		/** Which corner of the cell each edge starts at (the end of the edge is always further along its axis). */
+		static final byte[] EDGE_START_X = new byte[12];
+		static final byte[] EDGE_START_Y = new byte[12];
+		static final byte[] EDGE_START_Z = new byte[12];
+		/** 0 for x, 1 for y and 2 for z. */
+		static final byte[] EDGE_AXIS = new byte[12];
+		/**
+		 * The same as TRI_TABLE but as quads (4 edge indices each).
+		 * Pairs of triangles in the same cell that share an edge are merged into a quad,
+		 * the leftover triangles are stored as a quad with the last 2 edges the same.
+		 * Quads get split into (v0, v1, v2) and (v0, v2, v3) for rendering so the merged ones look the same as the triangles did.
+		 */
+		static final byte[][] QUAD_TABLE = new byte[256][];
+
+		static {
+			for (int edge = 0; edge < 12; ++edge) {
+				final byte[] start = CUBE_VERTS[EDGE_INDEX[edge][0]];
+				final byte[] end = CUBE_VERTS[EDGE_INDEX[edge][1]];
+				EDGE_START_X[edge] = (byte) Math.min(start[0], end[0]);
+				EDGE_START_Y[edge] = (byte) Math.min(start[1], end[1]);
+				EDGE_START_Z[edge] = (byte) Math.min(start[2], end[2]);
+				EDGE_AXIS[edge] = (byte) (start[0] != end[0] ? 0 : start[1] != end[1] ? 1 : 2);
+			}
+			for (int mask = 0; mask < 256; ++mask)
+				QUAD_TABLE[mask] = makeQuads(TRI_TABLE[mask]);
+		}
+
+		static byte[] makeQuads(byte[] triangles) {
+			final int triangleCount = triangles.length / 3;
+			final boolean[] used = new boolean[triangleCount];
+			final byte[] quads = new byte[triangleCount * 4];
+			int quadsLength = 0;
+			for (int i = 0; i < triangleCount; ++i) {
+				if (used[i])
+					continue;
+				used[i] = true;
+				boolean merged = false;
+				for (int j = i + 1; j < triangleCount && !merged; ++j) {
+					if (!used[j] && tryMerge(triangles, i * 3, j * 3, quads, quadsLength)) {
+						used[j] = true;
+						merged = true;
+					}
+				}
+				if (!merged) {
+					quads[quadsLength] = triangles[i * 3];
+					quads[quadsLength + 1] = triangles[i * 3 + 1];
+					quads[quadsLength + 2] = triangles[i * 3 + 2];
+					quads[quadsLength + 3] = triangles[i * 3 + 2];
+				}
+				quadsLength += 4;
+			}
+			return Arrays.copyOf(quads, quadsLength);
+		}
+
+		/**
+		 * Looks for a rotation of the triangles where a = (v0, v1, v2) and b = (v0, v2, v3).
+		 */
+		static boolean tryMerge(byte[] triangles, int a, int b, byte[] quads, int quadsIndex) {
+			for (int i = 0; i < 3; ++i) {
+				final byte v0 = triangles[a + i];
+				final byte v1 = triangles[a + (i + 1) % 3];
+				final byte v2 = triangles[a + (i + 2) % 3];
+				for (int j = 0; j < 3; ++j) {
+					if (triangles[b + j] != v0 || triangles[b + (j + 1) % 3] != v2)
+						continue;
+					quads[quadsIndex] = v0;
+					quads[quadsIndex + 1] = v1;
+					quads[quadsIndex + 2] = v2;
+					quads[quadsIndex + 3] = triangles[b + (j + 2) % 3];
+					return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
 }
@@ -0,0 +1,224 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import io.github.cadiboo.nocubes.util.Face;
+import io.github.cadiboo.nocubes.util.FloatFace;
+import io.github.cadiboo.nocubes.util.Vec;
+
+import java.util.Arrays;
+
+/**
+ * A reusable mesh stored in primitive arrays instead of one object per vertex/face.
+ * Vertices are shared between quads and each quad is 4 indices into the vertices.
+ * Optionally stores the position of the block each quad was generated for and the normal of each vertex.
+ * <p>
+ * Vertex and quad positions have the same origin, the start of the mesh (after any negative extension),
+ * so adding the start of the mesh to them gives world coordinates.
+ * Consumers should walk the arrays directly, e.g.
+ * <pre>
+ * for (int quad = 0; quad &lt; buffer.quadCount; ++quad) {
+ *     int v0 = buffer.quads[quad * 4];
+ *     float x0 = buffer.vertices[v0 * 3];
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author Cadiboo
+ */
+public final class MeshBuffer {
+
+	/** x, y, z for each vertex. */
+	public float[] vertices;
+	public int vertexCount;
+	/** The indices of 4 vertices for each quad. */
+	public int[] quads;
+	/**
+	 * x, y, z of the (outwards facing, normalised) normal of each vertex, null if not stored.
+	 * Worked out by the mesher from the density field, zero for vertices it couldn't work one out for.
+	 */
+	public float[] normals;
+	/** The x, y, z position of the block each quad is for, null if not stored. */
+	public int[] quadPositions;
+	public int quadCount;
+
+	public MeshBuffer() {
+		this(true);
+	}
+
+	public MeshBuffer(boolean storeQuadPositions) {
+		this(storeQuadPositions, false);
+	}
+
+	public MeshBuffer(boolean storeQuadPositions, boolean storeNormals) {
+		vertices = new float[0x180 * 3];
+		normals = storeNormals ? new float[0x180 * 3] : null;
+		quads = new int[0x180 * 4];
+		quadPositions = storeQuadPositions ? new int[0x180 * 3] : null;
+	}
+
+	/**
+	 * Resets the counts but keeps the arrays so that the buffer can be reused without allocating.
+	 */
+	public void clear() {
+		vertexCount = 0;
+		quadCount = 0;
+	}
+
+	/**
+	 * Replaces the contents of this buffer with a copy of the other buffer's.
+	 * If this buffer stores normals and the other one doesn't, the vertices get zero normals (the same as if the mesher couldn't work them out).
+	 * If the other buffer doesn't store quad positions, this one stops storing them too (there's nothing to fill them with).
+	 */
+	public void copyFrom(MeshBuffer other) {
+		final int vertexCount = other.vertexCount;
+		final int quadCount = other.quadCount;
+		if (vertices.length < vertexCount * 3)
+			vertices = new float[vertexCount * 3];
+		System.arraycopy(other.vertices, 0, vertices, 0, vertexCount * 3);
+		if (quads.length < quadCount * 4)
+			quads = new int[quadCount * 4];
+		System.arraycopy(other.quads, 0, quads, 0, quadCount * 4);
+		if (normals != null) {
+			if (normals.length < vertexCount * 3)
+				normals = new float[vertexCount * 3];
+			if (other.normals != null)
+				System.arraycopy(other.normals, 0, normals, 0, vertexCount * 3);
+			else
+				Arrays.fill(normals, 0, vertexCount * 3, 0);
+		}
+		if (other.quadPositions == null)
+			quadPositions = null;
+		else if (quadPositions != null) {
+			if (quadPositions.length < quadCount * 3)
+				quadPositions = new int[quadCount * 3];
+			System.arraycopy(other.quadPositions, 0, quadPositions, 0, quadCount * 3);
+		}
+		this.vertexCount = vertexCount;
+		this.quadCount = quadCount;
+	}
+
+	/**
+	 * If normals are stored the vertex gets a zero normal.
+	 *
+	 * @return The index of the new vertex
+	 */
+	public int addVertex(float x, float y, float z) {
+		return addVertex(x, y, z, 0, 0, 0);
+	}
+
+	/**
+	 * The normal is ignored if normals aren't stored.
+	 *
+	 * @return The index of the new vertex
+	 */
+	public int addVertex(float x, float y, float z, float normalX, float normalY, float normalZ) {
+		int index = vertexCount * 3;
+		if (index + 3 > vertices.length)
+			vertices = Arrays.copyOf(vertices, vertices.length * 2);
+		vertices[index] = x;
+		vertices[index + 1] = y;
+		vertices[index + 2] = z;
+		final float[] normals = this.normals;
+		if (normals != null) {
+			if (index + 3 > normals.length)
+				this.normals = Arrays.copyOf(normals, vertices.length);
+			this.normals[index] = normalX;
+			this.normals[index + 1] = normalY;
+			this.normals[index + 2] = normalZ;
+		}
+		return vertexCount++;
+	}
+
+	public void addQuad(int v0, int v1, int v2, int v3, int x, int y, int z) {
+		int index = quadCount * 4;
+		if (index + 4 > quads.length)
+			quads = Arrays.copyOf(quads, quads.length * 2);
+		quads[index] = v0;
+		quads[index + 1] = v1;
+		quads[index + 2] = v2;
+		quads[index + 3] = v3;
+		if (quadPositions != null) {
+			index = quadCount * 3;
+			if (index + 3 > quadPositions.length)
+				quadPositions = Arrays.copyOf(quadPositions, quadPositions.length * 2);
+			quadPositions[index] = x;
+			quadPositions[index + 1] = y;
+			quadPositions[index + 2] = z;
+		}
+		++quadCount;
+	}
+
+	/**
+	 * Copies the vertices of the quad into the face, for consumers that still work with {@link Face}s.
+	 */
+	public void assignQuadTo(int quad, Face face) {
+		int index = quad * 4;
+		assignVertexTo(quads[index], face.v0);
+		assignVertexTo(quads[index + 1], face.v1);
+		assignVertexTo(quads[index + 2], face.v2);
+		assignVertexTo(quads[index + 3], face.v3);
+	}
+
+	/**
+	 * Copies the vertices of the quad into the face without widening them to doubles.
+	 */
+	public void assignQuadTo(int quad, FloatFace face) {
+		int index = quad * 4;
+		final float[] faceVertices = face.vertices;
+		System.arraycopy(vertices, quads[index] * 3, faceVertices, 0, 3);
+		System.arraycopy(vertices, quads[index + 1] * 3, faceVertices, 3, 3);
+		System.arraycopy(vertices, quads[index + 2] * 3, faceVertices, 6, 3);
+		System.arraycopy(vertices, quads[index + 3] * 3, faceVertices, 9, 3);
+	}
+
+	/**
+	 * Copies the normals of the quad's vertices into the face (instead of working them out from the quad).
+	 *
+	 * @return If normals are stored and the mesher worked one out for every vertex of the quad
+	 */
+	public boolean assignNormalsTo(int quad, FloatFace normals) {
+		final float[] faceNormals = normals.vertices;
+		for (int i = 0; i < 4; ++i) {
+			if (!hasNormal(quads[quad * 4 + i]))
+				return false;
+			System.arraycopy(this.normals, quads[quad * 4 + i] * 3, faceNormals, i * 3, 3);
+		}
+		return true;
+	}
+
+	/**
+	 * Same as {@link #assignNormalsTo(int, FloatFace)}, for consumers that still work with {@link Face}s.
+	 */
+	public boolean assignNormalsTo(int quad, Face normals) {
+		int index = quad * 4;
+		if (!hasNormal(quads[index]) || !hasNormal(quads[index + 1]) || !hasNormal(quads[index + 2]) || !hasNormal(quads[index + 3]))
+			return false;
+		assignNormalTo(quads[index], normals.v0);
+		assignNormalTo(quads[index + 1], normals.v1);
+		assignNormalTo(quads[index + 2], normals.v2);
+		assignNormalTo(quads[index + 3], normals.v3);
+		return true;
+	}
+
+	private boolean hasNormal(int vertex) {
+		final float[] normals = this.normals;
+		if (normals == null)
+			return false;
+		int index = vertex * 3;
+		return normals[index] != 0 || normals[index + 1] != 0 || normals[index + 2] != 0;
+	}
+
+	private void assignNormalTo(int vertex, Vec vec) {
+		int index = vertex * 3;
+		vec.x = normals[index];
+		vec.y = normals[index + 1];
+		vec.z = normals[index + 2];
+	}
+
+	private void assignVertexTo(int vertex, Vec vec) {
+		int index = vertex * 3;
+		vec.x = vertices[index];
+		vec.y = vertices[index + 1];
+		vec.z = vertices[index + 2];
+	}
+
+}
@@ -0,0 +1,199 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import io.github.cadiboo.nocubes.util.Face;
+import io.github.cadiboo.nocubes.util.ModUtil;
+import io.github.cadiboo.nocubes.util.ReusableCache;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IBlockReader;
+
+import java.util.function.Predicate;
+
+/**
+ * An algorithm that turns a density field into a mesh.
+ * Implementations only need to mesh an already filled field, filling it from the world is shared.
+ * See {@link MeshGenerators} for the registered generators.
+ *
+ * @author Cadiboo
+ */
+public interface MeshGenerator {
+
+	// Meshes need data for n+1 to generate n
+	int MESH_SIZE_POSITIVE_EXTENSION = 1;
+	// Seams appear in the meshes, surface nets generates a mesh 1 smaller than it "should"
+	int MESH_SIZE_NEGATIVE_EXTENSION = 1;
+
+	/**
+	 * Generates a mesh from an already filled density field, never touches the world.
+	 * Unlike the world based methods, exceptions are always thrown.
+	 * Safe to call from any thread, on a dedicated server and from unit tests/benchmarks.
+	 * <p>
+	 * The field is indexed [z][y][x] (see {@link ModUtil#get3dIndexInto1dArray}) and must include the
+	 * {@link #MESH_SIZE_NEGATIVE_EXTENSION} and {@link #MESH_SIZE_POSITIVE_EXTENSION} padding.
+	 * Positive density is inside the isosurface (smoothable), negative density is outside.
+	 * Face positions are relative to the first block after the negative padding,
+	 * the x, y and z passed to the action are the position of the cell in the field.
+	 */
+	void generateOrThrow(float[] densityField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, FaceAction action);
+
+	/**
+	 * Same as {@link #generateOrThrow(float[], int, int, int, FaceAction)} but appends the vertices and quads to the buffer
+	 * instead of copying each face and calling an action for it.
+	 * The positions stored for the quads are relative to the same origin as the vertices.
+	 */
+	void generateOrThrow(float[] densityField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, MeshBuffer buffer);
+
+	/**
+	 * Same as {@link #generateOrThrow(float[], int, int, int, FaceAction)} but for a bit-packed field.
+	 * The default implementation converts the field to a float[], generators should override it to read the bits directly.
+	 */
+	default void generateOrThrow(BinaryDensityField densityField, FaceAction action) {
+		generateOrThrow(densityField.toFloats(), densityField.sizeX, densityField.sizeY, densityField.sizeZ, action);
+	}
+
+	/**
+	 * Same as {@link #generateOrThrow(float[], int, int, int, MeshBuffer)} but for a bit-packed field.
+	 * The default implementation converts the field to a float[], generators should override it to read the bits directly.
+	 */
+	default void generateOrThrow(BinaryDensityField densityField, MeshBuffer buffer) {
+		generateOrThrow(densityField.toFloats(), densityField.sizeX, densityField.sizeY, densityField.sizeZ, buffer);
+	}
+
+	default void generate(
+		int startX, int startY, int startZ,
+		int meshSizeX, int meshSizeY, int meshSizeZ,
+		IBlockReader world, Predicate<BlockState> isSmoothable, ReusableCache<float[]> cache,
+		MeshAction action
+	) {
+		final int worldXStart = startX - MESH_SIZE_NEGATIVE_EXTENSION;
+		final int worldYStart = startY - MESH_SIZE_NEGATIVE_EXTENSION;
+		final int worldZStart = startZ - MESH_SIZE_NEGATIVE_EXTENSION;
+		final WorldFaceAction worldAction = WorldFaceAction.acquire(worldXStart, worldYStart, worldZStart, action);
+		try {
+			final float[] densityField = fillDensityField(worldXStart, worldYStart, worldZStart, meshSizeX, meshSizeY, meshSizeZ, world, isSmoothable, cache, worldAction.pos);
+			generateOrThrow(
+				densityField,
+				meshSizeX + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION,
+				meshSizeY + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION,
+				meshSizeZ + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION,
+				worldAction
+			);
+		} catch (Throwable t) {
+			if (!ModUtil.IS_DEVELOPER_WORKSPACE.get())
+				throw t;
+			t.getCause();
+		} finally {
+			worldAction.release();
+		}
+	}
+
+	/**
+	 * Clears the buffer and fills it with the mesh for the area.
+	 * Add the start position to the vertices and quad positions in the buffer to get world positions.
+	 */
+	default void generate(
+		int startX, int startY, int startZ,
+		int meshSizeX, int meshSizeY, int meshSizeZ,
+		IBlockReader world, Predicate<BlockState> isSmoothable, ReusableCache<float[]> cache,
+		MeshBuffer buffer
+	) {
+		buffer.clear();
+		try {
+			final float[] densityField = fillDensityField(
+				startX - MESH_SIZE_NEGATIVE_EXTENSION, startY - MESH_SIZE_NEGATIVE_EXTENSION, startZ - MESH_SIZE_NEGATIVE_EXTENSION,
+				meshSizeX, meshSizeY, meshSizeZ,
+				world, isSmoothable, cache, WorldFaceAction.FILL_POSITIONS.getOrCreate(BlockPos.Mutable::new)
+			);
+			generateOrThrow(
+				densityField,
+				meshSizeX + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION,
+				meshSizeY + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION,
+				meshSizeZ + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION,
+				buffer
+			);
+		} catch (Throwable t) {
+			if (!ModUtil.IS_DEVELOPER_WORKSPACE.get())
+				throw t;
+			t.getCause();
+		}
+	}
+
+	/**
+	 * Same as {@link #generate(int, int, int, int, int, int, IBlockReader, Predicate, ReusableCache, MeshBuffer)}
+	 * but uses a bit-packed field, which is much smaller than a float[] and can be reused for any size of mesh.
+	 */
+	default void generate(
+		int startX, int startY, int startZ,
+		int meshSizeX, int meshSizeY, int meshSizeZ,
+		IBlockReader world, Predicate<BlockState> isSmoothable, BinaryDensityField densityField,
+		MeshBuffer buffer
+	) {
+		buffer.clear();
+		try {
+			densityField.reset(
+				meshSizeX + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION,
+				meshSizeY + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION,
+				meshSizeZ + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION
+			);
+			ModUtil.fillDensityField(
+				startX - MESH_SIZE_NEGATIVE_EXTENSION, startY - MESH_SIZE_NEGATIVE_EXTENSION, startZ - MESH_SIZE_NEGATIVE_EXTENSION,
+				WorldFaceAction.FILL_POSITIONS.getOrCreate(BlockPos.Mutable::new), world, isSmoothable, densityField
+			);
+			generateOrThrow(densityField, buffer);
+		} catch (Throwable t) {
+			if (!ModUtil.IS_DEVELOPER_WORKSPACE.get())
+				throw t;
+			t.getCause();
+		}
+	}
+
+	/**
+	 * @return The field (from the cache) filled with the density of the mesh area and the padding around it
+	 */
+	static float[] fillDensityField(
+		int worldXStart, int worldYStart, int worldZStart,
+		int meshSizeX, int meshSizeY, int meshSizeZ,
+		IBlockReader world, Predicate<BlockState> isSmoothable, ReusableCache<float[]> cache,
+		BlockPos.Mutable pos
+	) {
+		// Need to add that extra block on each axis
+		final int fieldSizeX = meshSizeX + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION;
+		final int fieldSizeY = meshSizeY + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION;
+		final int fieldSizeZ = meshSizeZ + MESH_SIZE_NEGATIVE_EXTENSION + MESH_SIZE_POSITIVE_EXTENSION;
+
+		/*
+		 * From Wikipedia:
+		 * Apply a threshold to the 2D field to make a binary image containing:
+		 * - 1 where the data value is above the isovalue
+		 * - 0 where the data value is below the isovalue
+		 */
+		// The area, converted from a BlockState[] to an isSmoothable[]
+		// densityField[x, y, z] = isSmoothable(chunk[x, y, z]);
+		final float[] densityField = cache.getOrCreate(() -> new float[fieldSizeZ * fieldSizeY * fieldSizeX]);
+		ModUtil.fillDensityField(
+			worldXStart, worldYStart, worldZStart,
+			fieldSizeX, fieldSizeY, fieldSizeZ,
+			pos, world, isSmoothable, densityField
+		);
+		return densityField;
+	}
+
+	interface MeshAction {
+
+		boolean apply(BlockPos.Mutable pos, Face face);
+
+	}
+
+	/**
+	 * Like {@link MeshAction} but without any Minecraft world types.
+	 */
+	interface FaceAction {
+
+		/**
+		 * @return If meshing should continue
+		 */
+		boolean apply(int x, int y, int z, Face face);
+
+	}
+
+}
@@ -0,0 +1,103 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import io.github.cadiboo.nocubes.mesh.MeshGenerator.FaceAction;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The registry of mesh generators that can be picked in the server config.
+ * The server and clients look generators up by name so that they agree on the collision geometry.
+ *
+ * @author Cadiboo
+ */
+public final class MeshGenerators {
+
+	private static final Map<String, MeshGenerator> REGISTRY = new LinkedHashMap<>();
+
+	public static final MeshGenerator SURFACE_NETS = register("SurfaceNets", new MeshGenerator() {
+		@Override
+		public void generateOrThrow(float[] densityField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, FaceAction action) {
+			SurfaceNets.generateOrThrow(densityField, fieldSizeX, fieldSizeY, fieldSizeZ, action);
+		}
+
+		@Override
+		public void generateOrThrow(float[] densityField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, MeshBuffer buffer) {
+			SurfaceNets.generateOrThrow(densityField, fieldSizeX, fieldSizeY, fieldSizeZ, buffer);
+		}
+
+		@Override
+		public void generateOrThrow(BinaryDensityField densityField, FaceAction action) {
+			SurfaceNets.generateOrThrow(densityField, action);
+		}
+
+		@Override
+		public void generateOrThrow(BinaryDensityField densityField, MeshBuffer buffer) {
+			SurfaceNets.generateOrThrow(densityField, buffer);
+		}
+	});
+	public static final MeshGenerator MARCHING_CUBES = register("MarchingCubes", new MeshGenerator() {
+		@Override
+		public void generateOrThrow(float[] densityField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, FaceAction action) {
+			MarchingCubes.generateOrThrow(densityField, fieldSizeX, fieldSizeY, fieldSizeZ, action);
+		}
+
+		@Override
+		public void generateOrThrow(float[] densityField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, MeshBuffer buffer) {
+			MarchingCubes.generateOrThrow(densityField, fieldSizeX, fieldSizeY, fieldSizeZ, buffer);
+		}
+
+		@Override
+		public void generateOrThrow(BinaryDensityField densityField, FaceAction action) {
+			MarchingCubes.generateOrThrow(densityField, action);
+		}
+
+		@Override
+		public void generateOrThrow(BinaryDensityField densityField, MeshBuffer buffer) {
+			MarchingCubes.generateOrThrow(densityField, buffer);
+		}
+	});
+	public static final MeshGenerator DEFAULT = SURFACE_NETS;
+
+	/**
+	 * For other mods.
+	 * Must be called before the server config is loaded for the generator to be selectable.
+	 * The generator must be registered with the same name on both the server and the client.
+	 */
+	public static synchronized MeshGenerator register(String name, MeshGenerator generator) {
+		if (REGISTRY.containsKey(name))
+			throw new IllegalArgumentException("A mesh generator called " + name + " is already registered");
+		REGISTRY.put(name, generator);
+		return generator;
+	}
+
+	@Nullable
+	public static MeshGenerator get(String name) {
+		return REGISTRY.get(name);
+	}
+
+	public static String getName(MeshGenerator generator) {
+		for (Map.Entry<String, MeshGenerator> entry : REGISTRY.entrySet())
+			if (entry.getValue() == generator)
+				return entry.getKey();
+		throw new IllegalArgumentException("Unregistered mesh generator " + generator);
+	}
+
+	public static List<String> getNames() {
+		return Collections.unmodifiableList(new ArrayList<>(REGISTRY.keySet()));
+	}
+
+	/**
+	 * @return The generator registered after the current one (wrapping around)
+	 */
+	public static MeshGenerator next(MeshGenerator current) {
+		List<String> names = getNames();
+		int index = names.indexOf(getName(current));
+		return get(names.get((index + 1) % names.size()));
+	}
+
+}
@@ -0,0 +1,150 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import java.util.Arrays;
+
+/**
+ * The vertices SurfaceNets made for the cells in the last layer of a field along an axis.
+ * The fields of neighbouring sections overlap by 2 points, so those cells are also the first layer of cells of the next field
+ * along the axis and marching the next field can use the vertices instead of working them out again.
+ * It also means that the vertices on both sides of the seam between the meshes come from exactly the same numbers.
+ * <p>
+ * Keeps the densities of the 2 layers of points the cells are made from to check that the vertices are still right for the next field.
+ * Doesn't change once it's been {@link #record recorded} (until it's recorded again), so it can be read from multiple threads.
+ *
+ * @author Cadiboo
+ */
+public final class SeamVertices {
+
+	/** The axis the seam is across, 0 for x, 1 for y and 2 for z. */
+	public final int axis;
+	// The size of the field on the other 2 axes (x then y then z)
+	private int sizeU;
+	private int sizeV;
+	/** The inside bits of the 2 layers of points, indexed [layer][v][u]. */
+	private long[] inside = new long[0];
+	/** The densities of the 2 layers of points, null if they're all +1 or -1. */
+	private float[] densities;
+	/**
+	 * The offsets of the vertices from the start of their cells, in the order SurfaceNets marches the cells in.
+	 * Kept as the doubles SurfaceNets works them out in (not the float positions) so that a reused vertex goes through exactly
+	 * the same addition and cast as one that's worked out again, and ends up bit for bit the same.
+	 */
+	private double[] offsets = new double[16 * 3];
+	private int count;
+
+	public SeamVertices(int axis) {
+		this.axis = axis;
+	}
+
+	/**
+	 * Remembers the densities of the last 2 layers of points of the field, the vertices then need to be {@link #add added}.
+	 */
+	void record(BinaryDensityField field) {
+		final int layer = size(field, axis) - 2;
+		sizeU = size(field, axis == 0 ? 1 : 0);
+		sizeV = size(field, axis == 2 ? 1 : 2);
+		final int points = 2 * sizeU * sizeV;
+		final int longs = (points + 63) >>> 6;
+		if (inside.length != longs)
+			inside = new long[longs];
+		else
+			Arrays.fill(inside, 0);
+		densities = null;
+		count = 0;
+		int point = 0;
+		for (int pointLayer = 0; pointLayer < 2; ++pointLayer) {
+			for (int v = 0; v < sizeV; ++v) {
+				for (int u = 0; u < sizeU; ++u, ++point) {
+					final float density = field.get(index(field, layer + pointLayer, u, v));
+					if (density >= 0)
+						inside[point >>> 6] |= 1L << point;
+					if (density != 1 && density != -1 && densities == null) {
+						densities = new float[points];
+						for (int previous = 0; previous < point; ++previous)
+							densities[previous] = (inside[previous >>> 6] & (1L << previous)) != 0 ? 1 : -1;
+					}
+					if (densities != null)
+						densities[point] = density;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return If the first 2 layers of points of the field have the same densities as the ones this was recorded from
+	 */
+	boolean matches(BinaryDensityField field) {
+		// Not recorded yet
+		if (sizeU == 0)
+			return false;
+		if (size(field, axis == 0 ? 1 : 0) != sizeU || size(field, axis == 2 ? 1 : 2) != sizeV)
+			return false;
+		final float[] densities = this.densities;
+		int point = 0;
+		for (int pointLayer = 0; pointLayer < 2; ++pointLayer) {
+			for (int v = 0; v < sizeV; ++v) {
+				for (int u = 0; u < sizeU; ++u, ++point) {
+					final float expected = densities != null ? densities[point] : (inside[point >>> 6] & (1L << point)) != 0 ? 1 : -1;
+					if (field.get(index(field, pointLayer, u, v)) != expected)
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Cells need to be added in the order SurfaceNets marches them.
+	 * Only cells on the surface have vertices, and the fields have the same densities if this {@link #matches},
+	 * so the next field's march reads them back in the same order without needing to know which cell each one is for.
+	 */
+	void add(double offsetX, double offsetY, double offsetZ) {
+		if ((count + 1) * 3 > offsets.length)
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		offsets[count * 3] = offsetX;
+		offsets[count * 3 + 1] = offsetY;
+		offsets[count * 3 + 2] = offsetZ;
+		++count;
+	}
+
+	/**
+	 * @return How many vertices there are
+	 */
+	int getCount() {
+		return count;
+	}
+
+	/**
+	 * @param vertex The offset of the vertex from the start of its cell gets put in here
+	 */
+	void getOffset(int position, double[] vertex) {
+		vertex[0] = offsets[position * 3];
+		vertex[1] = offsets[position * 3 + 1];
+		vertex[2] = offsets[position * 3 + 2];
+	}
+
+	/**
+	 * @return Roughly how much memory this is using
+	 */
+	public int getSizeInBytes() {
+		return inside.length * 8 + (densities == null ? 0 : densities.length * 4) + offsets.length * 8;
+	}
+
+	private int index(BinaryDensityField field, int layer, int u, int v) {
+		final int dy = field.sizeX;
+		final int dz = field.sizeX * field.sizeY;
+		switch (axis) {
+			case 0:
+				return dz * v + dy * u + layer;
+			case 1:
+				return dz * v + dy * layer + u;
+			default:
+				return dz * layer + dy * v + u;
+		}
+	}
+
+	private static int size(BinaryDensityField field, int axis) {
+		return axis == 0 ? field.sizeX : axis == 1 ? field.sizeY : field.sizeZ;
+	}
+
+}
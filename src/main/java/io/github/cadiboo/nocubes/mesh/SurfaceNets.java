@@ -1,17 +1,14 @@
 package io.github.cadiboo.nocubes.mesh;
 
+import io.github.cadiboo.nocubes.mesh.MeshGenerator.FaceAction;
 import io.github.cadiboo.nocubes.util.Face;
 import io.github.cadiboo.nocubes.util.ReusableCache;
 import io.github.cadiboo.nocubes.util.Vec;
-import io.github.cadiboo.nocubes.util.ModUtil;
-import net.minecraft.block.BlockState;
-import net.minecraft.client.Minecraft;
-import net.minecraft.util.math.BlockPos;
-import net.minecraft.world.IBlockReader;
 
-import java.util.ArrayList;
-import java.util.function.Predicate;
+import java.util.Arrays;
 
+import static io.github.cadiboo.nocubes.mesh.MeshGenerator.MESH_SIZE_NEGATIVE_EXTENSION;
+import static io.github.cadiboo.nocubes.mesh.MeshGenerator.MESH_SIZE_POSITIVE_EXTENSION;
 import static io.github.cadiboo.nocubes.mesh.SurfaceNets.Lookup.CUBE_EDGES;
 import static io.github.cadiboo.nocubes.mesh.SurfaceNets.Lookup.EDGE_TABLE;
 
@@ -21,91 +18,113 @@ import static io.github.cadiboo.nocubes.mesh.SurfaceNets.Lookup.EDGE_TABLE;
  */
 public class SurfaceNets {
 
-	// Surface needs data for n+1 to generate n
-	public static final int MESH_SIZE_POSITIVE_EXTENSION = 1;
-	// Seams appear in the meshes, surface nets generates a mesh 1 smaller than it "should"
-	public static final int MESH_SIZE_NEGATIVE_EXTENSION = 1;
-
-	public static void generate(
-		int startX, int startY, int startZ,
-		int meshSizeX, int meshSizeY, int meshSizeZ,
-		IBlockReader world, Predicate<BlockState> isSmoothable, ReusableCache<float[]> cache,
-		MeshAction action
-	) {
+	private static final ReusableCache<Scratch> SCRATCH = new ReusableCache.Local<>();
+
+	/**
+	 * The arrays and objects a march needs, kept for each thread so that marching doesn't allocate anything once they're big enough.
+	 */
+	private static final class Scratch {
+		boolean inUse;
+		final int[] axisMultipliers = new int[3];
+		final float[] grid = new float[8];
+		final double[] vertex = new double[3];
+		final float[] normal = new float[3];
+		final Face face = new Face(new Vec(), new Vec(), new Vec(), new Vec());
+		int[] verticesBuffer = new int[0];
+		double[] vertices = new double[0x180 * 3];
+	}
+
+	/**
+	 * See {@link MeshGenerator#generateOrThrow(float[], int, int, int, FaceAction)}.
+	 */
+	public static void generateOrThrow(float[] densityField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, FaceAction action) {
+		march(densityField, null, fieldSizeX, fieldSizeY, fieldSizeZ, action, null, null, null, 0, 0, 0);
+	}
+
+	/**
+	 * See {@link MeshGenerator#generateOrThrow(float[], int, int, int, MeshBuffer)}.
+	 */
+	public static void generateOrThrow(float[] densityField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, MeshBuffer buffer) {
+		march(densityField, null, fieldSizeX, fieldSizeY, fieldSizeZ, null, buffer, null, null, 0, 0, 0);
+	}
+
+	/**
+	 * Same as {@link #generateOrThrow(float[], int, int, int, MeshBuffer)} but the field is part of a bigger field, starting at the origin.
+	 * The vertices and quad positions are worked out in the bigger field's coordinates, so they are exactly the same
+	 * (not just to within a rounding error) as the ones marching the bigger field would make for the same cells.
+	 */
+	public static void generateOrThrow(float[] densityField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, int originX, int originY, int originZ, MeshBuffer buffer) {
+		march(densityField, null, fieldSizeX, fieldSizeY, fieldSizeZ, null, buffer, null, null, originX, originY, originZ);
+	}
+
+	/**
+	 * See {@link MeshGenerator#generateOrThrow(BinaryDensityField, FaceAction)}.
+	 */
+	public static void generateOrThrow(BinaryDensityField densityField, FaceAction action) {
+		march(null, densityField, densityField.sizeX, densityField.sizeY, densityField.sizeZ, action, null, null, null, 0, 0, 0);
+	}
+
+	/**
+	 * See {@link MeshGenerator#generateOrThrow(BinaryDensityField, MeshBuffer)}.
+	 */
+	public static void generateOrThrow(BinaryDensityField densityField, MeshBuffer buffer) {
+		march(null, densityField, densityField.sizeX, densityField.sizeY, densityField.sizeZ, null, buffer, null, null, 0, 0, 0);
+	}
+
+	/**
+	 * Same as {@link #generateOrThrow(BinaryDensityField, MeshBuffer)} but shares the vertices of the cells on the seams with the neighbouring fields.
+	 *
+	 * @param before The seams recorded by the fields before this one on each axis (indexed by {@link SeamVertices#axis}),
+	 *               the vertices of the first layer of cells get read from the ones that still match the field. Elements can be null.
+	 * @param after  Seams (indexed by {@link SeamVertices#axis}) to record the vertices of the last layer of cells into. Elements can be null.
+	 */
+	public static void generateOrThrow(BinaryDensityField densityField, MeshBuffer buffer, SeamVertices[] before, SeamVertices[] after) {
+		march(null, densityField, densityField.sizeX, densityField.sizeY, densityField.sizeZ, null, buffer, before, after, 0, 0, 0);
+	}
+
+	/**
+	 * Exactly one of densityField or binaryField is non-null.
+	 * Exactly one of action or buffer is non-null.
+	 * The seams can only be used with a binaryField.
+	 * The origin is only used for the buffer's vertices and quad positions.
+	 */
+	private static void march(float[] densityField, BinaryDensityField binaryField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, FaceAction action, MeshBuffer buffer, SeamVertices[] before, SeamVertices[] after, int originX, int originY, int originZ) {
+		Scratch scratch = SCRATCH.getOrCreate(Scratch::new);
+		// Marching again from inside a FaceAction, can't share
+		if (scratch.inUse)
+			scratch = new Scratch();
+		scratch.inUse = true;
 		try {
-			generateOrThrow(startX, startY, startZ, meshSizeX, meshSizeY, meshSizeZ, world, isSmoothable, cache, action);
-		} catch (Throwable t) {
-			if (!ModUtil.IS_DEVELOPER_WORKSPACE.get())
-				throw t;
-			t.getCause();
+			march(densityField, binaryField, fieldSizeX, fieldSizeY, fieldSizeZ, action, buffer, before, after, originX, originY, originZ, scratch);
+		} finally {
+			scratch.inUse = false;
 		}
 	}
 
-	private static void generateOrThrow(
-		int startX, int startY, int startZ,
-		int meshSizeX, int meshSizeY, int meshSizeZ,
-		IBlockReader world, Predicate<BlockState> isSmoothable, ReusableCache<float[]> cache,
-		MeshAction action
-	) {
-		meshSizeX += MESH_SIZE_POSITIVE_EXTENSION;
-		meshSizeY += MESH_SIZE_POSITIVE_EXTENSION;
-		meshSizeZ += MESH_SIZE_POSITIVE_EXTENSION;
-		final int worldXStart = startX - MESH_SIZE_NEGATIVE_EXTENSION;
-		final int worldYStart = startY - MESH_SIZE_NEGATIVE_EXTENSION;
-		final int worldZStart = startZ - MESH_SIZE_NEGATIVE_EXTENSION;
-		// Need to add that extra block on each axis
-		final int fieldSizeX = meshSizeX + MESH_SIZE_NEGATIVE_EXTENSION;
-		final int fieldSizeY = meshSizeY + MESH_SIZE_NEGATIVE_EXTENSION;
-		final int fieldSizeZ = meshSizeZ + MESH_SIZE_NEGATIVE_EXTENSION;
-
-		final BlockPos.Mutable pos = new BlockPos.Mutable();
-
-		/*
-		 * From Wikipedia:
-		 * Apply a threshold to the 2D field to make a binary image containing:
-		 * - 1 where the data value is above the isovalue
-		 * - 0 where the data value is below the isovalue
-		 */
-		// The area, converted from a BlockState[] to an isSmoothable[]
-		// densityField[x, y, z] = isSmoothable(chunk[x, y, z]);
-		final float[] densityField = cache.getOrCreate(() -> new float[fieldSizeZ * fieldSizeY * fieldSizeX]);
-		ModUtil.traverseArea(
-			worldXStart, worldYStart, worldZStart,
-			worldXStart + meshSizeX, worldYStart + meshSizeY, worldZStart + meshSizeZ,
-			pos, Minecraft.getInstance().world, (blockState, blockPos) -> {
-				int x = blockPos.getX() - worldXStart;
-				int y = blockPos.getY() - worldYStart;
-				int z = blockPos.getZ() - worldZStart;
-				boolean isStateSmoothable = isSmoothable.test(blockState);
-				int index = ModUtil.get3dIndexInto1dArray(x, y, z, fieldSizeX, fieldSizeY);
-				densityField[index] = ModUtil.getBlockDensity(isStateSmoothable, blockState);
-			}
-		);
-		// Old code from before 'traverseArea' was used, kept around because it might be useful for CubicChunks compat
-//		{
-//			int i = 0;
-//			for (int z = 0; z < fieldSizeZ; z++) {
-//				for (int y = 0; y < fieldSizeY; y++) {
-//					for (int x = 0; x < fieldSizeX; x++, i++) {
-//						pos.setPos(worldXStart + x, worldYStart + y, worldZStart + z);
-//						if (world instanceof WorldGenRegion && !((WorldGenRegion) world).chunkExists(x << 16, z << 16))
-//							binaryField[z][y][x] = false;
-//						else
-//							binaryField[z][y][x] = isSmoothable.test(world.getBlockState(pos));
-//					}
-//				}
-//			}
-//		}
+	private static void march(float[] densityField, BinaryDensityField binaryField, int fieldSizeX, int fieldSizeY, int fieldSizeZ, FaceAction action, MeshBuffer buffer, SeamVertices[] before, SeamVertices[] after, int originX, int originY, int originZ, Scratch scratch) {
+		// Each cell needs the data at n+1
+		final int meshSizeX = fieldSizeX - MESH_SIZE_POSITIVE_EXTENSION;
+		final int meshSizeY = fieldSizeY - MESH_SIZE_POSITIVE_EXTENSION;
+		final int meshSizeZ = fieldSizeZ - MESH_SIZE_POSITIVE_EXTENSION;
 
-		final Face face = new Face(new Vec(), new Vec(), new Vec(), new Vec());
-		final ArrayList<double[]> vertices = new ArrayList<>(0x180);
-		int n = 0;
+		final Face face = scratch.face;
+		// x, y, z of each vertex when passing faces to the action (the buffer stores its own vertices)
+		double[] vertices = scratch.vertices;
+		int vertexCount = 0;
 		// Appears to contain the multiplier for an axis.
 		// The X axis is stored in columns, the Y axis is stored in rows and the Z axis is stored in slices.
 		// (x, y, z) -> [z * fieldSizeX * fieldSizeY + y * fieldSizeX + x]
 		// So the multiplier for X is 1, the multiplier for Y is fieldSizeX and the multiplier for z is fieldSizeX * fieldSizeY
-		final int[] axisMultipliers = {1, (fieldSizeX + 1), (fieldSizeX + 1) * (fieldSizeY + 1)};
-		final float[] grid = new float[8];
+		final int[] axisMultipliers = scratch.axisMultipliers;
+		axisMultipliers[0] = 1;
+		axisMultipliers[1] = fieldSizeX + 1;
+		axisMultipliers[2] = (fieldSizeX + 1) * (fieldSizeY + 1);
+		final float[] grid = scratch.grid;
+		// Copied into the buffer or the vertices so it can be reused
+		final double[] vertex = scratch.vertex;
+		final float[] normal = scratch.normal;
+		// Only worked out if the buffer stores them
+		final boolean normals = buffer != null && buffer.normals != null;
 		// Could be a boolean, either 1 or 0, gets flipped each time we go over a z slice
 		int buf_no = 1;
 
@@ -116,155 +135,297 @@ public class SurfaceNets {
 		// of the buffer, while displaying the other half and flip sides each frame (so you're not
 		// visibly writing pixels each frame, causing a wipe-down effect as the new data is written
 		// the way that happens in old CRT (cathode-ray tube) monitors/TVs)
-		final int[] verticesBuffer = new int[axisMultipliers[2] * 2];
+		// Every entry that gets read was written earlier in this march, so it doesn't need clearing
+		if (scratch.verticesBuffer.length < axisMultipliers[2] * 2)
+			scratch.verticesBuffer = new int[axisMultipliers[2] * 2];
+		final int[] verticesBuffer = scratch.verticesBuffer;
+
+		// The cells on the first layer along an axis were already marched by the field before on that axis
+		final SeamVertices seamX = getMatchingSeam(before, 0, binaryField);
+		final SeamVertices seamY = getMatchingSeam(before, 1, binaryField);
+		final SeamVertices seamZ = getMatchingSeam(before, 2, binaryField);
+		// The seams' vertices are in the order that the cells are marched in, so they just need to be read in order
+		int seamXNext = 0;
+		int seamYNext = 0;
+		int seamZNext = 0;
+		final SeamVertices recordX = after == null ? null : after[0];
+		final SeamVertices recordY = after == null ? null : after[1];
+		final SeamVertices recordZ = after == null ? null : after[2];
+		if (recordX != null)
+			recordX.record(binaryField);
+		if (recordY != null)
+			recordY.record(binaryField);
+		if (recordZ != null)
+			recordZ.record(binaryField);
 
 		//March over the voxel grid
-		for (int z = 0; z < meshSizeZ; ++z, n += fieldSizeX, buf_no ^= 1, axisMultipliers[2] = -axisMultipliers[2]) {
+		for (int z = 0; z < meshSizeZ; ++z, buf_no ^= 1, axisMultipliers[2] = -axisMultipliers[2]) {
 
 			//bufferPointer is the pointer into the buffer we are going to use.
 			//The contents of the buffer will be the indices of the vertices on the previous x/y slice of the volume
-			int bufferPointer = 1 + (fieldSizeX + 1) * (1 + buf_no * (fieldSizeY + 1));
-
-			for (int y = 0; y < meshSizeY; ++y, ++n, bufferPointer += 2) {
-				for (int x = 0; x < meshSizeX; ++x, ++n, ++bufferPointer) {
-
-					//Read in 8 field values around this vertex and store them in an array
-					//Also calculate 8-bit mask, like in marching cubes, so we can speed up sign checks later
-					int mask = 0, corner = 0, idx = n;
-					for (int cornerZ = 0; cornerZ < 2; ++cornerZ, idx += fieldSizeX * (fieldSizeY - 2))
-						for (int cornerY = 0; cornerY < 2; ++cornerY, idx += fieldSizeX - 2)
-							for (byte cornerX = 0; cornerX < 2; ++cornerX, ++corner, ++idx) {
-								int index = ModUtil.get3dIndexInto1dArray(x + cornerX, y + cornerY, z + cornerZ, fieldSizeX, fieldSizeY);
-								float density = densityField[index];
-								grid[corner] = density;
-								mask |= (density < 0) ? (1 << corner) : 0;
-							}
-
-					// Check for early termination if cell does not intersect boundary
-					// This cell is either entirely inside or entirely outside the isosurface
-					if (mask == 0 || mask == 0xff) {
-						continue;
-					}
+			int rowBufferPointer = 1 + (fieldSizeX + 1) * (1 + buf_no * (fieldSizeY + 1));
+
+			for (int y = 0; y < meshSizeY; ++y, rowBufferPointer += fieldSizeX + 1) {
+				// Find the cells that are on the surface a row at a time (63 cells per long, each cell also needs the point after it)
+				// Most cells are entirely inside or outside the isosurface, this skips them without looking at them individually
+				for (int rowStart = 0; rowStart < meshSizeX; rowStart += 63) {
+					final int cells = Math.min(63, meshSizeX - rowStart);
+					// Same as ModUtil.get3dIndexInto1dArray, inlined so that this doesn't load any Minecraft classes
+					final int rowIndex = (fieldSizeX * fieldSizeY * z) + (fieldSizeX * y) + rowStart;
+					// The 4 rows of points touching this row of cells
+					final long row00 = insideBits(densityField, binaryField, rowIndex, cells + 1);
+					final long row01 = insideBits(densityField, binaryField, rowIndex + fieldSizeX, cells + 1);
+					final long row10 = insideBits(densityField, binaryField, rowIndex + fieldSizeX * fieldSizeY, cells + 1);
+					final long row11 = insideBits(densityField, binaryField, rowIndex + fieldSizeX * fieldSizeY + fieldSizeX, cells + 1);
+					// Combine the points at x and x + 1 into the cell at x
+					long allInside = row00 & row01 & row10 & row11;
+					allInside &= allInside >>> 1;
+					long anyInside = row00 | row01 | row10 | row11;
+					anyInside |= anyInside >>> 1;
+					long surfaceCells = anyInside & ~allInside & ((1L << cells) - 1);
+					while (surfaceCells != 0) {
+						final int x = rowStart + Long.numberOfTrailingZeros(surfaceCells);
+						surfaceCells &= surfaceCells - 1;
+						final int bufferPointer = rowBufferPointer + x;
+
+						//Read in 8 field values around this vertex and store them in an array
+						//Also calculate 8-bit mask, like in marching cubes, so we can speed up sign checks later
+						// Already worked out by a field before this one
+						SeamVertices seam = null;
+						int seamPosition = 0;
+						if (x == 0 && seamX != null && seamXNext < seamX.getCount()) {
+							seam = seamX;
+							seamPosition = seamXNext++;
+						}
+						if (y == 0 && seamY != null && seamYNext < seamY.getCount()) {
+							seam = seamY;
+							seamPosition = seamYNext++;
+						}
+						if (z == 0 && seamZ != null && seamZNext < seamZ.getCount()) {
+							seam = seamZ;
+							seamPosition = seamZNext++;
+						}
 
-					// Sum up edge intersections
-					int edge_mask = EDGE_TABLE[mask];
-					final double[] vertex = {0, 0, 0};
-					int edgeCrossings = 0;
-
-					// For every edge of the cube...
-					for (int edge = 0; edge < 12; ++edge) {
-
-						//Use edge mask to check if it is crossed
-						if ((edge_mask & (1 << edge)) == 0)
-							continue;
-
-						//If it did, increment number of edge crossings
-						++edgeCrossings;
-
-						//Now find the point of intersection
-						//Unpack vertices
-						// These are vertices packed (x, y, z) -> zyx
-						// They are also the indices of which corner the vertex is for
-						final int edgeStart = CUBE_EDGES[edge << 1];
-						final int edgeEnd = CUBE_EDGES[(edge << 1) + 1];
-						//Unpack grid values
-						final float edgeStartValue = grid[edgeStart];
-						final float edgeEndValue = grid[edgeEnd];
-//						//Compute point of intersection (the point where the isosurface is and the vertex is)
-//						float t = edgeStartValue - edgeEndValue;
-//						vertex.add(
-//							(edgeStart & 0b001) * (1.0 - t) + (edgeEnd & 0b001) * t,
-//							(edgeStart & 0b010) * (1.0 - t) + (edgeEnd & 0b010) * t,
-//							(edgeStart & 0b100) * (1.0 - t) + (edgeEnd & 0b100) * t
-//						);
-						//Compute point of intersection
-						float t = edgeStartValue - edgeEndValue;
-						if (Math.abs(t) > 1e-6) {
-							t = edgeStartValue / t;
+						int mask = 0;
+						if (binaryField != null) {
+							final int index = (fieldSizeX * fieldSizeY * z) + (fieldSizeX * y) + x;
+							mask = binaryField.outsideMask(index);
+							// Reused vertices don't need the densities, unless they're needed for the normal
+							if (seam == null || normals)
+								binaryField.getCorners(index, grid);
 						} else {
-							continue;
+							int corner = 0;
+							for (int cornerZ = 0; cornerZ < 2; ++cornerZ)
+								for (int cornerY = 0; cornerY < 2; ++cornerY)
+									for (byte cornerX = 0; cornerX < 2; ++cornerX, ++corner) {
+										// Same as ModUtil.get3dIndexInto1dArray, inlined so that this doesn't load any Minecraft classes
+										int index = (fieldSizeX * fieldSizeY * (z + cornerZ)) + (fieldSizeX * (y + cornerY)) + (x + cornerX);
+										float density = densityField[index];
+										grid[corner] = density;
+										mask |= (density < 0) ? (1 << corner) : 0;
+									}
 						}
 
-						//Interpolate vertices and add up intersections (this can be done without multiplying)
-						for (int j = 0, k = 1; j < 3; ++j, k <<= 1) {
-							final int a = edgeStart & k;
-							final int b = edgeEnd & k;
-							if (a != b) {
-								vertex[j] += a != 0 ? 1F - t : t;
+						// Sum up edge intersections
+						int edge_mask = EDGE_TABLE[mask];
+						vertex[0] = vertex[1] = vertex[2] = 0;
+						int edgeCrossings = 0;
+
+						// For every edge of the cube...
+						for (int edge = 0; edge < 12 && seam == null; ++edge) {
+
+							//Use edge mask to check if it is crossed
+							if ((edge_mask & (1 << edge)) == 0)
+								continue;
+
+							//If it did, increment number of edge crossings
+							++edgeCrossings;
+
+							//Now find the point of intersection
+							//Unpack vertices
+							// These are vertices packed (x, y, z) -> zyx
+							// They are also the indices of which corner the vertex is for
+							final int edgeStart = CUBE_EDGES[edge << 1];
+							final int edgeEnd = CUBE_EDGES[(edge << 1) + 1];
+							//Unpack grid values
+							final float edgeStartValue = grid[edgeStart];
+							final float edgeEndValue = grid[edgeEnd];
+	//						//Compute point of intersection (the point where the isosurface is and the vertex is)
+	//						float t = edgeStartValue - edgeEndValue;
+	//						vertex.add(
+	//							(edgeStart & 0b001) * (1.0 - t) + (edgeEnd & 0b001) * t,
+	//							(edgeStart & 0b010) * (1.0 - t) + (edgeEnd & 0b010) * t,
+	//							(edgeStart & 0b100) * (1.0 - t) + (edgeEnd & 0b100) * t
+	//						);
+							//Compute point of intersection
+							float t = edgeStartValue - edgeEndValue;
+							if (Math.abs(t) > 1e-6) {
+								t = edgeStartValue / t;
 							} else {
-								vertex[j] += a != 0 ? 1F : 0;
+								continue;
+							}
+
+							//Interpolate vertices and add up intersections (this can be done without multiplying)
+							for (int j = 0, k = 1; j < 3; ++j, k <<= 1) {
+								final int a = edgeStart & k;
+								final int b = edgeEnd & k;
+								if (a != b) {
+									vertex[j] += a != 0 ? 1F - t : t;
+								} else {
+									vertex[j] += a != 0 ? 1F : 0;
+								}
 							}
 						}
-					}
 
-					//Now we just average the edge intersections and add them to coordinate
-					// 1.0F = isosurfaceLevel
-					float s = 1.0F / edgeCrossings;
-					vertex[0] = -0.5 + 0 + x + s * vertex[0];
-					vertex[1] = -0.5 + 0 + y + s * vertex[1];
-					vertex[2] = -0.5 + 0 + z + s * vertex[2];
-//					vertex.multiply(s);
-//					vertex.add(
-//						x + 0.5 - MESH_SIZE_NEGATIVE_EXTENSION,
-//						y + 0.5 - MESH_SIZE_NEGATIVE_EXTENSION,
-//						z + 0.5 - MESH_SIZE_NEGATIVE_EXTENSION
-//					);
-
-//					Vec fromPreviousPreviousSlice = verticesBuffer[bufferPointer];
-//					if (fromPreviousPreviousSlice != null)
-//						fromPreviousPreviousSlice.close();
-//					//Add vertex to buffer
-//					verticesBuffer[bufferPointer] = vertex;
-					verticesBuffer[bufferPointer] = vertices.size();
-					vertices.add(vertex);
-
-					//Now we need to add faces together, to do this we just loop over 3 basis components
-					for (int axis = 0; axis < 3; ++axis) {
-						//The first three entries of the edge_mask count the crossings along the edge
-						if ((edge_mask & (1 << axis)) == 0) {
-							continue;
+						if (seam != null)
+							seam.getOffset(seamPosition, vertex);
+						else {
+							//Now we just average the edge intersections
+							// 1.0F = isosurfaceLevel
+							float s = 1.0F / edgeCrossings;
+							vertex[0] = s * vertex[0];
+							vertex[1] = s * vertex[1];
+							vertex[2] = s * vertex[2];
+						}
+						// The cells on the last layer along an axis are the first layer of the field after this one on that axis
+						if (recordX != null && x == meshSizeX - 1)
+							recordX.add(vertex[0], vertex[1], vertex[2]);
+						if (recordY != null && y == meshSizeY - 1)
+							recordY.add(vertex[0], vertex[1], vertex[2]);
+						if (recordZ != null && z == meshSizeZ - 1)
+							recordZ.add(vertex[0], vertex[1], vertex[2]);
+						if (normals)
+							assignNormalTo(grid, vertex, normal);
+						// Add them to the coordinate
+						vertex[0] = -0.5 + 0 + (originX + x) + vertex[0];
+						vertex[1] = -0.5 + 0 + (originY + y) + vertex[1];
+						vertex[2] = -0.5 + 0 + (originZ + z) + vertex[2];
+	//					vertex.multiply(s);
+	//					vertex.add(
+	//						x + 0.5 - MESH_SIZE_NEGATIVE_EXTENSION,
+	//						y + 0.5 - MESH_SIZE_NEGATIVE_EXTENSION,
+	//						z + 0.5 - MESH_SIZE_NEGATIVE_EXTENSION
+	//					);
+
+	//					Vec fromPreviousPreviousSlice = verticesBuffer[bufferPointer];
+	//					if (fromPreviousPreviousSlice != null)
+	//						fromPreviousPreviousSlice.close();
+	//					//Add vertex to buffer
+	//					verticesBuffer[bufferPointer] = vertex;
+						if (buffer != null)
+							verticesBuffer[bufferPointer] = normals
+								? buffer.addVertex((float) vertex[0], (float) vertex[1], (float) vertex[2], normal[0], normal[1], normal[2])
+								: buffer.addVertex((float) vertex[0], (float) vertex[1], (float) vertex[2]);
+						else {
+							if ((vertexCount + 1) * 3 > vertices.length)
+								scratch.vertices = vertices = Arrays.copyOf(vertices, vertices.length * 2);
+							vertices[vertexCount * 3] = vertex[0];
+							vertices[vertexCount * 3 + 1] = vertex[1];
+							vertices[vertexCount * 3 + 2] = vertex[2];
+							verticesBuffer[bufferPointer] = vertexCount++;
 						}
 
-						// axis = axes we are point along.  nextAxis, nextNextAxis = orthogonal axes
-						final int nextAxis = (axis + 1) % 3;
-						final int nextNextAxis = (axis + 2) % 3;
-
-						// If we are on a boundary, skip it
-						if ((nextAxis == 0 && x == 0) || (nextAxis == 1 && y == 0) || (nextAxis == 2 && z == 0))
-							continue;
-						else if ((nextNextAxis == 0 && x == 0) || (nextNextAxis == 1 && y == 0) || (nextNextAxis == 2 && z == 0))
-							continue;
-
-						//Otherwise, look up adjacent edges in buffer
-						final int du = axisMultipliers[nextAxis];
-						final int dv = axisMultipliers[nextNextAxis];
-
-						//Remember to flip orientation depending on the sign of the corner.
-						if ((mask & 1) != 0) {
-							face.v0.copyFrom(vertices.get(verticesBuffer[bufferPointer]));
-							face.v1.copyFrom(vertices.get(verticesBuffer[bufferPointer - dv]));
-							face.v2.copyFrom(vertices.get(verticesBuffer[bufferPointer - du - dv]));
-							face.v3.copyFrom(vertices.get(verticesBuffer[bufferPointer - du]));
-						} else {
-							face.v0.copyFrom(vertices.get(verticesBuffer[bufferPointer]));
-							face.v1.copyFrom(vertices.get(verticesBuffer[bufferPointer - du]));
-							face.v2.copyFrom(vertices.get(verticesBuffer[bufferPointer - du - dv]));
-							face.v3.copyFrom(vertices.get(verticesBuffer[bufferPointer - dv]));
+						//Now we need to add faces together, to do this we just loop over 3 basis components
+						for (int axis = 0; axis < 3; ++axis) {
+							//The first three entries of the edge_mask count the crossings along the edge
+							if ((edge_mask & (1 << axis)) == 0) {
+								continue;
+							}
+
+							// axis = axes we are point along.  nextAxis, nextNextAxis = orthogonal axes
+							final int nextAxis = (axis + 1) % 3;
+							final int nextNextAxis = (axis + 2) % 3;
+
+							// If we are on a boundary, skip it
+							if ((nextAxis == 0 && x == 0) || (nextAxis == 1 && y == 0) || (nextAxis == 2 && z == 0))
+								continue;
+							else if ((nextNextAxis == 0 && x == 0) || (nextNextAxis == 1 && y == 0) || (nextNextAxis == 2 && z == 0))
+								continue;
+
+							//Otherwise, look up adjacent edges in buffer
+							final int du = axisMultipliers[nextAxis];
+							final int dv = axisMultipliers[nextNextAxis];
+
+							final int v0 = verticesBuffer[bufferPointer];
+							final int v2 = verticesBuffer[bufferPointer - du - dv];
+							final int v1;
+							final int v3;
+							//Remember to flip orientation depending on the sign of the corner.
+							if ((mask & 1) != 0) {
+								v1 = verticesBuffer[bufferPointer - dv];
+								v3 = verticesBuffer[bufferPointer - du];
+							} else {
+								v1 = verticesBuffer[bufferPointer - du];
+								v3 = verticesBuffer[bufferPointer - dv];
+							}
+							if (buffer != null) {
+								buffer.addQuad(v0, v1, v2, v3, originX + x - MESH_SIZE_NEGATIVE_EXTENSION, originY + y - MESH_SIZE_NEGATIVE_EXTENSION, originZ + z - MESH_SIZE_NEGATIVE_EXTENSION);
+								continue;
+							}
+							assignVertexTo(vertices, v0, face.v0);
+							assignVertexTo(vertices, v1, face.v1);
+							assignVertexTo(vertices, v2, face.v2);
+							assignVertexTo(vertices, v3, face.v3);
+							if (!action.apply(x, y, z, face))
+								return;
 						}
-						pos.setPos(worldXStart, worldYStart, worldZStart);
-						pos.move(x, y, z);
-						if (!action.apply(pos, face))
-							return;
 					}
 				}
 			}
 		}
 	}
 
-	public interface MeshAction {
+	/**
+	 * Works out the normal of the surface at the vertex from the gradient of the density field.
+	 * The gradient is the central difference across the cell, interpolated to where the vertex is in it.
+	 * Only the cell's own 8 corners are used so both sections that have a cell on their seam give its vertex the same normal.
+	 * Density is positive inside the surface so the normal (which faces out) is the negative of the gradient.
+	 *
+	 * @param grid   The densities at the corners of the cell
+	 * @param offset The position of the vertex in the cell, from 0 to 1 on each axis
+	 * @param normal The normalised normal gets put in here, zero if the gradient is too
+	 */
+	private static void assignNormalTo(float[] grid, double[] offset, float[] normal) {
+		final float u = (float) offset[0];
+		final float v = (float) offset[1];
+		final float w = (float) offset[2];
+		// Corners are packed (x, y, z) -> zyx
+		final float x = (1 - v) * (1 - w) * (grid[1] - grid[0]) + v * (1 - w) * (grid[3] - grid[2]) + (1 - v) * w * (grid[5] - grid[4]) + v * w * (grid[7] - grid[6]);
+		final float y = (1 - u) * (1 - w) * (grid[2] - grid[0]) + u * (1 - w) * (grid[3] - grid[1]) + (1 - u) * w * (grid[6] - grid[4]) + u * w * (grid[7] - grid[5]);
+		final float z = (1 - u) * (1 - v) * (grid[4] - grid[0]) + u * (1 - v) * (grid[5] - grid[1]) + (1 - u) * v * (grid[6] - grid[2]) + u * v * (grid[7] - grid[3]);
+		final float length = (float) Math.sqrt(x * x + y * y + z * z);
+		if (length < 0.0001F) {
+			normal[0] = normal[1] = normal[2] = 0;
+			return;
+		}
+		normal[0] = -x / length;
+		normal[1] = -y / length;
+		normal[2] = -z / length;
+	}
 
-		boolean apply(BlockPos.Mutable pos, Face face);
+	private static void assignVertexTo(double[] vertices, int vertex, Vec vec) {
+		vec.x = vertices[vertex * 3];
+		vec.y = vertices[vertex * 3 + 1];
+		vec.z = vertices[vertex * 3 + 2];
+	}
+
+	private static SeamVertices getMatchingSeam(SeamVertices[] seams, int axis, BinaryDensityField binaryField) {
+		if (seams == null || seams[axis] == null || !seams[axis].matches(binaryField))
+			return null;
+		return seams[axis];
+	}
 
+	/**
+	 * @return Bit i is set if the point at index + i is inside the isosurface (the opposite of the check for the mask), count must be at most 64
+	 */
+	private static long insideBits(float[] densityField, BinaryDensityField binaryField, int index, int count) {
+		if (binaryField != null)
+			return binaryField.insideBits(index, count);
+		long bits = 0;
+		for (int i = 0; i < count; ++i)
+			if (!(densityField[index + i] < 0))
+				bits |= 1L << i;
+		return bits;
 	}
 
 	static final class Lookup {
@@ -0,0 +1,55 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import io.github.cadiboo.nocubes.mesh.MeshGenerator.FaceAction;
+import io.github.cadiboo.nocubes.mesh.MeshGenerator.MeshAction;
+import io.github.cadiboo.nocubes.util.Face;
+import io.github.cadiboo.nocubes.util.ReusableCache;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Turns the field positions a {@link FaceAction} gets into world positions for a {@link MeshAction}.
+ * Reused (per thread) instead of a new lambda and {@link BlockPos.Mutable} being made every time a mesh is generated.
+ *
+ * @author Cadiboo
+ */
+final class WorldFaceAction implements FaceAction {
+
+	private static final ReusableCache<WorldFaceAction> CACHE = new ReusableCache.Local<>();
+	/** For filling density fields, filling a field never fills another one on the same thread so they can share it. */
+	static final ReusableCache<BlockPos.Mutable> FILL_POSITIONS = new ReusableCache.Local<>();
+
+	final BlockPos.Mutable pos = new BlockPos.Mutable();
+	private boolean inUse;
+	private int worldXStart;
+	private int worldYStart;
+	private int worldZStart;
+	private MeshAction action;
+
+	/**
+	 * Needs to be {@link #release released} when the mesh is done.
+	 */
+	static WorldFaceAction acquire(int worldXStart, int worldYStart, int worldZStart, MeshAction action) {
+		WorldFaceAction cached = CACHE.getOrCreate(WorldFaceAction::new);
+		// An action that generates another mesh (on the same thread) needs its own one
+		if (cached.inUse)
+			cached = new WorldFaceAction();
+		cached.inUse = true;
+		cached.worldXStart = worldXStart;
+		cached.worldYStart = worldYStart;
+		cached.worldZStart = worldZStart;
+		cached.action = action;
+		return cached;
+	}
+
+	void release() {
+		action = null;
+		inUse = false;
+	}
+
+	@Override
+	public boolean apply(int x, int y, int z, Face face) {
+		pos.setPos(worldXStart + x, worldYStart + y, worldZStart + z);
+		return action.apply(pos, face);
+	}
+
+}
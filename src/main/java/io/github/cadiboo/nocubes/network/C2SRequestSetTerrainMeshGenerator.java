@@ -0,0 +1,61 @@
+package io.github.cadiboo.nocubes.network;
+
+import io.github.cadiboo.nocubes.NoCubes;
+import io.github.cadiboo.nocubes.config.NoCubesConfig;
+import io.github.cadiboo.nocubes.mesh.MeshGenerator;
+import io.github.cadiboo.nocubes.mesh.MeshGenerators;
+import io.github.cadiboo.nocubes.smoothable.ServerSmoothableChangeHandler;
+import net.minecraft.entity.player.ServerPlayerEntity;
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.Util;
+import net.minecraft.util.text.TranslationTextComponent;
+import net.minecraftforge.fml.network.NetworkEvent;
+import net.minecraftforge.fml.network.PacketDistributor;
+
+import java.util.function.Supplier;
+
+/**
+ * @author Cadiboo
+ */
+public class C2SRequestSetTerrainMeshGenerator {
+
+	/**
+	 * Null if the client sent a generator that isn't registered on the server.
+	 */
+	private final MeshGenerator generator;
+
+	public C2SRequestSetTerrainMeshGenerator(final MeshGenerator generator) {
+		this.generator = generator;
+	}
+
+	public static C2SRequestSetTerrainMeshGenerator decode(PacketBuffer buffer) {
+		return new C2SRequestSetTerrainMeshGenerator(MeshGenerators.get(buffer.readString(Short.MAX_VALUE)));
+	}
+
+	public static void encode(C2SRequestSetTerrainMeshGenerator msg, PacketBuffer buffer) {
+		buffer.writeString(MeshGenerators.getName(msg.generator));
+	}
+
+	public static void handle(final C2SRequestSetTerrainMeshGenerator msg, final Supplier<NetworkEvent.Context> contextSupplier) {
+		NetworkEvent.Context ctx = contextSupplier.get();
+		ServerPlayerEntity sender = ctx.getSender();
+		boolean hasPermission = sender.hasPermissionLevel(ServerSmoothableChangeHandler.REQUIRED_PERMISSION_LEVEL);
+		if (hasPermission) {
+			MeshGenerator generator = msg.generator;
+			if (generator != null && NoCubesConfig.Server.meshGenerator != generator) {
+				ctx.enqueueWork(() -> {
+					NoCubesConfig.Server.updateMeshGenerator(generator);
+					// Send back update to all clients
+					NoCubesNetwork.CHANNEL.send(PacketDistributor.ALL.noArg(), new S2CSetTerrainMeshGenerator(generator));
+				});
+			}
+		} else
+			sender.sendMessage(new TranslationTextComponent(NoCubes.MOD_ID + ".setMeshGeneratorNoPermission"), Util.DUMMY_UUID);
+		ctx.setPacketHandled(true);
+	}
+
+	public MeshGenerator getGenerator() {
+		return generator;
+	}
+
+}
@@ -14,7 +14,7 @@ import static io.github.cadiboo.nocubes.NoCubes.MOD_ID;
  */
 public final class NoCubesNetwork {
 
-	private static final String NETWORK_PROTOCOL_VERSION = "1";
+	private static final String NETWORK_PROTOCOL_VERSION = "2";
 	/**
 	 * Only valid when connected to a server on the client.
 	 * Contains random values from the most recently pinged server otherwise.
@@ -60,12 +60,12 @@ public final class NoCubesNetwork {
 //			C2SRequestSetExtendFluidsRange::decode,
 //			C2SRequestSetExtendFluidsRange::handle
 //		);
-//		CHANNEL.registerMessage(networkId++,
-//			C2SRequestSetTerrainMeshGenerator.class,
-//			C2SRequestSetTerrainMeshGenerator::encode,
-//			C2SRequestSetTerrainMeshGenerator::decode,
-//			C2SRequestSetTerrainMeshGenerator::handle
-//		);
+		CHANNEL.registerMessage(networkId++,
+			C2SRequestSetTerrainMeshGenerator.class,
+			C2SRequestSetTerrainMeshGenerator::encode,
+			C2SRequestSetTerrainMeshGenerator::decode,
+			C2SRequestSetTerrainMeshGenerator::handle
+		);
 
 		// Server -> Client
 		CHANNEL.registerMessage(networkId++,
@@ -86,12 +86,12 @@ public final class NoCubesNetwork {
 //			S2CSetExtendFluidsRange::decode,
 //			S2CSetExtendFluidsRange::handle
 //		);
-//		CHANNEL.registerMessage(networkId++,
-//			S2CSetTerrainMeshGenerator.class,
-//			S2CSetTerrainMeshGenerator::encode,
-//			S2CSetTerrainMeshGenerator::decode,
-//			S2CSetTerrainMeshGenerator::handle
-//		);
+		CHANNEL.registerMessage(networkId++,
+			S2CSetTerrainMeshGenerator.class,
+			S2CSetTerrainMeshGenerator::encode,
+			S2CSetTerrainMeshGenerator::decode,
+			S2CSetTerrainMeshGenerator::handle
+		);
 	}
 
 }
@@ -0,0 +1,52 @@
+package io.github.cadiboo.nocubes.network;
+
+import io.github.cadiboo.nocubes.client.KeybindHandler;
+import io.github.cadiboo.nocubes.config.NoCubesConfig;
+import io.github.cadiboo.nocubes.mesh.MeshGenerator;
+import io.github.cadiboo.nocubes.mesh.MeshGenerators;
+import net.minecraft.client.Minecraft;
+import net.minecraft.network.PacketBuffer;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.fml.DistExecutor;
+import net.minecraftforge.fml.network.NetworkEvent;
+
+import java.util.function.Supplier;
+
+/**
+ * @author Cadiboo
+ */
+public class S2CSetTerrainMeshGenerator {
+
+	private final MeshGenerator generator;
+
+	public S2CSetTerrainMeshGenerator(final MeshGenerator generator) {
+		this.generator = generator;
+	}
+
+	public static S2CSetTerrainMeshGenerator decode(PacketBuffer buffer) {
+		final String name = buffer.readString(Short.MAX_VALUE);
+		final MeshGenerator generator = MeshGenerators.get(name);
+		// Shouldn't happen, the server only sends generators it has registered and the client has the same version of NoCubes
+		if (generator == null)
+			throw new IllegalStateException("Unknown mesh generator " + name);
+		return new S2CSetTerrainMeshGenerator(generator);
+	}
+
+	public static void encode(S2CSetTerrainMeshGenerator msg, PacketBuffer buffer) {
+		buffer.writeString(MeshGenerators.getName(msg.generator));
+	}
+
+	public static void handle(final S2CSetTerrainMeshGenerator msg, final Supplier<NetworkEvent.Context> contextSupplier) {
+		final NetworkEvent.Context ctx = contextSupplier.get();
+		ctx.enqueueWork(() -> {
+			NoCubesConfig.Server.meshGenerator = msg.generator;
+			DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> () -> KeybindHandler.reloadAllChunks(Minecraft.getInstance()));
+		});
+		ctx.setPacketHandled(true);
+	}
+
+	public MeshGenerator getGenerator() {
+		return generator;
+	}
+
+}
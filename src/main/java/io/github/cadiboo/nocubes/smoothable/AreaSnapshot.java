@@ -0,0 +1,150 @@
+package io.github.cadiboo.nocubes.smoothable;
+
+import io.github.cadiboo.nocubes.mesh.BinaryDensityField;
+import net.minecraft.block.Blocks;
+import net.minecraft.world.IWorldReader;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.chunk.IChunk;
+
+import javax.annotation.Nullable;
+
+import static io.github.cadiboo.nocubes.util.ModUtil.get3dIndexInto1dArray;
+
+/**
+ * The {@link SectionDensities} of a box of sections, taken on the main thread so that another thread can fill density fields from it
+ * without reading the live world (which the main thread might be changing) and without any locks.
+ * Taking one is cheap, it only holds references: the densities never change once they're made (setting a block makes a copy),
+ * so the ones of sections that haven't changed since they were last read are shared with the section and every other snapshot.
+ *
+ * @author Cadiboo
+ */
+public final class AreaSnapshot {
+
+	private final int minSectionX;
+	private final int minSectionY;
+	private final int minSectionZ;
+	private final int sizeX;
+	private final int sizeY;
+	private final int sizeZ;
+	/** Indexed [z][y][x], null for missing and empty sections (they're all air). */
+	private final SectionDensities[] sections;
+	/** The {@link SmoothableCounts#getVersion} when the snapshot was taken, fields filled from a snapshot are for this version. */
+	public final int smoothableVersion;
+	private boolean anySmoothables;
+
+	private AreaSnapshot(int minSectionX, int minSectionY, int minSectionZ, int sizeX, int sizeY, int sizeZ, int smoothableVersion) {
+		this.minSectionX = minSectionX;
+		this.minSectionY = minSectionY;
+		this.minSectionZ = minSectionZ;
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		this.sizeZ = sizeZ;
+		this.sections = new SectionDensities[sizeX * sizeY * sizeZ];
+		this.smoothableVersion = smoothableVersion;
+	}
+
+	/**
+	 * Needs to be called on the main thread.
+	 * Section coordinates are inclusive, missing chunks and sections out of the world are snapshotted as air.
+	 */
+	public static AreaSnapshot take(IWorldReader world, int minSectionX, int minSectionY, int minSectionZ, int maxSectionX, int maxSectionY, int maxSectionZ) {
+		final AreaSnapshot snapshot = new AreaSnapshot(
+			minSectionX, minSectionY, minSectionZ,
+			maxSectionX - minSectionX + 1, maxSectionY - minSectionY + 1, maxSectionZ - minSectionZ + 1,
+			SmoothableCounts.getVersion()
+		);
+		final boolean airIsSmoothable = StateProperties.get().getDensity(Blocks.AIR.getDefaultState()) >= 0;
+		for (int sectionZ = minSectionZ; sectionZ <= maxSectionZ; ++sectionZ) {
+			for (int sectionX = minSectionX; sectionX <= maxSectionX; ++sectionX) {
+				@Nullable
+				final IChunk chunk = world.getChunk(sectionX, sectionZ, ChunkStatus.EMPTY, false);
+				@Nullable
+				final ChunkSection[] chunkSections = chunk == null ? null : chunk.getSections();
+				for (int sectionY = minSectionY; sectionY <= maxSectionY; ++sectionY) {
+					@Nullable
+					final ChunkSection section = chunkSections == null || sectionY < 0 || sectionY >= chunkSections.length ? null : chunkSections[sectionY];
+					final SectionDensities densities;
+					if (ChunkSection.isEmpty(section))
+						densities = null;
+					else if (SmoothableCounts.getOrRecount(section) == 0)
+						densities = SectionDensities.NONE;
+					else
+						densities = SectionDensities.get(section);
+					snapshot.sections[get3dIndexInto1dArray(sectionX - minSectionX, sectionY - minSectionY, sectionZ - minSectionZ, snapshot.sizeX, snapshot.sizeY)] = densities;
+					snapshot.anySmoothables |= densities == null ? airIsSmoothable : densities != SectionDensities.NONE;
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @return If anything in the snapshot is smoothable, a field filled from one that isn't would be entirely outside the isosurface
+	 */
+	public boolean anySmoothables() {
+		return anySmoothables;
+	}
+
+	/**
+	 * Same as {@link io.github.cadiboo.nocubes.util.ModUtil#fillDensityField} with {@link SectionDensities#IS_SMOOTHABLE} but reads the snapshot instead of the world.
+	 * The field needs to have been {@link BinaryDensityField#reset} to the size of the area, any of the area outside the snapshot is air.
+	 * Can be called from any thread.
+	 */
+	public void fillDensityField(int startX, int startY, int startZ, BinaryDensityField field) {
+		final float airDensity = StateProperties.get().getDensity(Blocks.AIR.getDefaultState());
+		final int fieldSizeX = field.sizeX;
+		final int fieldSizeY = field.sizeY;
+		final int endX = startX + fieldSizeX;
+		final int endY = startY + fieldSizeY;
+		final int endZ = startZ + field.sizeZ;
+		for (int chunkZ = startZ >> 4; chunkZ <= (endZ - 1) >> 4; ++chunkZ) {
+			final int minZ = Math.max(startZ, chunkZ << 4);
+			final int maxZ = Math.min(endZ, (chunkZ + 1) << 4);
+			for (int chunkX = startX >> 4; chunkX <= (endX - 1) >> 4; ++chunkX) {
+				final int minX = Math.max(startX, chunkX << 4);
+				final int maxX = Math.min(endX, (chunkX + 1) << 4);
+				final int rowLength = maxX - minX;
+				final int rowMask = (1 << rowLength) - 1;
+				final int rowStart = minX & 15;
+				for (int sectionY = startY >> 4; sectionY <= (endY - 1) >> 4; ++sectionY) {
+					final int minY = Math.max(startY, sectionY << 4);
+					final int maxY = Math.min(endY, (sectionY + 1) << 4);
+					@Nullable
+					final SectionDensities densities = get(chunkX, sectionY, chunkZ);
+					if (densities == SectionDensities.NONE)
+						// The field starts out as -1
+						continue;
+					if (densities == null) {
+						if (airDensity >= 0)
+							for (int z = minZ; z < maxZ; ++z)
+								for (int y = minY; y < maxY; ++y)
+									field.setInsideBits(get3dIndexInto1dArray(minX - startX, y - startY, z - startZ, fieldSizeX, fieldSizeY), -1L, rowLength);
+						continue;
+					}
+					for (int z = minZ; z < maxZ; ++z)
+						for (int y = minY; y < maxY; ++y) {
+							final int index = get3dIndexInto1dArray(minX - startX, y - startY, z - startZ, fieldSizeX, fieldSizeY);
+							field.setInsideBits(index, densities.getRow(y & 15, z & 15) >>> rowStart, rowLength);
+							// Snow layers etc.
+							for (int overrides = (densities.getOverrideRow(y & 15, z & 15) >>> rowStart) & rowMask; overrides != 0; overrides &= overrides - 1) {
+								final int i = Integer.numberOfTrailingZeros(overrides);
+								field.set(index + i, densities.get(rowStart + i, y & 15, z & 15));
+							}
+						}
+				}
+			}
+		}
+	}
+
+	@Nullable
+	private SectionDensities get(int sectionX, int sectionY, int sectionZ) {
+		final int x = sectionX - minSectionX;
+		final int y = sectionY - minSectionY;
+		final int z = sectionZ - minSectionZ;
+		if (x < 0 || x >= sizeX || y < 0 || y >= sizeY || z < 0 || z >= sizeZ)
+			return null;
+		return sections[get3dIndexInto1dArray(x, y, z, sizeX, sizeY)];
+	}
+
+}
@@ -0,0 +1,208 @@
+package io.github.cadiboo.nocubes.smoothable;
+
+import io.github.cadiboo.nocubes.NoCubes;
+import io.github.cadiboo.nocubes.util.PackedArrays;
+import io.github.cadiboo.nocubes.util.ReusableCache;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.BitArray;
+import net.minecraft.util.palette.IPalette;
+import net.minecraft.util.palette.PalettedContainer;
+import net.minecraft.world.chunk.ChunkSection;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Predicate;
+
+/**
+ * The densities of the blocks in a {@link ChunkSection}, cached on the section (in an ASM-added field)
+ * so that neighbouring meshes, collisions and the overlays don't all re-read and re-check the same blocks.
+ * Stores 1 bit per block like {@link io.github.cadiboo.nocubes.mesh.BinaryDensityField},
+ * indexed like the section's palette ([y][z][x]) so that each row of 16 blocks along x is 16 consecutive bits.
+ * <p>
+ * Kept up to date when blocks are set, thrown away when the section's blocks get replaced
+ * and worked out again when what is smoothable changes.
+ * <p>
+ * Never changes once it's made (setting a block makes a copy) so other threads can read it while the main thread sets blocks.
+ * Each one is stamped with the section's {@link ChunkSection#nocubes_blockChanges} that it was read at and is only used while that still matches,
+ * so one worked out while a block was being set (and possibly missing it) never gets used.
+ *
+ * @author Cadiboo
+ */
+public final class SectionDensities {
+
+	/**
+	 * Fields filled with this predicate can use the cached densities, the cache is always for the current smoothables.
+	 */
+	public static final Predicate<BlockState> IS_SMOOTHABLE = state -> NoCubes.smoothableHandler.isSmoothable(state);
+	/** Sections with more bits than this use the registry palette instead of their own one. */
+	public static final int MAX_PALETTE_BITS = 8;
+	private static final ReusableCache<float[]> PALETTE_DENSITIES = new ReusableCache.Local<>();
+	private static final ReusableCache<float[]> DENSITIES = new ReusableCache.Local<>();
+	/** For sections without smoothables, every block has a density of -1. Never cached on a section. */
+	static final SectionDensities NONE = new SectionDensities(-1, -1, new long[64]);
+	private static final AtomicReferenceFieldUpdater<ChunkSection, SectionDensities> CACHED = AtomicReferenceFieldUpdater.newUpdater(ChunkSection.class, SectionDensities.class, "nocubes_densities");
+
+	private final int smoothableVersion;
+	/** The section's {@link ChunkSection#nocubes_blockChanges} when its blocks were read. */
+	private final int blockChanges;
+	/** A set bit means the density of the block is not negative. */
+	private final long[] inside;
+	// The densities that aren't +1 or -1 (e.g. snow layers), null if there aren't any
+	// The values are in index order, overridesBefore[i] is the number of values for the longs before i
+	@Nullable
+	private long[] hasOverride;
+	@Nullable
+	private float[] overrides;
+	@Nullable
+	private int[] overridesBefore;
+
+	private SectionDensities(int smoothableVersion, int blockChanges, long[] inside) {
+		this.smoothableVersion = smoothableVersion;
+		this.blockChanges = blockChanges;
+		this.inside = inside;
+	}
+
+	/**
+	 * Can be called from any thread.
+	 */
+	public static SectionDensities get(ChunkSection section) {
+		final int version = SmoothableCounts.getVersion();
+		// Read before the densities and the blocks, a block set after this makes them stale
+		final int blockChanges = section.nocubes_blockChanges;
+		final SectionDensities densities = section.nocubes_densities;
+		if (densities != null && densities.smoothableVersion == version && densities.blockChanges == blockChanges)
+			return densities;
+		final SectionDensities fresh = compute(section, version, blockChanges);
+		// Don't replace one that another thread (or a block being set) put there in the meantime
+		if (CACHED.compareAndSet(section, densities, fresh) && section.nocubes_blockChanges != blockChanges)
+			// A block got set while we were reading the section, it isn't used anyway (its stamp is old) but don't keep it around
+			CACHED.compareAndSet(section, fresh, null);
+		return fresh;
+	}
+
+	/**
+	 * Called when the blocks of a section get replaced without going through setBlockState (e.g. chunk loading).
+	 */
+	public static void invalidate(ChunkSection section) {
+		++section.nocubes_blockChanges;
+		section.nocubes_densities = null;
+	}
+
+	/**
+	 * Called on the main thread after a block is set.
+	 */
+	public static void onSetBlockState(ChunkSection section, int x, int y, int z, BlockState newState) {
+		// Only written by the thread that sets the blocks, no need for an atomic increment
+		final int blockChanges = section.nocubes_blockChanges;
+		section.nocubes_blockChanges = blockChanges + 1;
+		final SectionDensities densities = section.nocubes_densities;
+		final SmoothableHandler handler = NoCubes.smoothableHandler;
+		if (densities == null || handler == null)
+			return;
+		final StateProperties properties = StateProperties.get();
+		if (densities.blockChanges != blockChanges || densities.smoothableVersion != SmoothableCounts.getVersion()) {
+			// Missed a change (it was worked out while a block was being set) or for old smoothables, can't be brought up to date
+			CACHED.compareAndSet(section, densities, null);
+			return;
+		}
+		final float density = properties.getDensity(newState);
+		final int index = (y << 8) | (z << 4) | x;
+		if (density != 1 && density != -1 || densities.hasOverride(index)) {
+			// Rare (snow), just work everything out again when it's next needed
+			CACHED.compareAndSet(section, densities, null);
+			return;
+		}
+		// Copied instead of changed in place, other threads might be reading it
+		final long[] inside = densities.inside.clone();
+		if (density >= 0)
+			inside[index >>> 6] |= 1L << index;
+		else
+			inside[index >>> 6] &= ~(1L << index);
+		final SectionDensities updated = new SectionDensities(densities.smoothableVersion, blockChanges + 1, inside);
+		updated.hasOverride = densities.hasOverride;
+		updated.overrides = densities.overrides;
+		updated.overridesBefore = densities.overridesBefore;
+		CACHED.compareAndSet(section, densities, updated);
+	}
+
+	/**
+	 * @return The inside bits of the row of 16 blocks at the y and z (relative to the section), bit 0 is x = 0
+	 */
+	public int getRow(int y, int z) {
+		return (int) (inside[(y << 2) | (z >>> 2)] >>> ((z & 3) << 4)) & 0xFFFF;
+	}
+
+	/**
+	 * @return Which blocks in the row have a density that isn't +1 or -1, the same bit layout as {@link #getRow}
+	 */
+	public int getOverrideRow(int y, int z) {
+		final long[] hasOverride = this.hasOverride;
+		return hasOverride == null ? 0 : (int) (hasOverride[(y << 2) | (z >>> 2)] >>> ((z & 3) << 4)) & 0xFFFF;
+	}
+
+	/**
+	 * Coordinates are relative to the section.
+	 */
+	public float get(int x, int y, int z) {
+		final int index = (y << 8) | (z << 4) | x;
+		final int word = index >>> 6;
+		if (hasOverride(index))
+			return overrides[overridesBefore[word] + Long.bitCount(hasOverride[word] & ((1L << index) - 1))];
+		return (inside[word] & (1L << index)) != 0 ? 1 : -1;
+	}
+
+	private boolean hasOverride(int index) {
+		return hasOverride != null && (hasOverride[index >>> 6] & (1L << index)) != 0;
+	}
+
+	private static SectionDensities compute(ChunkSection section, int version, int blockChanges) {
+		final SectionDensities densities = new SectionDensities(version, blockChanges, new long[64]);
+		final StateProperties properties = StateProperties.get();
+		final float[] values = DENSITIES.getOrCreate(() -> new float[4096]);
+		final PalettedContainer<BlockState> data = section.getData();
+		// Only read these once, another thread might resize the palette while we're working
+		final BitArray storage = data.storage;
+		final IPalette<BlockState> palette = data.palette;
+		final int bits = storage.bitsPerEntry;
+		if (bits > MAX_PALETTE_BITS)
+			// Using the registry palette, the entries are state ids so the table is the palette's densities
+			PackedArrays.expand(storage.getBackingLongArray(), bits, 0, 4096, properties.densities, values, 0);
+		else {
+			final float airDensity = properties.getDensity(Blocks.AIR.getDefaultState());
+			final float[] paletteDensities = PALETTE_DENSITIES.getOrCreate(() -> new float[1 << MAX_PALETTE_BITS]);
+			for (int id = 0, paletteSize = 1 << bits; id < paletteSize; ++id) {
+				@Nullable
+				final BlockState state = palette.get(id);
+				paletteDensities[id] = state == null ? airDensity : properties.getDensity(state);
+			}
+			PackedArrays.expand(storage.getBackingLongArray(), bits, 0, 4096, paletteDensities, values, 0);
+		}
+
+		int overrideCount = 0;
+		for (int index = 0; index < 4096; ++index) {
+			final float density = values[index];
+			if (density >= 0)
+				densities.inside[index >>> 6] |= 1L << index;
+			if (density != 1 && density != -1) {
+				if (densities.hasOverride == null)
+					densities.hasOverride = new long[64];
+				densities.hasOverride[index >>> 6] |= 1L << index;
+				++overrideCount;
+			}
+		}
+		if (overrideCount != 0) {
+			final float[] overrides = densities.overrides = new float[overrideCount];
+			final int[] overridesBefore = densities.overridesBefore = new int[64];
+			int count = 0;
+			for (int index = 0; index < 4096; ++index) {
+				if ((index & 63) == 0)
+					overridesBefore[index >>> 6] = count;
+				if (densities.hasOverride(index))
+					overrides[count++] = values[index];
+			}
+		}
+		return densities;
+	}
+
+}
@@ -0,0 +1,165 @@
+package io.github.cadiboo.nocubes.smoothable;
+
+import io.github.cadiboo.nocubes.NoCubes;
+import io.github.cadiboo.nocubes.client.render.MeshRenderer;
+import net.minecraft.block.BlockState;
+import net.minecraft.world.IWorldReader;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.chunk.IChunk;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.fml.DistExecutor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a count of the smoothable blocks in each {@link ChunkSection} (like vanilla's non-air block count)
+ * so that areas without any smoothables can be skipped without looking at their blocks.
+ * The count is stored in ASM-added fields and is kept up to date when blocks are set.
+ * <p>
+ * Counts are only ever worked out on the thread that sets the section's blocks (the main thread) or while nothing else can see the section
+ * (it's being loaded), counting on another thread could miss a block being set while it counts or read a palette that's being resized.
+ * Changing what is smoothable makes every count stale, stale counts are {@link #UNKNOWN} to other threads (so the section doesn't get skipped)
+ * until the main thread recounts them.
+ *
+ * @author Cadiboo
+ */
+public final class SmoothableCounts {
+
+	/**
+	 * Starts at 1 so that new sections (with a version of 0) get counted the first time they are needed.
+	 */
+	private static final AtomicInteger VERSION = new AtomicInteger(1);
+	/** The count of a section that hasn't been counted since what is smoothable changed, it might have smoothables. */
+	public static final int UNKNOWN = -1;
+
+	/**
+	 * Called whenever a state is made smoothable or not smoothable.
+	 */
+	public static void invalidateAll() {
+		VERSION.incrementAndGet();
+		// The sections the client is rendering, the rest get recounted when they're next used on the main thread
+		DistExecutor.unsafeRunWhenOn(Dist.CLIENT, () -> MeshRenderer::recountSmoothables);
+	}
+
+	/**
+	 * @return A number that changes whenever what is smoothable changes
+	 */
+	public static int getVersion() {
+		return VERSION.get();
+	}
+
+	/**
+	 * Called on the main thread after a block is set.
+	 */
+	public static void onSetBlockState(ChunkSection section, BlockState oldState, BlockState newState) {
+		final SmoothableHandler handler = NoCubes.smoothableHandler;
+		if (handler == null)
+			return;
+		if (section.nocubes_smoothableCountVersion != VERSION.get()) {
+			// Stale, this is the thread that sets the blocks so it can be recounted now (the count includes the new state)
+			recount(section);
+			return;
+		}
+		if (handler.isSmoothable(oldState))
+			--section.nocubes_smoothableCount;
+		if (handler.isSmoothable(newState))
+			++section.nocubes_smoothableCount;
+	}
+
+	/**
+	 * Can be called from any thread.
+	 *
+	 * @return The number of smoothables in the section, {@link #UNKNOWN} if it hasn't been counted since what is smoothable changed
+	 */
+	public static int get(ChunkSection section) {
+		// The version is volatile and written after the count, reading it first means the count is at least as new as it
+		if (section.nocubes_smoothableCountVersion != VERSION.get())
+			return UNKNOWN;
+		return section.nocubes_smoothableCount;
+	}
+
+	/**
+	 * Needs to be called on the thread that sets the section's blocks (the main thread), or before the section can be seen by other threads.
+	 *
+	 * @return The number of smoothables in the section, recounted if it was stale
+	 */
+	public static int getOrRecount(ChunkSection section) {
+		if (section.nocubes_smoothableCountVersion != VERSION.get())
+			recount(section);
+		return section.nocubes_smoothableCount;
+	}
+
+	/**
+	 * Needs to be called on the thread that sets the section's blocks (the main thread), or before the section can be seen by other threads.
+	 */
+	public static void recount(ChunkSection section) {
+		// Read before counting so that a change to what is smoothable while counting leaves the count stale
+		final int version = VERSION.get();
+		final SmoothableHandler handler = NoCubes.smoothableHandler;
+		if (handler == null)
+			return;
+		final int[] smoothables = {0};
+		// Counts each state in the palette once instead of checking all 4096 blocks
+		section.getData().count((state, count) -> {
+			if (handler.isSmoothable(state))
+				smoothables[0] += count;
+		});
+		section.nocubes_smoothableCount = smoothables[0];
+		section.nocubes_smoothableCountVersion = version;
+	}
+
+	/**
+	 * Recounts the loaded sections of the chunks within the radius of the chunk.
+	 * Needs to be called on the thread that sets the world's blocks (the main thread).
+	 */
+	public static void recountAround(IWorldReader world, int centreChunkX, int centreChunkZ, int radius) {
+		for (int chunkZ = centreChunkZ - radius; chunkZ <= centreChunkZ + radius; ++chunkZ) {
+			for (int chunkX = centreChunkX - radius; chunkX <= centreChunkX + radius; ++chunkX) {
+				final IChunk chunk = world.getChunk(chunkX, chunkZ, ChunkStatus.FULL, false);
+				if (chunk == null)
+					continue;
+				for (final ChunkSection section : chunk.getSections())
+					if (section != null)
+						getOrRecount(section);
+			}
+		}
+	}
+
+	/**
+	 * Unloaded chunks and empty sections count as having no smoothables (they get read as air).
+	 * Sections that haven't been counted since what is smoothable changed count as having smoothables
+	 * (use {@link #anyInArea(IWorldReader, int, int, int, int, int, int, boolean)} to recount them on the main thread).
+	 * Can be called from any thread.
+	 *
+	 * @return If any of the sections touching the area (inclusive) might have smoothables in them
+	 */
+	public static boolean anyInArea(IWorldReader world, int startX, int startY, int startZ, int endX, int endY, int endZ) {
+		return anyInArea(world, startX, startY, startZ, endX, endY, endZ, false);
+	}
+
+	/**
+	 * @param recount If stale counts should be recounted, only allowed on the thread that sets the world's blocks (the main thread)
+	 * @return If any of the sections touching the area (inclusive) might have smoothables in them
+	 */
+	public static boolean anyInArea(IWorldReader world, int startX, int startY, int startZ, int endX, int endY, int endZ, boolean recount) {
+		final int startSectionY = Math.max(0, startY >> 4);
+		final int endSectionY = endY >> 4;
+		for (int chunkZ = startZ >> 4; chunkZ <= endZ >> 4; ++chunkZ) {
+			for (int chunkX = startX >> 4; chunkX <= endX >> 4; ++chunkX) {
+				final IChunk chunk = world.getChunk(chunkX, chunkZ, ChunkStatus.FULL, false);
+				if (chunk == null)
+					continue;
+				final ChunkSection[] sections = chunk.getSections();
+				final int maxSectionY = Math.min(endSectionY, sections.length - 1);
+				for (int sectionY = startSectionY; sectionY <= maxSectionY; ++sectionY) {
+					final ChunkSection section = sections[sectionY];
+					if (section != null && (recount ? getOrRecount(section) : get(section)) != 0)
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
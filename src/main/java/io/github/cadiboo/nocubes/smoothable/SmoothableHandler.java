@@ -37,11 +37,13 @@ public interface SmoothableHandler {
 		@Override
 		public void addSmoothable(final BlockState state) {
 			state.nocubes_isTerrainSmoothable = true;
+			SmoothableCounts.invalidateAll();
 		}
 
 		@Override
 		public void removeSmoothable(final BlockState state) {
 			state.nocubes_isTerrainSmoothable = false;
+			SmoothableCounts.invalidateAll();
 		}
 
 		@Override
@@ -58,11 +60,13 @@ public interface SmoothableHandler {
 		@Override
 		public void addSmoothable(final BlockState state) {
 			smoothables.add(state);
+			SmoothableCounts.invalidateAll();
 		}
 
 		@Override
 		public void removeSmoothable(final BlockState state) {
 			smoothables.remove(state);
+			SmoothableCounts.invalidateAll();
 		}
 
 		@Override
@@ -0,0 +1,98 @@
+package io.github.cadiboo.nocubes.smoothable;
+
+import io.github.cadiboo.nocubes.NoCubes;
+import io.github.cadiboo.nocubes.client.render.MeshRenderer;
+import io.github.cadiboo.nocubes.util.ModUtil;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraftforge.fml.DistExecutor;
+
+import javax.annotation.Nullable;
+import java.util.function.ToIntFunction;
+
+/**
+ * The facts about each {@link BlockState} that meshing needs, worked out once and stored in arrays indexed by the state's id
+ * ({@link Block#getStateId}) so that the hot paths do an array load instead of virtual calls and property lookups for every block.
+ * Sections using the registry palette store these ids directly, so their densities can be looked up without getting their states at all.
+ * <p>
+ * Worked out again the next time it's needed after what is smoothable changes (see {@link SmoothableCounts#getVersion}).
+ * A table never changes once it's made, so it can be used from any thread.
+ *
+ * @author Cadiboo
+ */
+public final class StateProperties {
+
+	/** The state is smoothable. */
+	public static final int SMOOTHABLE = 1;
+	/**
+	 * The state's render type is invisible. Only set on the client.
+	 * The layers a state renders in aren't kept, they can change without what is smoothable changing (e.g. fancy graphics being toggled).
+	 */
+	public static final int INVISIBLE = 1 << 1;
+
+	@Nullable
+	private static volatile StateProperties current;
+
+	private final int version;
+	/** The density of each state (see {@link ModUtil#getBlockDensity}). Big enough to look up any id a registry palette can store. */
+	public final float[] densities;
+	/** Bits like {@link #SMOOTHABLE} for each state. */
+	public final int[] flags;
+
+	private StateProperties(int version, int size) {
+		this.version = version;
+		// A registry palette stores ids in log2(size) bits, lookups for its packed ids need to go up to the next power of 2
+		final int length = Math.max(1, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+		this.densities = new float[length];
+		this.flags = new int[length];
+	}
+
+	/**
+	 * @return The table for the current smoothables
+	 */
+	public static StateProperties get() {
+		final StateProperties table = current;
+		final int version = SmoothableCounts.getVersion();
+		if (table != null && table.version == version)
+			return table;
+		return build(version);
+	}
+
+	public float getDensity(BlockState state) {
+		return densities[Block.getStateId(state)];
+	}
+
+	public int getFlags(BlockState state) {
+		return flags[Block.getStateId(state)];
+	}
+
+	private static synchronized StateProperties build(int version) {
+		final StateProperties existing = current;
+		if (existing != null && existing.version == version)
+			return existing;
+		final SmoothableHandler handler = NoCubes.smoothableHandler;
+		final ToIntFunction<BlockState> renderFlags = DistExecutor.unsafeRunForDist(
+			() -> () -> MeshRenderer::getRenderFlags,
+			() -> () -> state -> 0
+		);
+		final int size = Block.BLOCK_STATE_IDS.size();
+		final StateProperties table = new StateProperties(version, size);
+		for (int id = 0; id < size; ++id) {
+			@Nullable
+			final BlockState state = Block.BLOCK_STATE_IDS.getByValue(id);
+			if (state == null) {
+				table.densities[id] = -1;
+				continue;
+			}
+			final boolean smoothable = handler.isSmoothable(state);
+			table.densities[id] = ModUtil.getBlockDensity(smoothable, state);
+			table.flags[id] = (smoothable ? SMOOTHABLE : 0) | renderFlags.applyAsInt(state);
+		}
+		// Ids past the end are never used, but a packed id can be anything up to the next power of 2
+		for (int id = size; id < table.densities.length; ++id)
+			table.densities[id] = -1;
+		current = table;
+		return table;
+	}
+
+}
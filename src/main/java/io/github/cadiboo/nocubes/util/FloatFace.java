@@ -0,0 +1,90 @@
+package io.github.cadiboo.nocubes.util;
+
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.MathHelper;
+import net.minecraft.util.math.vector.Matrix4f;
+
+/**
+ * A {@link Face} that stays as floats.
+ * Meshes store their vertices as floats and vertex builders take floats, so rendering uses these instead of
+ * widening every vertex to doubles and narrowing it back again.
+ *
+ * @author Cadiboo
+ */
+public final class FloatFace {
+
+	/** x, y, z of v0, then v1, v2 and v3. */
+	public final float[] vertices = new float[12];
+
+	/**
+	 * Same as {@link Face#assignNormalTo}, the normal at each vertex is the (normalised) cross product of the edges to the vertices before and after it.
+	 */
+	public void assignNormalTo(FloatFace toUse) {
+		final float[] vertices = this.vertices;
+		final float[] normals = toUse.vertices;
+		normal(vertices, 3, 0, 1, normals);
+		normal(vertices, 0, 1, 2, normals);
+		normal(vertices, 1, 2, 3, normals);
+		normal(vertices, 2, 3, 0, normals);
+	}
+
+	private static void normal(float[] vertices, int prev, int vertex, int next, float[] toUse) {
+		final int index = vertex * 3;
+		final float x = vertices[index];
+		final float y = vertices[index + 1];
+		final float z = vertices[index + 2];
+		final float x0 = vertices[prev * 3] - x;
+		final float y0 = vertices[prev * 3 + 1] - y;
+		final float z0 = vertices[prev * 3 + 2] - z;
+		final float x1 = vertices[next * 3] - x;
+		final float y1 = vertices[next * 3 + 1] - y;
+		final float z1 = vertices[next * 3 + 2] - z;
+		float normalX = y0 * z1 - z0 * y1;
+		float normalY = z0 * x1 - x0 * z1;
+		float normalZ = x0 * y1 - y0 * x1;
+		final float length = MathHelper.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+		// Zero vector, everything is already zero
+		if (length >= 0.0001F) {
+			normalX /= length;
+			normalY /= length;
+			normalZ /= length;
+		}
+		toUse[index] = normalX;
+		toUse[index + 1] = normalY;
+		toUse[index + 2] = normalZ;
+	}
+
+	public void multiply(float f) {
+		final float[] vertices = this.vertices;
+		for (int i = 0; i < 12; ++i)
+			vertices[i] *= f;
+	}
+
+	/**
+	 * Same as {@link Vec#transform} for each vertex.
+	 */
+	public void transform(Matrix4f matrix) {
+		final float[] vertices = this.vertices;
+		for (int index = 0; index < 12; index += 3) {
+			final float x = vertices[index];
+			final float y = vertices[index + 1];
+			final float z = vertices[index + 2];
+			vertices[index] = matrix.m00 * x + matrix.m01 * y + matrix.m02 * z + matrix.m03;
+			vertices[index + 1] = matrix.m10 * x + matrix.m11 * y + matrix.m12 * z + matrix.m13;
+			vertices[index + 2] = matrix.m20 * x + matrix.m21 * y + matrix.m22 * z + matrix.m23;
+		}
+	}
+
+	/**
+	 * For a face of normals, the same as {@link Face#assignAverageTo} then {@link Vec#getDirectionFromNormal}.
+	 */
+	public Direction getDirectionFromAverageNormal() {
+		final float[] vertices = this.vertices;
+		return Vec.getDirectionFromNormal(
+			(vertices[0] + vertices[3] + vertices[6] + vertices[9]) / 4,
+			(vertices[1] + vertices[4] + vertices[7] + vertices[10]) / 4,
+			(vertices[2] + vertices[5] + vertices[8] + vertices[11]) / 4
+		);
+	}
+
+}
@@ -1,24 +1,37 @@
 package io.github.cadiboo.nocubes.util;
 
+import io.github.cadiboo.nocubes.mesh.BinaryDensityField;
+import io.github.cadiboo.nocubes.smoothable.SectionDensities;
+import io.github.cadiboo.nocubes.smoothable.StateProperties;
+import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
 import net.minecraft.block.SnowBlock;
+import net.minecraft.util.BitArray;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.vector.Vector3i;
-import net.minecraft.world.World;
+import net.minecraft.util.palette.IPalette;
+import net.minecraft.util.palette.PalettedContainer;
+import net.minecraft.world.IBlockReader;
+import net.minecraft.world.IWorldReader;
 import net.minecraft.world.chunk.ChunkSection;
 import net.minecraft.world.chunk.ChunkStatus;
 import net.minecraft.world.chunk.IChunk;
 import net.minecraftforge.common.util.Lazy;
 
 import javax.annotation.Nullable;
+import java.util.Arrays;
 import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 /**
  * @author Cadiboo
  */
 public class ModUtil {
 
+	private static final ReusableCache<int[]> PALETTE_IDS = new ReusableCache.Local<>();
+	private static final ReusableCache<int[]> STATE_IDS = new ReusableCache.Local<>();
+
 	public static final Lazy<Boolean> IS_DEVELOPER_WORKSPACE = Lazy.concurrentOf(() -> {
 		final String target = System.getenv().get("target");
 		if (target == null)
@@ -26,7 +39,7 @@ public class ModUtil {
 		return target.contains("userdev");
 	});
 
-	public static void traverseArea(Vector3i startInclusive, Vector3i endInclusive, BlockPos.Mutable currentPosition, World world, BiConsumer<BlockState, BlockPos.Mutable> func) {
+	public static void traverseArea(Vector3i startInclusive, Vector3i endInclusive, BlockPos.Mutable currentPosition, IWorldReader world, BiConsumer<BlockState, BlockPos.Mutable> func) {
 		traverseArea(startInclusive.getX(), startInclusive.getY(), startInclusive.getZ(), endInclusive.getX(), endInclusive.getY(), endInclusive.getZ(), currentPosition, world, func);
 	}
 
@@ -34,7 +47,7 @@ public class ModUtil {
 	public static void traverseArea(
 		int startXInclusive, int startYInclusive, int startZInclusive,
 		int endXInclusive, int endYInclusive, int endZInclusive,
-		BlockPos.Mutable currentPosition, World world, BiConsumer<BlockState, BlockPos.Mutable> func
+		BlockPos.Mutable currentPosition, IWorldReader world, BiConsumer<BlockState, BlockPos.Mutable> func
 	) {
 		final BlockState air = Blocks.AIR.getDefaultState();
 		int endXPlus1 = endXInclusive + 1;
@@ -87,6 +100,264 @@ public class ModUtil {
 		}
 	}
 
+	/**
+	 * Bulk version of {@link #traverseArea}, copies the ids ({@link Block#getStateId}) of the states in the area into the array (indexed [z][y][x]).
+	 * Each row of a section is unpacked straight from the section's storage (which stores x in rows too),
+	 * instead of getting every state and calling something with it.
+	 * Missing and empty sections are filled with air.
+	 */
+	public static void copyStateIds(
+		int startX, int startY, int startZ,
+		int sizeX, int sizeY, int sizeZ,
+		IWorldReader world, int[] stateIds
+	) {
+		final int airId = Block.getStateId(Blocks.AIR.getDefaultState());
+		final int[] paletteIds = PALETTE_IDS.getOrCreate(() -> new int[1 << SectionDensities.MAX_PALETTE_BITS]);
+		final int endX = startX + sizeX;
+		final int endY = startY + sizeY;
+		final int endZ = startZ + sizeZ;
+		for (int chunkZ = startZ >> 4; chunkZ <= (endZ - 1) >> 4; ++chunkZ) {
+			final int minZ = Math.max(startZ, chunkZ << 4);
+			final int maxZ = Math.min(endZ, (chunkZ + 1) << 4);
+			for (int chunkX = startX >> 4; chunkX <= (endX - 1) >> 4; ++chunkX) {
+				final int minX = Math.max(startX, chunkX << 4);
+				final int maxX = Math.min(endX, (chunkX + 1) << 4);
+				final int rowLength = maxX - minX;
+				@Nullable
+				final IChunk chunk = world.getChunk(chunkX, chunkZ, ChunkStatus.EMPTY, false);
+				@Nullable
+				final ChunkSection[] sections = chunk == null ? null : chunk.getSections();
+				for (int sectionY = startY >> 4; sectionY <= (endY - 1) >> 4; ++sectionY) {
+					final int minY = Math.max(startY, sectionY << 4);
+					final int maxY = Math.min(endY, (sectionY + 1) << 4);
+					@Nullable
+					final ChunkSection section = sections == null || sectionY < 0 || sectionY >= sections.length ? null : sections[sectionY];
+					if (ChunkSection.isEmpty(section)) {
+						for (int z = minZ; z < maxZ; ++z)
+							for (int y = minY; y < maxY; ++y) {
+								final int index = get3dIndexInto1dArray(minX - startX, y - startY, z - startZ, sizeX, sizeY);
+								Arrays.fill(stateIds, index, index + rowLength, airId);
+							}
+						continue;
+					}
+					// Only read these once, another thread might resize the palette while we're working
+					final PalettedContainer<BlockState> data = section.getData();
+					final BitArray storage = data.storage;
+					final int bits = storage.bitsPerEntry;
+					final long[] packed = storage.getBackingLongArray();
+					final boolean registry = bits > SectionDensities.MAX_PALETTE_BITS;
+					if (!registry)
+						fillPaletteIds(data.palette, bits, airId, paletteIds);
+					for (int z = minZ; z < maxZ; ++z)
+						for (int y = minY; y < maxY; ++y) {
+							final int index = get3dIndexInto1dArray(minX - startX, y - startY, z - startZ, sizeX, sizeY);
+							final int sectionIndex = ((y & 15) << 8) | ((z & 15) << 4) | (minX & 15);
+							if (registry)
+								// The registry palette's entries are already state ids
+								PackedArrays.unpack(packed, bits, sectionIndex, rowLength, stateIds, index);
+							else
+								PackedArrays.expand(packed, bits, sectionIndex, rowLength, paletteIds, stateIds, index);
+						}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the ids ({@link Block#getStateId}) of all the section's states into the array in the section's own order (index = y << 8 | z << 4 | x).
+	 * A missing or empty section is all air.
+	 */
+	public static void copyStateIds(@Nullable ChunkSection section, int[] stateIds) {
+		final int airId = Block.getStateId(Blocks.AIR.getDefaultState());
+		if (ChunkSection.isEmpty(section)) {
+			Arrays.fill(stateIds, 0, 4096, airId);
+			return;
+		}
+		final PalettedContainer<BlockState> data = section.getData();
+		final BitArray storage = data.storage;
+		final int bits = storage.bitsPerEntry;
+		if (bits > SectionDensities.MAX_PALETTE_BITS) {
+			PackedArrays.unpack(storage.getBackingLongArray(), bits, 0, 4096, stateIds, 0);
+			return;
+		}
+		final int[] paletteIds = PALETTE_IDS.getOrCreate(() -> new int[1 << SectionDensities.MAX_PALETTE_BITS]);
+		fillPaletteIds(data.palette, bits, airId, paletteIds);
+		PackedArrays.expand(storage.getBackingLongArray(), bits, 0, 4096, paletteIds, stateIds, 0);
+	}
+
+	private static void fillPaletteIds(IPalette<BlockState> palette, int bits, int airId, int[] paletteIds) {
+		for (int id = 0, paletteSize = 1 << bits; id < paletteSize; ++id) {
+			@Nullable
+			final BlockState state = palette.get(id);
+			paletteIds[id] = state == null ? airId : Block.getStateId(state);
+		}
+	}
+
+	/**
+	 * Fills the density field (indexed [z][y][x]) with the densities of the blocks in the area.
+	 * Copies the densities cached on the chunk sections if the world can give us its chunks and the predicate is
+	 * {@link SectionDensities#IS_SMOOTHABLE}, otherwise gets each block state individually (e.g. for a ChunkRenderCache or a Region).
+	 */
+	public static void fillDensityField(
+		int startX, int startY, int startZ,
+		int sizeX, int sizeY, int sizeZ,
+		BlockPos.Mutable pos, IBlockReader world, Predicate<BlockState> isSmoothable, float[] densityField
+	) {
+		if (world instanceof IWorldReader) {
+			if (isSmoothable == SectionDensities.IS_SMOOTHABLE)
+				fillDensityFieldFromSections(startX, startY, startZ, sizeX, sizeY, sizeZ, (IWorldReader) world, densityField, null);
+			else
+				fillDensityFieldFromStateIds(startX, startY, startZ, sizeX, sizeY, sizeZ, (IWorldReader) world, isSmoothable, densityField, null);
+			return;
+		}
+		// The table is for the current smoothables, other predicates need each state checked
+		@Nullable
+		final StateProperties properties = isSmoothable == SectionDensities.IS_SMOOTHABLE ? StateProperties.get() : null;
+		int index = 0;
+		for (int z = 0; z < sizeZ; ++z) {
+			for (int y = 0; y < sizeY; ++y) {
+				for (int x = 0; x < sizeX; ++x, ++index) {
+					pos.setPos(startX + x, startY + y, startZ + z);
+					BlockState blockState = world.getBlockState(pos);
+					densityField[index] = properties != null ? properties.getDensity(blockState) : getBlockDensity(isSmoothable.test(blockState), blockState);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #fillDensityField(int, int, int, int, int, int, BlockPos.Mutable, IBlockReader, Predicate, float[])}
+	 * but for a bit-packed field that has already been {@link BinaryDensityField#reset} to the size of the area.
+	 */
+	public static void fillDensityField(
+		int startX, int startY, int startZ,
+		BlockPos.Mutable pos, IBlockReader world, Predicate<BlockState> isSmoothable, BinaryDensityField densityField
+	) {
+		final int sizeX = densityField.sizeX;
+		final int sizeY = densityField.sizeY;
+		final int sizeZ = densityField.sizeZ;
+		if (world instanceof IWorldReader) {
+			if (isSmoothable == SectionDensities.IS_SMOOTHABLE)
+				fillDensityFieldFromSections(startX, startY, startZ, sizeX, sizeY, sizeZ, (IWorldReader) world, null, densityField);
+			else
+				fillDensityFieldFromStateIds(startX, startY, startZ, sizeX, sizeY, sizeZ, (IWorldReader) world, isSmoothable, null, densityField);
+			return;
+		}
+		@Nullable
+		final StateProperties properties = isSmoothable == SectionDensities.IS_SMOOTHABLE ? StateProperties.get() : null;
+		int index = 0;
+		for (int z = 0; z < sizeZ; ++z) {
+			for (int y = 0; y < sizeY; ++y) {
+				for (int x = 0; x < sizeX; ++x, ++index) {
+					pos.setPos(startX + x, startY + y, startZ + z);
+					BlockState blockState = world.getBlockState(pos);
+					densityField.set(index, properties != null ? properties.getDensity(blockState) : getBlockDensity(isSmoothable.test(blockState), blockState));
+				}
+			}
+		}
+	}
+
+	/**
+	 * For predicates that the section caches aren't for, {@link #copyStateIds copies the state ids} of the area and then goes through them.
+	 * Runs of the same state (most of the world) only get tested once.
+	 * Exactly one of densityField or binaryField is non-null.
+	 */
+	private static void fillDensityFieldFromStateIds(
+		int startX, int startY, int startZ,
+		int sizeX, int sizeY, int sizeZ,
+		IWorldReader world, Predicate<BlockState> isSmoothable, @Nullable float[] densityField, @Nullable BinaryDensityField binaryField
+	) {
+		final int size = sizeX * sizeY * sizeZ;
+		int[] stateIds = STATE_IDS.get();
+		if (stateIds == null || stateIds.length < size)
+			STATE_IDS.set(stateIds = new int[size]);
+		copyStateIds(startX, startY, startZ, sizeX, sizeY, sizeZ, world, stateIds);
+		int previousId = -1;
+		float density = 0;
+		for (int index = 0; index < size; ++index) {
+			final int id = stateIds[index];
+			if (id != previousId) {
+				previousId = id;
+				final BlockState state = Block.getStateById(id);
+				density = getBlockDensity(isSmoothable.test(state), state);
+			}
+			if (binaryField != null)
+				binaryField.set(index, density);
+			else
+				densityField[index] = density;
+		}
+	}
+
+	/**
+	 * Goes through the area a chunk section at a time.
+	 * Each section's densities are only worked out once and cached on the section (see {@link SectionDensities}),
+	 * then copied into the field a row of up to 16 blocks at a time.
+	 * Exactly one of densityField or binaryField is non-null.
+	 */
+	private static void fillDensityFieldFromSections(
+		int startX, int startY, int startZ,
+		int sizeX, int sizeY, int sizeZ,
+		IWorldReader world, @Nullable float[] densityField, @Nullable BinaryDensityField binaryField
+	) {
+		final float airDensity = StateProperties.get().getDensity(Blocks.AIR.getDefaultState());
+		final int endX = startX + sizeX;
+		final int endY = startY + sizeY;
+		final int endZ = startZ + sizeZ;
+		for (int chunkZ = startZ >> 4; chunkZ <= (endZ - 1) >> 4; ++chunkZ) {
+			final int minZ = Math.max(startZ, chunkZ << 4);
+			final int maxZ = Math.min(endZ, (chunkZ + 1) << 4);
+			for (int chunkX = startX >> 4; chunkX <= (endX - 1) >> 4; ++chunkX) {
+				final int minX = Math.max(startX, chunkX << 4);
+				final int maxX = Math.min(endX, (chunkX + 1) << 4);
+				final int rowLength = maxX - minX;
+				final int rowMask = (1 << rowLength) - 1;
+				@Nullable
+				final IChunk chunk = world.getChunk(chunkX, chunkZ, ChunkStatus.EMPTY, false);
+				@Nullable
+				final ChunkSection[] sections = chunk == null ? null : chunk.getSections();
+				for (int sectionY = startY >> 4; sectionY <= (endY - 1) >> 4; ++sectionY) {
+					final int minY = Math.max(startY, sectionY << 4);
+					final int maxY = Math.min(endY, (sectionY + 1) << 4);
+					// If sectionY is out of range we want to continue supplying air
+					@Nullable
+					final ChunkSection section = sections == null || sectionY < 0 || sectionY >= sections.length ? null : sections[sectionY];
+					if (ChunkSection.isEmpty(section)) {
+						for (int z = minZ; z < maxZ; ++z)
+							for (int y = minY; y < maxY; ++y) {
+								final int index = get3dIndexInto1dArray(minX - startX, y - startY, z - startZ, sizeX, sizeY);
+								if (binaryField != null)
+									binaryField.setInsideBits(index, airDensity >= 0 ? -1L : 0, rowLength);
+								else
+									Arrays.fill(densityField, index, index + rowLength, airDensity);
+							}
+						continue;
+					}
+					final SectionDensities densities = SectionDensities.get(section);
+					final int rowStart = minX & 15;
+					for (int z = minZ; z < maxZ; ++z)
+						for (int y = minY; y < maxY; ++y) {
+							final int index = get3dIndexInto1dArray(minX - startX, y - startY, z - startZ, sizeX, sizeY);
+							final int row = densities.getRow(y & 15, z & 15) >>> rowStart;
+							if (binaryField != null)
+								binaryField.setInsideBits(index, row, rowLength);
+							else
+								for (int i = 0; i < rowLength; ++i)
+									densityField[index + i] = ((row >>> i) & 1) != 0 ? 1 : -1;
+							// Snow layers etc.
+							for (int overrides = (densities.getOverrideRow(y & 15, z & 15) >>> rowStart) & rowMask; overrides != 0; overrides &= overrides - 1) {
+								final int i = Integer.numberOfTrailingZeros(overrides);
+								final float density = densities.get(rowStart + i, y & 15, z & 15);
+								if (binaryField != null)
+									binaryField.set(index + i, density);
+								else
+									densityField[index + i] = density;
+							}
+						}
+				}
+			}
+		}
+	}
+
 	/**
 	 * @return Positive density if the block is smoothable (and will be at least partially inside the isosurface)
 	 */
@@ -0,0 +1,79 @@
+package io.github.cadiboo.nocubes.util;
+
+/**
+ * Utilities for working with the packed arrays that chunk sections store their palette indices in.
+ * Since 1.16 entries never span two longs, each long holds (64 / bitsPerEntry) entries starting from the lowest bits.
+ *
+ * @author Cadiboo
+ */
+public final class PackedArrays {
+
+	/**
+	 * Unpacks a run of consecutive entries and writes the value from the lookup for each of them into the output.
+	 *
+	 * @param packed       The backing array of the BitArray
+	 * @param bitsPerEntry The number of bits used by each entry
+	 * @param startIndex   The index of the first entry to unpack
+	 * @param count        The number of entries to unpack
+	 * @param lookup       The value for each possible entry, must be at least (1 &lt;&lt; bitsPerEntry) long
+	 * @param out          The array to write the values into
+	 * @param outIndex     The index to write the first value at
+	 */
+	public static void expand(long[] packed, int bitsPerEntry, int startIndex, int count, float[] lookup, float[] out, int outIndex) {
+		final int entriesPerLong = 64 / bitsPerEntry;
+		final long mask = (1L << bitsPerEntry) - 1;
+		int longIndex = startIndex / entriesPerLong;
+		int shift = (startIndex - longIndex * entriesPerLong) * bitsPerEntry;
+		long current = packed[longIndex];
+		final int outEnd = outIndex + count;
+		for (; outIndex < outEnd; ++outIndex) {
+			out[outIndex] = lookup[(int) ((current >>> shift) & mask)];
+			shift += bitsPerEntry;
+			if (shift + bitsPerEntry > 64 && outIndex + 1 < outEnd) {
+				shift = 0;
+				current = packed[++longIndex];
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #expand(long[], int, int, int, float[], float[], int)} but for int values.
+	 */
+	public static void expand(long[] packed, int bitsPerEntry, int startIndex, int count, int[] lookup, int[] out, int outIndex) {
+		final int entriesPerLong = 64 / bitsPerEntry;
+		final long mask = (1L << bitsPerEntry) - 1;
+		int longIndex = startIndex / entriesPerLong;
+		int shift = (startIndex - longIndex * entriesPerLong) * bitsPerEntry;
+		long current = packed[longIndex];
+		final int outEnd = outIndex + count;
+		for (; outIndex < outEnd; ++outIndex) {
+			out[outIndex] = lookup[(int) ((current >>> shift) & mask)];
+			shift += bitsPerEntry;
+			if (shift + bitsPerEntry > 64 && outIndex + 1 < outEnd) {
+				shift = 0;
+				current = packed[++longIndex];
+			}
+		}
+	}
+
+	/**
+	 * Unpacks a run of consecutive entries into the output as they are (for when the entries are already the values, e.g. a registry palette).
+	 */
+	public static void unpack(long[] packed, int bitsPerEntry, int startIndex, int count, int[] out, int outIndex) {
+		final int entriesPerLong = 64 / bitsPerEntry;
+		final long mask = (1L << bitsPerEntry) - 1;
+		int longIndex = startIndex / entriesPerLong;
+		int shift = (startIndex - longIndex * entriesPerLong) * bitsPerEntry;
+		long current = packed[longIndex];
+		final int outEnd = outIndex + count;
+		for (; outIndex < outEnd; ++outIndex) {
+			out[outIndex] = (int) ((current >>> shift) & mask);
+			shift += bitsPerEntry;
+			if (shift + bitsPerEntry > 64 && outIndex + 1 < outEnd) {
+				shift = 0;
+				current = packed[++longIndex];
+			}
+		}
+	}
+
+}
@@ -27,9 +27,10 @@ public class Vec {
 	}
 
 	public Direction getDirectionFromNormal() {
-		double x = this.x;
-		double y = this.y;
-		double z = this.z;
+		return getDirectionFromNormal(x, y, z);
+	}
+
+	public static Direction getDirectionFromNormal(double x, double y, double z) {
 		double ax = Math.abs(x);
 		double ay = Math.abs(y);
 		double az = Math.abs(z);
@@ -0,0 +1,169 @@
+package net.minecraft.world.chunk;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.fluid.FluidState;
+import net.minecraft.nbt.NBTUtil;
+import net.minecraft.network.PacketBuffer;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+
+import javax.annotation.Nullable;
+import java.util.function.Predicate;
+
+public class ChunkSection {
+	private static final IPalette<BlockState> REGISTRY_PALETTE = new IdentityPalette<>(Block.BLOCK_STATE_IDS, Blocks.AIR.getDefaultState());
+	private final int yBase;
+	private short blockRefCount;
+	private short blockTickRefCount;
+	private short fluidRefCount;
+	private final PalettedContainer<BlockState> data;
+
+	public ChunkSection(int yBaseIn) {
+		this(yBaseIn, (short) 0, (short) 0, (short) 0);
+	}
+
+	public ChunkSection(int yBaseIn, short blockRefCountIn, short blockTickRefCountIn, short fluidRefCountIn) {
+		this.yBase = yBaseIn;
+		this.blockRefCount = blockRefCountIn;
+		this.blockTickRefCount = blockTickRefCountIn;
+		this.fluidRefCount = fluidRefCountIn;
+		this.data = new PalettedContainer<>(REGISTRY_PALETTE, Block.BLOCK_STATE_IDS, NBTUtil::readBlockState, NBTUtil::writeBlockState, Blocks.AIR.getDefaultState());
+	}
+
+	public BlockState getBlockState(int x, int y, int z) {
+		return this.data.get(x, y, z);
+	}
+
+	public FluidState getFluidState(int x, int y, int z) {
+		return this.data.get(x, y, z).getFluidState();
+	}
+
+	public void lock() {
+		this.data.lock();
+	}
+
+	public void unlock() {
+		this.data.unlock();
+	}
+
+	public BlockState setBlockState(int x, int y, int z, BlockState blockStateIn) {
+		return this.setBlockState(x, y, z, blockStateIn, true);
+	}
+
+	public BlockState setBlockState(int x, int y, int z, BlockState state, boolean useLocks) {
+		BlockState blockstate;
+		if (useLocks) {
+			blockstate = this.data.lockedSwap(x, y, z, state);
+		} else {
+			blockstate = this.data.swap(x, y, z, state);
+		}
+
+		FluidState fluidstate = blockstate.getFluidState();
+		FluidState fluidstate1 = state.getFluidState();
+		if (!blockstate.isAir()) {
+			--this.blockRefCount;
+			if (blockstate.ticksRandomly()) {
+				--this.blockTickRefCount;
+			}
+		}
+
+		if (!fluidstate.isEmpty()) {
+			--this.fluidRefCount;
+		}
+
+		if (!state.isAir()) {
+			++this.blockRefCount;
+			if (state.ticksRandomly()) {
+				++this.blockTickRefCount;
+			}
+		}
+
+		if (!fluidstate1.isEmpty()) {
+			++this.fluidRefCount;
+		}
+
+		return blockstate;
+	}
+
+	public boolean isEmpty() {
+		return this.blockRefCount == 0;
+	}
+
+	public static boolean isEmpty(@Nullable ChunkSection section) {
+		return section == Chunk.EMPTY_SECTION || section.isEmpty();
+	}
+
+	public boolean needsRandomTickAny() {
+		return this.needsRandomTick() || this.needsRandomTickFluid();
+	}
+
+	public boolean needsRandomTick() {
+		return this.blockTickRefCount > 0;
+	}
+
+	public boolean needsRandomTickFluid() {
+		return this.fluidRefCount > 0;
+	}
+
+	public int getYLocation() {
+		return this.yBase;
+	}
+
+	public void recalculateRefCounts() {
+		this.blockRefCount = 0;
+		this.blockTickRefCount = 0;
+		this.fluidRefCount = 0;
+		this.data.count((state, count) -> {
+			FluidState fluidstate = state.getFluidState();
+			if (!state.isAir()) {
+				this.blockRefCount = (short) (this.blockRefCount + count);
+				if (state.ticksRandomly()) {
+					this.blockTickRefCount = (short) (this.blockTickRefCount + count);
+				}
+			}
+
+			if (!fluidstate.isEmpty()) {
+				this.blockRefCount = (short) (this.blockRefCount + count);
+				if (fluidstate.ticksRandomly()) {
+					this.fluidRefCount = (short) (this.fluidRefCount + count);
+				}
+			}
+
+		});
+	}
+
+	public PalettedContainer<BlockState> getData() {
+		return this.data;
+	}
+
+	@OnlyIn(Dist.CLIENT)
+	public void read(PacketBuffer packetBufferIn) {
+		this.blockRefCount = packetBufferIn.readShort();
+		this.data.read(packetBufferIn);
+	}
+
+	public void write(PacketBuffer packetBufferIn) {
+		packetBufferIn.writeShort(this.blockRefCount);
+		this.data.write(packetBufferIn);
+	}
+
+	public int getSize() {
+		return 2 + this.data.getSerializedSize();
+	}
+
+	public boolean isValidPOIState(Predicate<BlockState> state) {
+		return this.data.func_235963_a_(state);
+	}
+
+	// Added by ASM at runtime, see nocubes-transformer.js
+	public int nocubes_smoothableCount;
+	// Added by ASM at runtime, see nocubes-transformer.js
+	public volatile int nocubes_smoothableCountVersion;
+	// Added by ASM at runtime, see nocubes-transformer.js
+	public volatile io.github.cadiboo.nocubes.smoothable.SectionDensities nocubes_densities;
+	// Added by ASM at runtime, see nocubes-transformer.js
+	public volatile int nocubes_blockChanges;
+
+}
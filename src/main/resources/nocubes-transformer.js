@@ -24,6 +24,7 @@ function initializeCoreMod() {
 	/*Class*/ TypeInsnNode = Java.type("org.objectweb.asm.tree.TypeInsnNode");
 
 	ACC_PUBLIC = Opcodes.ACC_PUBLIC;
+	ACC_VOLATILE = Opcodes.ACC_VOLATILE;
 
 	INVOKESTATIC = Opcodes.INVOKESTATIC;
 	INVOKEVIRTUAL = Opcodes.INVOKEVIRTUAL;
@@ -171,6 +172,51 @@ function initializeCoreMod() {
 				return methodNode;
 			}
 		},
+		"RebuildTask#<init>": {
+			"target": {
+				"type": "CLASS",
+				"name": "net.minecraft.client.renderer.chunk.ChunkRenderDispatcher$ChunkRender$RebuildTask"
+			},
+			"transformer": function(classNode) {
+				// A class transformer because constructors can't be targeted by name and Forge adds a parameter to this one
+				var foundInit = false;
+				var methods = classNode.methods;
+				for (var i in methods) {
+					var methodNode = methods[i];
+					if (methodNode.name.equals("<init>")) {
+						injectRebuildScheduledHook(methodNode.instructions);
+						foundInit = true;
+					}
+				}
+				if (!foundInit)
+					throw "Error: Couldn't find RebuildTask#<init>!";
+				return classNode;
+			}
+		},
+		"ClientWorld#markBlockRangeForRenderUpdate": {
+			"target": {
+				"type": "METHOD",
+				"class": "net.minecraft.client.world.ClientWorld",
+				"methodName": "func_225319_b", // "markBlockRangeForRenderUpdate"
+				"methodDesc": "(Lnet/minecraft/util/math/BlockPos;Lnet/minecraft/block/BlockState;Lnet/minecraft/block/BlockState;)V"
+			},
+			"transformer": function(methodNode) {
+				injectBlockRenderUpdateHook(methodNode.instructions);
+				return methodNode;
+			}
+		},
+		"World#markAndNotifyBlock": {
+			"target": {
+				"type": "METHOD",
+				"class": "net.minecraft.world.World",
+				"methodName": "markAndNotifyBlock", // Added by Forge, not obfuscated
+				"methodDesc": "(Lnet/minecraft/util/math/BlockPos;Lnet/minecraft/world/chunk/Chunk;Lnet/minecraft/block/BlockState;Lnet/minecraft/block/BlockState;II)V"
+			},
+			"transformer": function(methodNode) {
+				injectBlockChangeHook(methodNode.instructions);
+				return methodNode;
+			}
+		},
 //		"ClientWorld#markForRerender": {
 //			"target": {
 //				"type": "METHOD",
@@ -450,6 +496,47 @@ function initializeCoreMod() {
 //				fields.add(new FieldNode(ACC_PUBLIC, "nocubes_isLeavesSmoothable", "Z", null, false));
 				return classNode;
 			}
+		},
+		"ChunkSection": {
+			"target": {
+				"type": "CLASS",
+				"name": "net.minecraft.world.chunk.ChunkSection"
+			},
+			"transformer": function(classNode) {
+				var fields = classNode.fields;
+				// Params: int access, String name, String descriptor, String signature, Object value
+				fields.add(new FieldNode(ACC_PUBLIC, "nocubes_smoothableCount", "I", null, null));
+				// Volatile because it's written after the count and read from other threads (see SmoothableCounts.get)
+				fields.add(new FieldNode(ACC_PUBLIC | ACC_VOLATILE, "nocubes_smoothableCountVersion", "I", null, null));
+				// Volatile because they're read from other threads, SectionDensities also compares-and-sets the densities with a field updater (which needs it)
+				fields.add(new FieldNode(ACC_PUBLIC | ACC_VOLATILE, "nocubes_densities", "Lio/github/cadiboo/nocubes/smoothable/SectionDensities;", null, null));
+				fields.add(new FieldNode(ACC_PUBLIC | ACC_VOLATILE, "nocubes_blockChanges", "I", null, null));
+
+				// A class transformer instead of method transformers because ChunkSection#read doesn't exist on the dedicated server
+				var setBlockStateName = ASMAPI.mapMethod("func_177484_a"); // setBlockState
+				var recalculateRefCountsName = ASMAPI.mapMethod("func_76672_e"); // recalculateRefCounts
+				var readName = ASMAPI.mapMethod("func_222634_a"); // read
+				var foundSetBlockState = false;
+				var foundRecalculateRefCounts = false;
+				var methods = classNode.methods;
+				for (var i in methods) {
+					var methodNode = methods[i];
+					if (methodNode.name.equals(setBlockStateName) && methodNode.desc.equals("(IIILnet/minecraft/block/BlockState;Z)Lnet/minecraft/block/BlockState;")) {
+						injectSetBlockStateHook(methodNode.instructions);
+						foundSetBlockState = true;
+					} else if (methodNode.name.equals(recalculateRefCountsName) && methodNode.desc.equals("()V")) {
+						injectInvalidateSmoothableCountHook(methodNode.instructions);
+						foundRecalculateRefCounts = true;
+					} else if (methodNode.name.equals(readName) && methodNode.desc.equals("(Lnet/minecraft/network/PacketBuffer;)V")) {
+						injectRecountSmoothablesHook(methodNode.instructions);
+					}
+				}
+				if (!foundSetBlockState)
+					throw "Error: Couldn't find ChunkSection#setBlockState!";
+				if (!foundRecalculateRefCounts)
+					throw "Error: Couldn't find ChunkSection#recalculateRefCounts!";
+				return classNode;
+			}
 		}
 //		,
 //		"VoxelShapes#getAllowedOffset": {
@@ -2202,6 +2289,275 @@ function injectGetAllowedOffsetHook(instructions) {
 
 }
 
+// 1) Finds the last ARETURN
+// 2) Inserts before it, with the old state still on the stack
+function injectSetBlockStateHook(instructions) {
+
+//	return blockstate;
+
+//	// NoCubes Start
+//	io.github.cadiboo.nocubes.hooks.Hooks.onSetBlockState(blockstate, this, x, y, z, state);
+//	// NoCubes End
+//	return blockstate;
+
+	var lastARETURN;
+	for (var i = instructions.size() - 1; i >= 0; --i) {
+		var instruction = instructions.get(i);
+		if (instruction.getOpcode() == ARETURN) {
+			lastARETURN = instruction;
+			print("Found injection point \"last ARETURN\" " + instruction);
+			break;
+		}
+	}
+	if (!lastARETURN) {
+		throw "Error: Couldn't find injection point \"last ARETURN\"!";
+	}
+
+	var toInject = new InsnList();
+
+	// Make list of instructions to inject
+	toInject.add(new InsnNode(Opcodes.DUP)); // blockstate (the old state)
+	toInject.add(new VarInsnNode(ALOAD, 0)); // this
+	toInject.add(new VarInsnNode(ILOAD, 1)); // x
+	toInject.add(new VarInsnNode(ILOAD, 2)); // y
+	toInject.add(new VarInsnNode(ILOAD, 3)); // z
+	toInject.add(new VarInsnNode(ALOAD, 4)); // state (the new state)
+	toInject.add(new MethodInsnNode(
+			//int opcode
+			INVOKESTATIC,
+			//String owner
+			"io/github/cadiboo/nocubes/hooks/Hooks",
+			//String name
+			"onSetBlockState",
+			//String descriptor
+			"(Lnet/minecraft/block/BlockState;Lnet/minecraft/world/chunk/ChunkSection;IIILnet/minecraft/block/BlockState;)V",
+			//boolean isInterface
+			false
+	));
+
+	// Inject instructions
+	instructions.insertBefore(lastARETURN, toInject);
+
+}
+
+// 1) Finds the first label
+// 2) Inserts after that label and before the label's instructions.
+function injectInvalidateSmoothableCountHook(instructions) {
+
+	var firstLabel;
+	var arrayLength = instructions.size();
+	for (var i = 0; i < arrayLength; ++i) {
+		var instruction = instructions.get(i);
+		if (instruction.getType() == LABEL) {
+			firstLabel = instruction;
+			print("Found injection point \"first Label\" " + instruction);
+			break;
+		}
+	}
+	if (!firstLabel) {
+		throw "Error: Couldn't find injection point \"first Label\"!";
+	}
+
+	var toInject = new InsnList();
+
+	// Make list of instructions to inject
+	toInject.add(new VarInsnNode(ALOAD, 0)); // this
+	toInject.add(new MethodInsnNode(
+			//int opcode
+			INVOKESTATIC,
+			//String owner
+			"io/github/cadiboo/nocubes/hooks/Hooks",
+			//String name
+			"invalidateSmoothableCount",
+			//String descriptor
+			"(Lnet/minecraft/world/chunk/ChunkSection;)V",
+			//boolean isInterface
+			false
+	));
+
+	// Inject instructions
+	instructions.insert(firstLabel, toInject);
+
+}
+
+// 1) Finds the last RETURN
+// 2) Inserts before it, after the section's data has been read
+function injectRecountSmoothablesHook(instructions) {
+
+	var lastRETURN;
+	for (var i = instructions.size() - 1; i >= 0; --i) {
+		var instruction = instructions.get(i);
+		if (instruction.getOpcode() == RETURN) {
+			lastRETURN = instruction;
+			print("Found injection point \"last RETURN\" " + instruction);
+			break;
+		}
+	}
+	if (!lastRETURN) {
+		throw "Error: Couldn't find injection point \"last RETURN\"!";
+	}
+
+	var toInject = new InsnList();
+
+	// Make list of instructions to inject
+	toInject.add(new VarInsnNode(ALOAD, 0)); // this
+	toInject.add(new MethodInsnNode(
+			//int opcode
+			INVOKESTATIC,
+			//String owner
+			"io/github/cadiboo/nocubes/hooks/Hooks",
+			//String name
+			"recountSmoothables",
+			//String descriptor
+			"(Lnet/minecraft/world/chunk/ChunkSection;)V",
+			//boolean isInterface
+			false
+	));
+
+	// Inject instructions
+	instructions.insertBefore(lastRETURN, toInject);
+
+}
+
+// 1) Finds every RETURN
+// 2) Inserts before each of them, after the task's fields have been set
+function injectRebuildScheduledHook(instructions) {
+
+	var RETURNs = [];
+	for (var i = 0; i < instructions.size(); ++i) {
+		var instruction = instructions.get(i);
+		if (instruction.getOpcode() == RETURN) {
+			RETURNs.push(instruction);
+			print("Found injection point \"RETURN\" " + instruction);
+		}
+	}
+	if (RETURNs.length == 0) {
+		throw "Error: Couldn't find injection point \"RETURN\"!";
+	}
+
+	for (var i in RETURNs) {
+		var toInject = new InsnList();
+
+		// Make list of instructions to inject
+		toInject.add(new VarInsnNode(ALOAD, 0)); // this
+		toInject.add(new VarInsnNode(ALOAD, 0)); // ChunkRender.this
+		toInject.add(new FieldInsnNode(GETFIELD, "net/minecraft/client/renderer/chunk/ChunkRenderDispatcher$ChunkRender$RebuildTask", "this$1", "Lnet/minecraft/client/renderer/chunk/ChunkRenderDispatcher$ChunkRender;"));
+		toInject.add(new MethodInsnNode(
+				//int opcode
+				INVOKESTATIC,
+				//String owner
+				"io/github/cadiboo/nocubes/hooks/Hooks",
+				//String name
+				"onRebuildScheduled",
+				//String descriptor
+				"(Lnet/minecraft/client/renderer/chunk/ChunkRenderDispatcher$ChunkRender$RebuildTask;Lnet/minecraft/client/renderer/chunk/ChunkRenderDispatcher$ChunkRender;)V",
+				//boolean isInterface
+				false
+		));
+
+		// Inject instructions
+		instructions.insertBefore(RETURNs[i], toInject);
+	}
+
+}
+
+// 1) Finds the first label
+// 2) Inserts after that label and before the label's instructions.
+function injectBlockRenderUpdateHook(instructions) {
+
+//	public void markBlockRangeForRenderUpdate(BlockPos pos, BlockState oldState, BlockState newState) {
+//		// NoCubes Start
+//		io.github.cadiboo.nocubes.hooks.Hooks.onBlockRenderUpdate(pos, oldState, newState);
+//		// NoCubes End
+//		this.worldRenderer.markBlockRangeForRenderUpdate(pos, oldState, newState);
+//	}
+
+	var firstLabel;
+	var arrayLength = instructions.size();
+	for (var i = 0; i < arrayLength; ++i) {
+		var instruction = instructions.get(i);
+		if (instruction.getType() == LABEL) {
+			firstLabel = instruction;
+			print("Found injection point \"first Label\" " + instruction);
+			break;
+		}
+	}
+	if (!firstLabel) {
+		throw "Error: Couldn't find injection point \"first Label\"!";
+	}
+
+	var toInject = new InsnList();
+
+	// Make list of instructions to inject
+	toInject.add(new VarInsnNode(ALOAD, 1)); // pos
+	toInject.add(new VarInsnNode(ALOAD, 2)); // oldState
+	toInject.add(new VarInsnNode(ALOAD, 3)); // newState
+	toInject.add(new MethodInsnNode(
+			//int opcode
+			INVOKESTATIC,
+			//String owner
+			"io/github/cadiboo/nocubes/hooks/Hooks",
+			//String name
+			"onBlockRenderUpdate",
+			//String descriptor
+			"(Lnet/minecraft/util/math/BlockPos;Lnet/minecraft/block/BlockState;Lnet/minecraft/block/BlockState;)V",
+			//boolean isInterface
+			false
+	));
+
+	// Inject instructions
+	instructions.insert(firstLabel, toInject);
+
+}
+
+// 1) Finds the first label
+// 2) Inserts after that label and before the label's instructions.
+function injectBlockChangeHook(instructions) {
+
+//	public void markAndNotifyBlock(BlockPos pos, @Nullable Chunk chunk, BlockState blockstate, BlockState state, int flags, int recursionLeft) {
+//		// NoCubes Start
+//		io.github.cadiboo.nocubes.hooks.Hooks.onBlockChange(this, pos);
+//		// NoCubes End
+//		...
+//	}
+
+	var firstLabel;
+	var arrayLength = instructions.size();
+	for (var i = 0; i < arrayLength; ++i) {
+		var instruction = instructions.get(i);
+		if (instruction.getType() == LABEL) {
+			firstLabel = instruction;
+			print("Found injection point \"first Label\" " + instruction);
+			break;
+		}
+	}
+	if (!firstLabel) {
+		throw "Error: Couldn't find injection point \"first Label\"!";
+	}
+
+	var toInject = new InsnList();
+
+	// Make list of instructions to inject
+	toInject.add(new VarInsnNode(ALOAD, 0)); // this
+	toInject.add(new VarInsnNode(ALOAD, 1)); // pos
+	toInject.add(new MethodInsnNode(
+			//int opcode
+			INVOKESTATIC,
+			//String owner
+			"io/github/cadiboo/nocubes/hooks/Hooks",
+			//String name
+			"onBlockChange",
+			//String descriptor
+			"(Lnet/minecraft/world/World;Lnet/minecraft/util/math/BlockPos;)V",
+			//boolean isInterface
+			false
+	));
+
+	// Inject instructions
+	instructions.insert(firstLabel, toInject);
+
+}
+
 
 
 
@@ -0,0 +1,93 @@
+package io.github.cadiboo.nocubes.collision;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Cadiboo
+ */
+public class ShapeBuilderTests {
+
+	/**
+	 * @return The index of the cell the coordinate is in, -1 if it's outside the grid
+	 */
+	static int cellOf(double[] coordinates, int cells, double coordinate) {
+		for (int i = 0; i < cells; ++i)
+			if (coordinates[i] <= coordinate && coordinate < coordinates[i + 1])
+				return i;
+		return -1;
+	}
+
+	static boolean isInside(ShapeBuilder builder, double x, double y, double z) {
+		int cellX = cellOf(builder.xs, builder.sizeX, x);
+		int cellY = cellOf(builder.ys, builder.sizeY, y);
+		int cellZ = cellOf(builder.zs, builder.sizeZ, z);
+		return cellX != -1 && cellY != -1 && cellZ != -1 && builder.isFilled(cellX, cellY, cellZ);
+	}
+
+	@Test
+	public void gridShouldContainTheSamePointsAsTheBoxes() {
+		Random random = new Random(0);
+		ShapeBuilder builder = new ShapeBuilder();
+		for (int shape = 0; shape < 20; ++shape) {
+			builder.clear();
+			int boxCount = 1 + random.nextInt(100);
+			// Coordinates in 1/8ths so that the test points (in 1/16ths, offset by 1/32) are never on an edge
+			double[][] boxes = new double[boxCount][6];
+			for (double[] box : boxes) {
+				for (int i = 0; i < 6; ++i)
+					box[i] = random.nextInt(9) / 8D;
+				builder.add(box[0], box[1], box[2], box[3], box[4], box[5]);
+			}
+			builder.build();
+			for (int z = 0; z < 16; ++z) {
+				for (int y = 0; y < 16; ++y) {
+					for (int x = 0; x < 16; ++x) {
+						double pointX = x / 16D + 1 / 32D;
+						double pointY = y / 16D + 1 / 32D;
+						double pointZ = z / 16D + 1 / 32D;
+						boolean expected = false;
+						for (double[] box : boxes)
+							expected |= isBetween(pointX, box[0], box[3]) && isBetween(pointY, box[1], box[4]) && isBetween(pointZ, box[2], box[5]);
+						assertEquals(expected, isInside(builder, pointX, pointY, pointZ));
+					}
+				}
+			}
+		}
+	}
+
+	static boolean isBetween(double value, double a, double b) {
+		return Math.min(a, b) <= value && value < Math.max(a, b);
+	}
+
+	@Test
+	public void nearlyIdenticalBoxesShouldBeMerged() {
+		ShapeBuilder builder = new ShapeBuilder();
+		builder.add(0, 0, 0, 0.5, 0.5, 0.5);
+		builder.add(0.00001, 0, 0.00002, 0.50001, 0.50002, 0.5);
+		builder.add(0.5, 0.5, 0.5, 0, 0, 0);
+		assertTrue(builder.build());
+		assertEquals(1, builder.sizeX);
+		assertEquals(1, builder.sizeY);
+		assertEquals(1, builder.sizeZ);
+		assertTrue(builder.isFilled(0, 0, 0));
+		assertEquals(0, builder.nextFilled(0));
+		assertEquals(-1, builder.nextFilled(1));
+	}
+
+	@Test
+	public void flatBoxesShouldBeIgnored() {
+		ShapeBuilder builder = new ShapeBuilder();
+		builder.add(0, 0, 0, 1, 0, 1);
+		builder.add(0.25, 0.25, 0.25, 0.25, 0.5, 0.5);
+		assertFalse(builder.build());
+		builder.clear();
+		assertFalse(builder.build());
+	}
+
+}
@@ -0,0 +1,46 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures how much memory the current thread allocates.
+ * Skips the test on JVMs that can't count allocations.
+ *
+ * @author Cadiboo
+ */
+final class Allocations {
+
+	interface Task {
+		void run();
+	}
+
+	/**
+	 * Runs the task enough times for any caches to be filled and buffers to grow to the size they need to be before measuring it.
+	 * Tasks shouldn't be capturing lambdas made inside the measured code, making them allocates.
+	 *
+	 * @return How many bytes a run of the task allocated on average
+	 */
+	static long perRun(Task task) {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		final long thread = Thread.currentThread().getId();
+
+		final int runs = 1000;
+		for (int i = 0; i < runs; ++i)
+			task.run();
+		// Asking for the allocated bytes can allocate too (it makes arrays on Java 8)
+		long before = threads.getThreadAllocatedBytes(thread);
+		final long overhead = threads.getThreadAllocatedBytes(thread) - before;
+		before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < runs; ++i)
+			task.run();
+		final long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+		return allocated / runs;
+	}
+
+}
@@ -0,0 +1,179 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Cadiboo
+ */
+public class BinaryDensityFieldTests {
+
+	static BinaryDensityField toBinary(float[] densities, int sizeX, int sizeY, int sizeZ) {
+		BinaryDensityField field = new BinaryDensityField();
+		field.reset(sizeX, sizeY, sizeZ);
+		for (int i = 0; i < densities.length; ++i)
+			field.set(i, densities[i]);
+		return field;
+	}
+
+	/**
+	 * Mostly +1/-1 with some snow-like fractional densities.
+	 */
+	static float[] makeNoisyField(Random random, int size) {
+		float[] densities = new float[size];
+		for (int i = 0; i < densities.length; ++i) {
+			int type = random.nextInt(10);
+			densities[i] = type == 0 ? random.nextInt(8) * 0.125F : type < 5 ? 1 : -1;
+		}
+		return densities;
+	}
+
+	@Test
+	public void getShouldReturnWhatWasSet() {
+		float[] densities = makeNoisyField(new Random(0), 18 * 18 * 18);
+		BinaryDensityField field = toBinary(densities, 18, 18, 18);
+		for (int i = 0; i < densities.length; ++i)
+			assertEquals(densities[i], field.get(i), 0);
+		assertArrayEquals(densities, field.toFloats(), 0);
+	}
+
+	@Test
+	public void settingAgainShouldReplaceTheOldDensity() {
+		BinaryDensityField field = new BinaryDensityField();
+		field.reset(3, 3, 3);
+		field.set(4, 0.5F);
+		field.set(4, -1);
+		assertEquals(-1, field.get(4), 0);
+		field.set(4, 0.25F);
+		field.set(4, 1);
+		assertEquals(1, field.get(4), 0);
+	}
+
+	@Test
+	public void onlyFieldsWithOtherDensitiesShouldHaveOverrides() {
+		BinaryDensityField field = new BinaryDensityField();
+		field.reset(3, 3, 3);
+		field.set(0, 1);
+		field.set(1, -1);
+		assertFalse(field.hasOverrides());
+		field.set(2, 0.5F);
+		assertTrue(field.hasOverrides());
+		field.reset(3, 3, 3);
+		assertFalse(field.hasOverrides());
+	}
+
+	@Test
+	public void equalFieldsShouldHaveEqualHashes() {
+		float[] densities = makeNoisyField(new Random(4), 18 * 18 * 18);
+		BinaryDensityField field = toBinary(densities, 18, 18, 18);
+		// Set in a different order so the overrides end up in different slots
+		BinaryDensityField reversed = new BinaryDensityField();
+		reversed.reset(18, 18, 18);
+		for (int i = densities.length - 1; i >= 0; --i)
+			reversed.set(i, densities[i]);
+		assertTrue(field.contentEquals(reversed));
+		assertEquals(field.contentHash(), reversed.contentHash());
+
+		// An override that got replaced with -1 is the same as a point that was always -1
+		int fractional = 0;
+		while (densities[fractional] == 1 || densities[fractional] == -1)
+			++fractional;
+		field.set(fractional, -1);
+		densities[fractional] = -1;
+		BinaryDensityField fresh = toBinary(densities, 18, 18, 18);
+		assertTrue(field.contentEquals(fresh));
+		assertEquals(field.contentHash(), fresh.contentHash());
+
+		fresh.set(fractional, 0.5F);
+		assertFalse(field.contentEquals(fresh));
+		assertNotEquals(field.contentHash(), fresh.contentHash());
+		fresh.set(fractional, -1);
+		fresh.set(100, -fresh.get(100));
+		assertFalse(field.contentEquals(fresh));
+		assertNotEquals(field.contentHash(), fresh.contentHash());
+	}
+
+	@Test
+	public void resetShouldClearEverything() {
+		BinaryDensityField field = toBinary(makeNoisyField(new Random(0), 5 * 5 * 5), 5, 5, 5);
+		field.reset(3, 3, 3);
+		for (int i = 0; i < 3 * 3 * 3; ++i)
+			assertEquals(-1, field.get(i), 0);
+	}
+
+	@Test
+	public void setInsideBitsShouldOnlyChangeThePointsInTheRange() {
+		Random random = new Random(5);
+		BinaryDensityField field = new BinaryDensityField();
+		field.reset(7, 11, 13);
+		boolean[] expected = new boolean[7 * 11 * 13];
+		for (int i = 0; i < 1000; ++i) {
+			int count = 1 + random.nextInt(64);
+			int index = random.nextInt(expected.length - count + 1);
+			long bits = random.nextLong();
+			field.setInsideBits(index, bits, count);
+			for (int j = 0; j < count; ++j)
+				expected[index + j] = (bits & (1L << j)) != 0;
+			for (int j = 0; j < expected.length; ++j)
+				assertEquals(expected[j], field.isInside(j));
+		}
+	}
+
+	@Test
+	public void outsideMaskShouldMatchTheFloatMask() {
+		// 18 isn't a multiple of 64 so lots of the cells cross the boundaries between longs
+		int size = 18;
+		float[] densities = makeNoisyField(new Random(1), size * size * size);
+		BinaryDensityField field = toBinary(densities, size, size, size);
+		for (int z = 0; z < size - 1; ++z)
+			for (int y = 0; y < size - 1; ++y)
+				for (int x = 0; x < size - 1; ++x) {
+					int expected = 0, corner = 0;
+					for (int cornerZ = 0; cornerZ < 2; ++cornerZ)
+						for (int cornerY = 0; cornerY < 2; ++cornerY)
+							for (int cornerX = 0; cornerX < 2; ++cornerX, ++corner)
+								if (densities[(size * size * (z + cornerZ)) + (size * (y + cornerY)) + (x + cornerX)] < 0)
+									expected |= 1 << corner;
+					assertEquals(expected, field.outsideMask((size * size * z) + (size * y) + x));
+				}
+	}
+
+	@Test
+	public void insideBitsShouldMatchEachPoint() {
+		float[] densities = makeNoisyField(new Random(3), 5 * 5 * 7);
+		BinaryDensityField field = toBinary(densities, 5, 5, 7);
+		for (int count = 1; count <= 64; ++count)
+			for (int index = 0; index + count <= densities.length; ++index) {
+				long bits = field.insideBits(index, count);
+				for (int i = 0; i < 64; ++i)
+					assertEquals(i < count && densities[index + i] >= 0, (bits & (1L << i)) != 0);
+			}
+	}
+
+	@Test
+	public void meshersShouldGenerateTheSameMeshFromBothFields() {
+		int size = 18;
+		float[] densities = makeNoisyField(new Random(2), size * size * size);
+		BinaryDensityField field = toBinary(densities, size, size, size);
+		for (MeshGenerator generator : new MeshGenerator[]{MeshGenerators.SURFACE_NETS, MeshGenerators.MARCHING_CUBES}) {
+			MeshBuffer expected = new MeshBuffer();
+			generator.generateOrThrow(densities, size, size, size, expected);
+			MeshBuffer actual = new MeshBuffer();
+			generator.generateOrThrow(field, actual);
+			assertEquals(expected.vertexCount, actual.vertexCount);
+			assertEquals(expected.quadCount, actual.quadCount);
+			for (int i = 0; i < expected.vertexCount * 3; ++i)
+				assertEquals(expected.vertices[i], actual.vertices[i], 0);
+			for (int i = 0; i < expected.quadCount * 4; ++i)
+				assertEquals(expected.quads[i], actual.quads[i]);
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Cadiboo
+ */
+public class IncrementalMeshTests {
+
+	/**
+	 * The vertices get appended in a different order so compare the quads by the positions of their vertices instead.
+	 * The positions aren't rounded, patched quads need to line up exactly with the rest of the mesh or there will be cracks between them.
+	 */
+	static List<String> describeQuads(MeshBuffer mesh) {
+		List<String> quads = new ArrayList<>();
+		for (int quad = 0; quad < mesh.quadCount; ++quad) {
+			StringBuilder builder = new StringBuilder();
+			builder.append(mesh.quadPositions[quad * 3]).append(',').append(mesh.quadPositions[quad * 3 + 1]).append(',').append(mesh.quadPositions[quad * 3 + 2]);
+			for (int i = 0; i < 4; ++i) {
+				int vertex = mesh.quads[quad * 4 + i];
+				for (int axis = 0; axis < 3; ++axis)
+					builder.append(' ').append(mesh.vertices[vertex * 3 + axis]);
+				if (mesh.normals != null)
+					for (int axis = 0; axis < 3; ++axis)
+						builder.append(' ').append(mesh.normals[vertex * 3 + axis]);
+			}
+			quads.add(builder.toString());
+		}
+		Collections.sort(quads);
+		return quads;
+	}
+
+	static void assertSameAsFullRemesh(IncrementalMesh incremental) {
+		MeshBuffer expected = new MeshBuffer(true, true);
+		SurfaceNets.generateOrThrow(incremental.densityField, expected);
+		assertEquals(describeQuads(expected), describeQuads(incremental.mesh));
+	}
+
+	@Test
+	public void updatesShouldMatchAFullRemesh() {
+		Random random = new Random(0);
+		int size = 18;
+		IncrementalMesh incremental = new IncrementalMesh();
+		incremental.densityField.reset(size, size, size);
+		float[] densities = BinaryDensityFieldTests.makeNoisyField(random, size * size * size);
+		for (int i = 0; i < densities.length; ++i)
+			incremental.densityField.set(i, densities[i]);
+		incremental.generate();
+		assertSameAsFullRemesh(incremental);
+
+		// Enough updates for the mesh to be re-generated a few times because of the unused vertices
+		for (int i = 0; i < 500; ++i) {
+			int type = random.nextInt(10);
+			float density = type == 0 ? random.nextInt(8) * 0.125F : type < 5 ? 1 : -1;
+			// Favour the edges because that's where the sub field gets clamped
+			int x = random.nextBoolean() ? random.nextInt(size) : random.nextBoolean() ? random.nextInt(2) : size - 1 - random.nextInt(2);
+			incremental.update(x, random.nextInt(size), random.nextInt(size), density);
+			assertSameAsFullRemesh(incremental);
+		}
+	}
+
+	@Test
+	public void digging() {
+		int size = 18;
+		IncrementalMesh incremental = new IncrementalMesh();
+		incremental.densityField.reset(size, size, size);
+		// Flat ground
+		for (int z = 0; z < size; ++z)
+			for (int y = 0; y < 8; ++y)
+				for (int x = 0; x < size; ++x)
+					incremental.densityField.set((size * size * z) + (size * y) + x, 1);
+		incremental.generate();
+		for (int y = 7; y >= 2; --y) {
+			incremental.update(8, y, 8, -1);
+			assertSameAsFullRemesh(incremental);
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Cadiboo
+ */
+public class LevelOfDetailTests {
+
+	interface Terrain {
+		boolean isInside(int x, int y, int z);
+	}
+
+	static BinaryDensityField makeField(Terrain terrain, int stride) {
+		int size = LevelOfDetail.getFieldSize(16, stride);
+		int padding = LevelOfDetail.getFieldPadding(stride);
+		BinaryDensityField field = new BinaryDensityField();
+		field.reset(size, size, size);
+		int index = 0;
+		for (int z = 0; z < size; ++z)
+			for (int y = 0; y < size; ++y)
+				for (int x = 0; x < size; ++x, ++index)
+					field.set(index, terrain.isInside(x - padding, y - padding, z - padding) ? 1 : -1);
+		return field;
+	}
+
+	static MeshBuffer generate(Terrain terrain, int stride, int finerFaces) {
+		MeshBuffer mesh = new MeshBuffer();
+		LevelOfDetail.generate(makeField(terrain, stride), stride, finerFaces, mesh);
+		return mesh;
+	}
+
+	static List<String> describeVertices(MeshBuffer mesh) {
+		List<String> quads = new ArrayList<>();
+		for (int quad = 0; quad < mesh.quadCount; ++quad) {
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < 4; ++i) {
+				int vertex = mesh.quads[quad * 4 + i];
+				for (int axis = 0; axis < 3; ++axis)
+					builder.append(' ').append(Math.round(mesh.vertices[vertex * 3 + axis] * 1000));
+			}
+			quads.add(builder.toString());
+		}
+		Collections.sort(quads);
+		return quads;
+	}
+
+	static final Terrain HILLS = (x, y, z) -> y < 8 + 5 * Math.sin(x * 0.3) * Math.cos(z * 0.2);
+
+	@Test
+	public void aStrideOfOneShouldMatchTheNormalMesh() {
+		Random random = new Random(0);
+		boolean[] blocks = new boolean[20 * 20 * 20];
+		for (int i = 0; i < blocks.length; ++i)
+			blocks[i] = random.nextBoolean();
+		Terrain noise = (x, y, z) -> blocks[((z + 2) * 20 + y + 2) * 20 + x + 2];
+
+		// The normal field for a section starts 1 block before it
+		float[] densities = new float[18 * 18 * 18];
+		int index = 0;
+		for (int z = 0; z < 18; ++z)
+			for (int y = 0; y < 18; ++y)
+				for (int x = 0; x < 18; ++x, ++index)
+					densities[index] = noise.isInside(x - 1, y - 1, z - 1) ? 1 : -1;
+		MeshBuffer full = new MeshBuffer();
+		SurfaceNets.generateOrThrow(densities, 18, 18, 18, full);
+		// Only keep the quads of the cells in the section, the ones at -1 are also made by the section before
+		MeshBuffer expected = new MeshBuffer();
+		for (int quad = 0; quad < full.quadCount; ++quad) {
+			boolean inSection = true;
+			for (int axis = 0; axis < 3; ++axis)
+				inSection &= full.quadPositions[quad * 3 + axis] >= 0;
+			if (!inSection)
+				continue;
+			int[] vertices = new int[4];
+			for (int i = 0; i < 4; ++i) {
+				int vertex = full.quads[quad * 4 + i];
+				vertices[i] = expected.addVertex(full.vertices[vertex * 3], full.vertices[vertex * 3 + 1], full.vertices[vertex * 3 + 2]);
+			}
+			expected.addQuad(vertices[0], vertices[1], vertices[2], vertices[3], 0, 0, 0);
+		}
+
+		assertEquals(describeVertices(expected), describeVertices(generate(noise, 1, 0)));
+	}
+
+	@Test
+	public void biggerStridesShouldMakeFewerQuads() {
+		int previous = generate(HILLS, 1, 0).quadCount;
+		for (int stride = 2; stride <= 8; stride *= 2) {
+			int quads = generate(HILLS, stride, 0).quadCount;
+			assertTrue("Stride " + stride + " made " + quads + " quads, the stride before made " + previous, quads * 3 <= previous);
+			previous = quads;
+		}
+	}
+
+	@Test
+	public void quadPositionsShouldBeInTheSection() {
+		for (int stride = 1; stride <= 8; stride *= 2) {
+			MeshBuffer mesh = generate(HILLS, stride, 0b111111);
+			for (int i = 0; i < mesh.quadCount * 3; ++i)
+				assertTrue(mesh.quadPositions[i] >= 0 && mesh.quadPositions[i] < 16);
+		}
+	}
+
+	@Test
+	public void sameStrideNeighboursShouldLineUp() {
+		Terrain flat = (x, y, z) -> y < 7;
+		for (int stride = 1; stride <= 8; stride *= 2) {
+			MeshBuffer mesh = generate(flat, stride, 0);
+			float minX = Float.MAX_VALUE;
+			float maxX = -Float.MAX_VALUE;
+			for (int vertex = 0; vertex < mesh.vertexCount; ++vertex) {
+				minX = Math.min(minX, mesh.vertices[vertex * 3]);
+				maxX = Math.max(maxX, mesh.vertices[vertex * 3]);
+			}
+			// Vertices of flat ground are halfway between the middles of the coarse points, the first and last ones are on the edges of the section
+			assertEquals(0, minX, 0.001);
+			assertEquals(16, maxX, 0.001);
+		}
+	}
+
+	@Test
+	public void finerFacesShouldOverlapTheFinerMesh() {
+		Terrain flat = (x, y, z) -> y < 7;
+		for (int stride = 2; stride <= 8; stride *= 2) {
+			MeshBuffer mesh = generate(flat, stride, LevelOfDetail.WEST);
+			float minX = Float.MAX_VALUE;
+			float maxX = -Float.MAX_VALUE;
+			for (int vertex = 0; vertex < mesh.vertexCount; ++vertex) {
+				minX = Math.min(minX, mesh.vertices[vertex * 3]);
+				maxX = Math.max(maxX, mesh.vertices[vertex * 3]);
+			}
+			assertEquals(-stride, minX, 0.001);
+			assertEquals(16, maxX, 0.001);
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import io.github.cadiboo.nocubes.util.Face;
+import io.github.cadiboo.nocubes.util.Vec;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.github.cadiboo.nocubes.mesh.SurfaceNetsTests.SIZE;
+import static io.github.cadiboo.nocubes.mesh.SurfaceNetsTests.assertVecEquals;
+import static io.github.cadiboo.nocubes.mesh.SurfaceNetsTests.makeField;
+import static io.github.cadiboo.nocubes.mesh.SurfaceNetsTests.makeFlatGround;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Cadiboo
+ */
+public class MarchingCubesTests {
+
+	static int countFaces(float[] field) {
+		int[] faces = {0};
+		MarchingCubes.generateOrThrow(field, SIZE, SIZE, SIZE, (x, y, z, face) -> {
+			++faces[0];
+			return true;
+		});
+		return faces[0];
+	}
+
+	/**
+	 * The y component of the normal of the first 3 vertices.
+	 */
+	static double normalY(Face face) {
+		Vec a = face.v1.copy().subtract(face.v0);
+		Vec b = face.v2.copy().subtract(face.v0);
+		return a.z * b.x - a.x * b.z;
+	}
+
+	@Test
+	public void emptyFieldShouldGenerateNothing() {
+		assertEquals(0, countFaces(makeField(-1)));
+	}
+
+	@Test
+	public void fullFieldShouldGenerateNothing() {
+		assertEquals(0, countFaces(makeField(1)));
+	}
+
+	@Test
+	public void flatGroundShouldGenerateTheSameSurfaceAsSurfaceNets() {
+		float[] field = makeFlatGround(1);
+		double[] surfaceNetsNormalY = {0};
+		SurfaceNets.generateOrThrow(field, SIZE, SIZE, SIZE, (x, y, z, face) -> {
+			surfaceNetsNormalY[0] = normalY(face);
+			return false;
+		});
+		int[] faces = {0};
+		MarchingCubes.generateOrThrow(field, SIZE, SIZE, SIZE, (x, y, z, face) -> {
+			++faces[0];
+			assertEquals(1, y);
+			assertEquals(1, face.v0.y, 0.0001);
+			assertEquals(1, face.v1.y, 0.0001);
+			assertEquals(1, face.v2.y, 0.0001);
+			assertEquals(1, face.v3.y, 0.0001);
+			// Same winding
+			assertTrue(Math.signum(normalY(face)) == Math.signum(surfaceNetsNormalY[0]));
+			return true;
+		});
+		// The triangles of each cell get merged into a single quad
+		assertEquals((SIZE - 2) * (SIZE - 2), faces[0]);
+	}
+
+	@Test
+	public void returningFalseShouldStopMeshing() {
+		int[] faces = {0};
+		MarchingCubes.generateOrThrow(makeFlatGround(1), SIZE, SIZE, SIZE, (x, y, z, face) -> {
+			++faces[0];
+			return false;
+		});
+		assertEquals(1, faces[0]);
+	}
+
+	@Test
+	public void verticesShouldBeSharedBetweenCells() {
+		MeshBuffer buffer = new MeshBuffer();
+		MarchingCubes.generateOrThrow(makeFlatGround(1), SIZE, SIZE, SIZE, buffer);
+		assertEquals((SIZE - 2) * (SIZE - 2), buffer.quadCount);
+		assertEquals((SIZE - 1) * (SIZE - 1), buffer.vertexCount);
+	}
+
+	@Test
+	public void bufferShouldMatchAction() {
+		float[] field = makeFlatGround(1);
+		field[(SIZE * SIZE * 2) + (SIZE * 2) + 2] = 1; // Bump in the ground
+		List<Face> expected = new ArrayList<>();
+		MarchingCubes.generateOrThrow(field, SIZE, SIZE, SIZE, (x, y, z, face) -> {
+			expected.add(new Face(face.v0.copy(), face.v1.copy(), face.v2.copy(), face.v3.copy()));
+			return true;
+		});
+
+		MeshBuffer buffer = new MeshBuffer();
+		MarchingCubes.generateOrThrow(field, SIZE, SIZE, SIZE, buffer);
+		assertEquals(expected.size(), buffer.quadCount);
+		Face face = new Face(new Vec(), new Vec(), new Vec(), new Vec());
+		for (int i = 0; i < buffer.quadCount; ++i) {
+			buffer.assignQuadTo(i, face);
+			assertVecEquals(expected.get(i).v0, face.v0);
+			assertVecEquals(expected.get(i).v1, face.v1);
+			assertVecEquals(expected.get(i).v2, face.v2);
+			assertVecEquals(expected.get(i).v3, face.v3);
+		}
+	}
+
+	@Test
+	public void mergedQuadsShouldUseTheSameEdgesAsTheTriangles() {
+		for (int mask = 0; mask < 256; ++mask) {
+			byte[] quads = MarchingCubes.Lookup.QUAD_TABLE[mask];
+			assertEquals(0, quads.length % 4);
+			// Every edge of the triangles is still used
+			for (byte edge : MarchingCubes.TRI_TABLE[mask]) {
+				boolean found = false;
+				for (byte quadEdge : quads)
+					found |= quadEdge == edge;
+				assertTrue(found);
+			}
+		}
+	}
+
+	@Test
+	public void generatingShouldNotAllocateOnceWarmedUp() {
+		BinaryDensityField field = SurfaceNetsTests.makeNoise(0);
+		float[] floats = field.toFloats();
+		MeshBuffer buffer = new MeshBuffer();
+		assertEquals(0, Allocations.perRun(() -> {
+			buffer.clear();
+			MarchingCubes.generateOrThrow(field, buffer);
+		}));
+		assertEquals(0, Allocations.perRun(() -> {
+			buffer.clear();
+			MarchingCubes.generateOrThrow(floats, 18, 18, 18, buffer);
+		}));
+		assertEquals(0, Allocations.perRun(() -> MarchingCubes.generateOrThrow(field, (x, y, z, face) -> true)));
+		assertEquals(0, Allocations.perRun(() -> MarchingCubes.generateOrThrow(floats, 18, 18, 18, (x, y, z, face) -> true)));
+	}
+
+}
@@ -0,0 +1,72 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import io.github.cadiboo.nocubes.util.FloatFace;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Cadiboo
+ */
+public class MeshBufferTests {
+
+	/**
+	 * More vertices and quads than a new buffer has room for.
+	 */
+	static MeshBuffer makeBigMesh(boolean storeQuadPositions, boolean storeNormals) {
+		MeshBuffer mesh = new MeshBuffer(storeQuadPositions, storeNormals);
+		for (int i = 0; i < 1000; ++i) {
+			int v0 = mesh.addVertex(i, i + 0.25F, i + 0.5F, 0, 1, 0);
+			int v1 = mesh.addVertex(i + 1, i, i, 1, 0, 0);
+			int v2 = mesh.addVertex(i, i + 1, i, 0, 0, 1);
+			int v3 = mesh.addVertex(i, i, i + 1, 0, -1, 0);
+			mesh.addQuad(v0, v1, v2, v3, i, -i, i * 2);
+		}
+		return mesh;
+	}
+
+	@Test
+	public void copyShouldHaveTheSameContents() {
+		MeshBuffer other = makeBigMesh(true, true);
+		MeshBuffer copy = new MeshBuffer(true, true);
+		copy.copyFrom(other);
+		assertEquals(other.vertexCount, copy.vertexCount);
+		assertEquals(other.quadCount, copy.quadCount);
+		assertArrayEquals(Arrays.copyOf(other.vertices, other.vertexCount * 3), Arrays.copyOf(copy.vertices, copy.vertexCount * 3), 0);
+		assertArrayEquals(Arrays.copyOf(other.normals, other.vertexCount * 3), Arrays.copyOf(copy.normals, copy.vertexCount * 3), 0);
+		assertArrayEquals(Arrays.copyOf(other.quads, other.quadCount * 4), Arrays.copyOf(copy.quads, copy.quadCount * 4));
+		assertArrayEquals(Arrays.copyOf(other.quadPositions, other.quadCount * 3), Arrays.copyOf(copy.quadPositions, copy.quadCount * 3));
+	}
+
+	@Test
+	public void copyWithoutNormalsShouldHaveZeroNormals() {
+		MeshBuffer copy = makeBigMesh(true, true);
+		// Old normals in the copy's array that shouldn't survive
+		copy.copyFrom(makeBigMesh(true, true));
+		MeshBuffer other = makeBigMesh(true, false);
+		// Bigger than the copy's normals array
+		for (int i = 0; i < 1000; ++i)
+			other.addVertex(i, i, i);
+		copy.copyFrom(other);
+		assertEquals(other.vertexCount, copy.vertexCount);
+		FloatFace normal = new FloatFace();
+		for (int quad = 0; quad < copy.quadCount; ++quad)
+			assertFalse(copy.assignNormalsTo(quad, normal));
+	}
+
+	@Test
+	public void copyWithoutQuadPositionsShouldNotHaveQuadPositions() {
+		MeshBuffer copy = makeBigMesh(true, false);
+		copy.copyFrom(makeBigMesh(false, false));
+		assertNull(copy.quadPositions);
+		// Still usable
+		copy.addQuad(0, 1, 2, 3, 0, 0, 0);
+		assertEquals(1001, copy.quadCount);
+	}
+
+}
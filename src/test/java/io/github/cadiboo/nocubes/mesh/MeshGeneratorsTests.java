@@ -0,0 +1,53 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import org.junit.Test;
+
+import static io.github.cadiboo.nocubes.mesh.SurfaceNetsTests.SIZE;
+import static io.github.cadiboo.nocubes.mesh.SurfaceNetsTests.makeFlatGround;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Cadiboo
+ */
+public class MeshGeneratorsTests {
+
+	@Test
+	public void namesShouldRoundTrip() {
+		for (String name : MeshGenerators.getNames())
+			assertEquals(name, MeshGenerators.getName(MeshGenerators.get(name)));
+		assertNull(MeshGenerators.get("NotAGenerator"));
+	}
+
+	@Test
+	public void nextShouldCycleThroughEveryGenerator() {
+		MeshGenerator generator = MeshGenerators.DEFAULT;
+		for (int i = 0; i < MeshGenerators.getNames().size(); ++i)
+			generator = MeshGenerators.next(generator);
+		assertSame(MeshGenerators.DEFAULT, generator);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void registeringTheSameNameTwiceShouldFail() {
+		MeshGenerators.register(MeshGenerators.getName(MeshGenerators.SURFACE_NETS), MeshGenerators.MARCHING_CUBES);
+	}
+
+	@Test
+	public void generatorsShouldMatchTheirAlgorithms() {
+		float[] field = makeFlatGround(1);
+		MeshBuffer expected = new MeshBuffer();
+		MeshBuffer actual = new MeshBuffer();
+
+		SurfaceNets.generateOrThrow(field, SIZE, SIZE, SIZE, expected);
+		MeshGenerators.SURFACE_NETS.generateOrThrow(field, SIZE, SIZE, SIZE, actual);
+		assertEquals(expected.quadCount, actual.quadCount);
+
+		expected.clear();
+		actual.clear();
+		MarchingCubes.generateOrThrow(field, SIZE, SIZE, SIZE, expected);
+		MeshGenerators.MARCHING_CUBES.generateOrThrow(field, SIZE, SIZE, SIZE, actual);
+		assertEquals(expected.quadCount, actual.quadCount);
+	}
+
+}
@@ -0,0 +1,82 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static io.github.cadiboo.nocubes.mesh.IncrementalMeshTests.describeQuads;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Cadiboo
+ */
+public class SeamVerticesTests {
+
+	static final int SIZE = 18;
+	// Neighbouring fields overlap by 2 points
+	static final int STEP = SIZE - 2;
+
+	/**
+	 * A field of SIZE^3 starting at the offset in the world.
+	 */
+	static BinaryDensityField makeField(float[] world, int worldSize, int offsetX, int offsetY, int offsetZ) {
+		BinaryDensityField field = new BinaryDensityField();
+		field.reset(SIZE, SIZE, SIZE);
+		int index = 0;
+		for (int z = 0; z < SIZE; ++z)
+			for (int y = 0; y < SIZE; ++y)
+				for (int x = 0; x < SIZE; ++x, ++index)
+					field.set(index, world[((offsetZ + z) * worldSize + offsetY + y) * worldSize + offsetX + x]);
+		return field;
+	}
+
+	static SeamVertices[] record(BinaryDensityField field) {
+		SeamVertices[] seams = {new SeamVertices(0), new SeamVertices(1), new SeamVertices(2)};
+		SurfaceNets.generateOrThrow(field, new MeshBuffer(), null, seams);
+		return seams;
+	}
+
+	@Test
+	public void reusingSeamsShouldMakeTheSameMesh() {
+		int worldSize = SIZE + STEP;
+		float[] world = BinaryDensityFieldTests.makeNoisyField(new Random(0), worldSize * worldSize * worldSize);
+		// The fields before the one at (STEP, STEP, STEP) on each axis
+		SeamVertices[] before = {
+			record(makeField(world, worldSize, 0, STEP, STEP))[0],
+			record(makeField(world, worldSize, STEP, 0, STEP))[1],
+			record(makeField(world, worldSize, STEP, STEP, 0))[2],
+		};
+		BinaryDensityField field = makeField(world, worldSize, STEP, STEP, STEP);
+
+		MeshBuffer expected = new MeshBuffer();
+		SurfaceNets.generateOrThrow(field, expected);
+		MeshBuffer reused = new MeshBuffer();
+		SurfaceNets.generateOrThrow(field, reused, before, null);
+		assertEquals(describeQuads(expected), describeQuads(reused));
+		// The cells are marched in the same order either way, so the reused vertices should be exactly the ones that would've been worked out
+		assertEquals(expected.vertexCount, reused.vertexCount);
+		assertArrayEquals(Arrays.copyOf(expected.vertices, expected.vertexCount * 3), Arrays.copyOf(reused.vertices, reused.vertexCount * 3), 0);
+	}
+
+	@Test
+	public void seamsThatDontMatchShouldNotBeUsed() {
+		int worldSize = SIZE + STEP;
+		float[] world = BinaryDensityFieldTests.makeNoisyField(new Random(1), worldSize * worldSize * worldSize);
+		SeamVertices[] before = {record(makeField(world, worldSize, 0, 0, 0))[0], null, null};
+		// Something changed on the seam after the field before was meshed
+		for (int i = 0; i < 20; ++i) {
+			int index = ((5 + i % 10) * worldSize + 3 + i / 2) * worldSize + STEP + i % 2;
+			world[index] = world[index] >= 0 ? -1 : 1;
+		}
+		BinaryDensityField field = makeField(world, worldSize, STEP, 0, 0);
+
+		MeshBuffer expected = new MeshBuffer();
+		SurfaceNets.generateOrThrow(field, expected);
+		MeshBuffer reused = new MeshBuffer();
+		SurfaceNets.generateOrThrow(field, reused, before, null);
+		assertEquals(describeQuads(expected), describeQuads(reused));
+	}
+
+}
@@ -0,0 +1,209 @@
+package io.github.cadiboo.nocubes.mesh;
+
+import io.github.cadiboo.nocubes.util.Face;
+import io.github.cadiboo.nocubes.util.Vec;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Cadiboo
+ */
+public class SurfaceNetsTests {
+
+	static final int SIZE = 4;
+
+	static float[] makeField(float density) {
+		float[] field = new float[SIZE * SIZE * SIZE];
+		Arrays.fill(field, density);
+		return field;
+	}
+
+	/**
+	 * Everything at or below groundY is smoothable.
+	 */
+	static float[] makeFlatGround(int groundY) {
+		float[] field = makeField(-1);
+		for (int z = 0; z < SIZE; ++z)
+			for (int y = 0; y <= groundY; ++y)
+				for (int x = 0; x < SIZE; ++x)
+					field[(SIZE * SIZE * z) + (SIZE * y) + x] = 1;
+		return field;
+	}
+
+	static int countFaces(float[] field) {
+		int[] faces = {0};
+		SurfaceNets.generateOrThrow(field, SIZE, SIZE, SIZE, (x, y, z, face) -> {
+			++faces[0];
+			return true;
+		});
+		return faces[0];
+	}
+
+	@Test
+	public void emptyFieldShouldGenerateNothing() {
+		assertEquals(0, countFaces(makeField(-1)));
+	}
+
+	@Test
+	public void fullFieldShouldGenerateNothing() {
+		assertEquals(0, countFaces(makeField(1)));
+	}
+
+	@Test
+	public void flatGroundShouldGenerateFlatFaces() {
+		// Blocks at y=0 and y=1 of the field are solid, the surface is at the top of y=1
+		// which is 1 block above the start of the mesh (the field has 1 block of negative padding)
+		float[] field = makeFlatGround(1);
+		int[] faces = {0};
+		SurfaceNets.generateOrThrow(field, SIZE, SIZE, SIZE, (x, y, z, face) -> {
+			++faces[0];
+			assertEquals(1, y);
+			assertEquals(1, face.v0.y, 0.0001);
+			assertEquals(1, face.v1.y, 0.0001);
+			assertEquals(1, face.v2.y, 0.0001);
+			assertEquals(1, face.v3.y, 0.0001);
+			return true;
+		});
+		// Faces on the negative boundary are skipped, leaving (SIZE - 2) * (SIZE - 2)
+		assertEquals((SIZE - 2) * (SIZE - 2), faces[0]);
+	}
+
+	@Test
+	public void returningFalseShouldStopMeshing() {
+		int[] faces = {0};
+		SurfaceNets.generateOrThrow(makeFlatGround(1), SIZE, SIZE, SIZE, (x, y, z, face) -> {
+			++faces[0];
+			return false;
+		});
+		assertEquals(1, faces[0]);
+	}
+
+	@Test
+	public void bufferShouldMatchAction() {
+		float[] field = makeFlatGround(1);
+		field[(SIZE * SIZE * 2) + (SIZE * 2) + 2] = 1; // Bump in the ground
+		List<Face> expected = new ArrayList<>();
+		List<int[]> expectedPositions = new ArrayList<>();
+		SurfaceNets.generateOrThrow(field, SIZE, SIZE, SIZE, (x, y, z, face) -> {
+			expected.add(new Face(face.v0.copy(), face.v1.copy(), face.v2.copy(), face.v3.copy()));
+			// The buffer stores positions relative to the start of the mesh, not the field
+			expectedPositions.add(new int[]{x - 1, y - 1, z - 1});
+			return true;
+		});
+
+		MeshBuffer buffer = new MeshBuffer();
+		SurfaceNets.generateOrThrow(field, SIZE, SIZE, SIZE, buffer);
+		assertEquals(expected.size(), buffer.quadCount);
+		Face face = new Face(new Vec(), new Vec(), new Vec(), new Vec());
+		for (int i = 0; i < buffer.quadCount; ++i) {
+			buffer.assignQuadTo(i, face);
+			assertVecEquals(expected.get(i).v0, face.v0);
+			assertVecEquals(expected.get(i).v1, face.v1);
+			assertVecEquals(expected.get(i).v2, face.v2);
+			assertVecEquals(expected.get(i).v3, face.v3);
+			assertArrayEquals(expectedPositions.get(i), Arrays.copyOfRange(buffer.quadPositions, i * 3, i * 3 + 3));
+		}
+	}
+
+	/**
+	 * A section sized field of random blocks.
+	 */
+	static BinaryDensityField makeNoise(long seed) {
+		Random random = new Random(seed);
+		BinaryDensityField field = new BinaryDensityField();
+		field.reset(18, 18, 18);
+		for (int i = 0; i < 18 * 18 * 18; ++i)
+			field.set(i, random.nextBoolean() ? 1 : -1);
+		return field;
+	}
+
+	@Test
+	public void flatGroundNormalsShouldPointUp() {
+		MeshBuffer buffer = new MeshBuffer(true, true);
+		SurfaceNets.generateOrThrow(makeFlatGround(1), SIZE, SIZE, SIZE, buffer);
+		for (int vertex = 0; vertex < buffer.vertexCount; ++vertex)
+			assertArrayEquals(new float[]{0, 1, 0}, Arrays.copyOfRange(buffer.normals, vertex * 3, vertex * 3 + 3), 0.0001F);
+	}
+
+	@Test
+	public void normalsShouldPointOutOfTheSurface() {
+		// A ball in the middle of the field
+		int size = 12;
+		float[] field = new float[size * size * size];
+		int index = 0;
+		for (int z = 0; z < size; ++z)
+			for (int y = 0; y < size; ++y)
+				for (int x = 0; x < size; ++x, ++index)
+					field[index] = 4.5F - (float) Math.sqrt((x - 5.5) * (x - 5.5) + (y - 5.5) * (y - 5.5) + (z - 5.5) * (z - 5.5));
+		MeshBuffer buffer = new MeshBuffer(true, true);
+		SurfaceNets.generateOrThrow(field, size, size, size, buffer);
+		assertTrue(buffer.vertexCount > 0);
+		for (int vertex = 0; vertex < buffer.vertexCount; ++vertex) {
+			// Point p of the field is at p - 0.5 in the mesh
+			Vec out = new Vec(buffer.vertices[vertex * 3] - 5, buffer.vertices[vertex * 3 + 1] - 5, buffer.vertices[vertex * 3 + 2] - 5).normalise();
+			float[] normal = Arrays.copyOfRange(buffer.normals, vertex * 3, vertex * 3 + 3);
+			assertTrue(out.x * normal[0] + out.y * normal[1] + out.z * normal[2] > 0.95);
+		}
+	}
+
+	@Test
+	public void normalsShouldFaceTheSameWayAsTheQuads() {
+		// Hills
+		int size = 18;
+		float[] field = new float[size * size * size];
+		int index = 0;
+		for (int z = 0; z < size; ++z)
+			for (int y = 0; y < size; ++y)
+				for (int x = 0; x < size; ++x, ++index)
+					field[index] = (float) (8 + 3 * Math.sin(x * 0.7) * Math.cos(z * 0.5) - y);
+		MeshBuffer buffer = new MeshBuffer(true, true);
+		SurfaceNets.generateOrThrow(field, size, size, size, buffer);
+		Face face = new Face(new Vec(), new Vec(), new Vec(), new Vec());
+		Face quadNormal = new Face(new Vec(), new Vec(), new Vec(), new Vec());
+		Face vertexNormal = new Face(new Vec(), new Vec(), new Vec(), new Vec());
+		Vec quadAverage = new Vec();
+		Vec vertexAverage = new Vec();
+		for (int quad = 0; quad < buffer.quadCount; ++quad) {
+			assertTrue(buffer.assignNormalsTo(quad, vertexNormal));
+			buffer.assignQuadTo(quad, face);
+			face.assignNormalTo(quadNormal);
+			// The renderers flip the quad normals to face out
+			quadNormal.multiply(-1);
+			quadNormal.assignAverageTo(quadAverage);
+			vertexNormal.assignAverageTo(vertexAverage);
+			assertTrue(quadAverage.x * vertexAverage.x + quadAverage.y * vertexAverage.y + quadAverage.z * vertexAverage.z > 0);
+		}
+	}
+
+	@Test
+	public void generatingShouldNotAllocateOnceWarmedUp() {
+		BinaryDensityField field = makeNoise(0);
+		float[] floats = field.toFloats();
+		MeshBuffer buffer = new MeshBuffer();
+		assertEquals(0, Allocations.perRun(() -> {
+			buffer.clear();
+			SurfaceNets.generateOrThrow(field, buffer);
+		}));
+		assertEquals(0, Allocations.perRun(() -> {
+			buffer.clear();
+			SurfaceNets.generateOrThrow(floats, 18, 18, 18, buffer);
+		}));
+		assertEquals(0, Allocations.perRun(() -> SurfaceNets.generateOrThrow(field, (x, y, z, face) -> true)));
+		assertEquals(0, Allocations.perRun(() -> SurfaceNets.generateOrThrow(floats, 18, 18, 18, (x, y, z, face) -> true)));
+	}
+
+	static void assertVecEquals(Vec expected, Vec actual) {
+		assertEquals(expected.x, actual.x, 0.0001);
+		assertEquals(expected.y, actual.y, 0.0001);
+		assertEquals(expected.z, actual.z, 0.0001);
+	}
+
+}
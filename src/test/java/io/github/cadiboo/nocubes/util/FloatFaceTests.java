@@ -0,0 +1,98 @@
+package io.github.cadiboo.nocubes.util;
+
+import io.github.cadiboo.nocubes.mesh.MeshBuffer;
+import io.github.cadiboo.nocubes.mesh.SurfaceNets;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The float path (mesh buffer -> {@link FloatFace}) should give the same geometry as the double path (face action -> {@link Face}).
+ *
+ * @author Cadiboo
+ */
+public class FloatFaceTests {
+
+	static final int SIZE = 18;
+
+	static float[] makeNoise(long seed) {
+		Random random = new Random(seed);
+		float[] field = new float[SIZE * SIZE * SIZE];
+		for (int i = 0; i < field.length; ++i)
+			field[i] = random.nextFloat() * 2 - 1;
+		return field;
+	}
+
+	static List<Face> generateFaces(float[] field) {
+		List<Face> faces = new ArrayList<>();
+		SurfaceNets.generateOrThrow(field, SIZE, SIZE, SIZE, (x, y, z, face) -> {
+			faces.add(new Face(face.v0.copy(), face.v1.copy(), face.v2.copy(), face.v3.copy()));
+			return true;
+		});
+		return faces;
+	}
+
+	static void assertFaceEquals(Face expected, FloatFace actual, double delta) {
+		Vec[] vecs = {expected.v0, expected.v1, expected.v2, expected.v3};
+		for (int i = 0; i < 4; ++i) {
+			assertEquals(vecs[i].x, actual.vertices[i * 3], delta);
+			assertEquals(vecs[i].y, actual.vertices[i * 3 + 1], delta);
+			assertEquals(vecs[i].z, actual.vertices[i * 3 + 2], delta);
+		}
+	}
+
+	@Test
+	public void positionsShouldMatchTheDoublePath() {
+		float[] field = makeNoise(0);
+		List<Face> expected = generateFaces(field);
+		MeshBuffer buffer = new MeshBuffer();
+		SurfaceNets.generateOrThrow(field, SIZE, SIZE, SIZE, buffer);
+		assertEquals(expected.size(), buffer.quadCount);
+		FloatFace face = new FloatFace();
+		for (int quad = 0; quad < buffer.quadCount; ++quad) {
+			buffer.assignQuadTo(quad, face);
+			// Floats have ~7 significant digits, the mesh is at most 18 blocks across
+			assertFaceEquals(expected.get(quad), face, 0.00001);
+		}
+	}
+
+	@Test
+	public void normalsShouldMatchTheDoublePath() {
+		float[] field = makeNoise(1);
+		List<Face> expected = generateFaces(field);
+		MeshBuffer buffer = new MeshBuffer();
+		SurfaceNets.generateOrThrow(field, SIZE, SIZE, SIZE, buffer);
+		Face expectedNormal = new Face(new Vec(), new Vec(), new Vec(), new Vec());
+		FloatFace face = new FloatFace();
+		FloatFace normal = new FloatFace();
+		for (int quad = 0; quad < buffer.quadCount; ++quad) {
+			expected.get(quad).assignNormalTo(expectedNormal);
+			expectedNormal.multiply(-1);
+			buffer.assignQuadTo(quad, face);
+			face.assignNormalTo(normal);
+			normal.multiply(-1);
+			assertFaceEquals(expectedNormal, normal, 0.001);
+		}
+	}
+
+	@Test
+	public void directionShouldMatchTheDoublePath() {
+		Face face = new Face(new Vec(0, 0, 0), new Vec(1, 0, 0), new Vec(1, 0, 1), new Vec(0, 0, 1));
+		Face normal = new Face(new Vec(), new Vec(), new Vec(), new Vec());
+		face.assignNormalTo(normal);
+		Vec average = new Vec();
+		normal.assignAverageTo(average);
+
+		FloatFace floatFace = new FloatFace();
+		float[] vertices = {0, 0, 0, 1, 0, 0, 1, 0, 1, 0, 0, 1};
+		System.arraycopy(vertices, 0, floatFace.vertices, 0, 12);
+		FloatFace floatNormal = new FloatFace();
+		floatFace.assignNormalTo(floatNormal);
+		assertEquals(average.getDirectionFromNormal(), floatNormal.getDirectionFromAverageNormal());
+	}
+
+}
@@ -0,0 +1,88 @@
+package io.github.cadiboo.nocubes.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Cadiboo
+ */
+public class PackedArraysTests {
+
+	/**
+	 * Packs the same way as 1.16's BitArray.
+	 */
+	static long[] pack(int[] values, int bitsPerEntry) {
+		int entriesPerLong = 64 / bitsPerEntry;
+		long[] packed = new long[(values.length + entriesPerLong - 1) / entriesPerLong];
+		for (int i = 0; i < values.length; ++i)
+			packed[i / entriesPerLong] |= (long) values[i] << ((i % entriesPerLong) * bitsPerEntry);
+		return packed;
+	}
+
+	@Test
+	public void expandShouldMatchEachEntry() {
+		Random random = new Random(0);
+		// 4096 is the size of a chunk section
+		int[] values = new int[4096];
+		for (int bits = 4; bits <= 8; ++bits) {
+			float[] lookup = new float[1 << bits];
+			for (int i = 0; i < lookup.length; ++i)
+				lookup[i] = i * 0.5F;
+			for (int i = 0; i < values.length; ++i)
+				values[i] = random.nextInt(1 << bits);
+			long[] packed = pack(values, bits);
+
+			// Rows of 16 like the density field fill uses, with some offset runs to cross the long boundaries
+			for (int start = 0; start < values.length - 16; start += 13) {
+				float[] out = new float[18];
+				PackedArrays.expand(packed, bits, start, 16, lookup, out, 1);
+				assertEquals(0, out[0], 0);
+				for (int i = 0; i < 16; ++i)
+					assertEquals(lookup[values[start + i]], out[i + 1], 0);
+				assertEquals(0, out[17], 0);
+			}
+		}
+	}
+
+	@Test
+	public void expandShouldReadTheLastEntry() {
+		int bits = 5;
+		int[] values = new int[4096];
+		values[4095] = 31;
+		float[] lookup = new float[1 << bits];
+		lookup[31] = 1;
+		float[] out = new float[1];
+		PackedArrays.expand(pack(values, bits), bits, 4095, 1, lookup, out, 0);
+		assertEquals(1, out[0], 0);
+	}
+
+	@Test
+	public void unpackShouldMatchEachEntry() {
+		Random random = new Random(1);
+		int[] values = new int[4096];
+		// Registry palettes use more bits, 15 doesn't divide 64 so entries leave some bits unused at the end of each long
+		for (int bits : new int[]{4, 9, 15}) {
+			for (int i = 0; i < values.length; ++i)
+				values[i] = random.nextInt(1 << bits);
+			long[] packed = pack(values, bits);
+			int[] lookup = new int[1 << bits];
+			for (int i = 0; i < lookup.length; ++i)
+				lookup[i] = -i;
+
+			for (int start = 0; start < values.length - 16; start += 13) {
+				int[] unpacked = new int[16];
+				int[] expanded = new int[16];
+				PackedArrays.unpack(packed, bits, start, 16, unpacked, 0);
+				PackedArrays.expand(packed, bits, start, 16, lookup, expanded, 0);
+				for (int i = 0; i < 16; ++i) {
+					assertEquals(values[start + i], unpacked[i]);
+					assertEquals(-values[start + i], expanded[i]);
+				}
+			}
+		}
+	}
+
+}